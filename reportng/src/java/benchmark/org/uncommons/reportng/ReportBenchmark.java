@@ -0,0 +1,115 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testng.ISuite;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Measures the time taken to generate complete HTML and JUnit XML reports for
+ * synthetic suites of various sizes.  Each invocation writes a full report, so
+ * this is measured as single-shot time rather than throughput.  The shape of the
+ * suites can be changed from the JMH command line (e.g. {@literal -p fanOut=10}),
+ * and reporter options can be set as system properties via {@literal -jvmArgsAppend}.
+ * @author Daniel Dyer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportBenchmark
+{
+    @Param({"10000", "100000", "1000000"})
+    private int resultCount;
+
+    @Param("0.05")
+    private double failureRatio;
+
+    @Param("30")
+    private int stackDepth;
+
+    @Param("1")
+    private int logLines;
+
+    @Param("1")
+    private int fanOut;
+
+    private List<ISuite> suites;
+    private File outputDirectory;
+
+
+    @Setup
+    public void setUp()
+    {
+        suites = new SyntheticSuites(resultCount, failureRatio, stackDepth, logLines, fanOut).generate();
+        outputDirectory = new File(System.getProperty("java.io.tmpdir"), "reportng-benchmark-" + System.nanoTime());
+    }
+
+
+    @TearDown
+    public void tearDown()
+    {
+        delete(outputDirectory);
+    }
+
+
+    @Benchmark
+    public File htmlReport()
+    {
+        new HTMLReporter().generateReport(Collections.<XmlSuite>emptyList(), suites, outputDirectory.getPath());
+        return outputDirectory;
+    }
+
+
+    @Benchmark
+    public File junitXMLReport()
+    {
+        new JUnitXMLReporter().generateReport(Collections.<XmlSuite>emptyList(), suites, outputDirectory.getPath());
+        return outputDirectory;
+    }
+
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
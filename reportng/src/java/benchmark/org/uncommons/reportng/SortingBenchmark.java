@@ -0,0 +1,104 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.testng.IClass;
+import org.testng.IResultMap;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Measures the cost of the sorting that the {@link HTMLReporter} does before
+ * rendering: grouping results by test class and sorting the methods in each group.
+ * @author Daniel Dyer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SortingBenchmark
+{
+    @Param({"10000", "100000", "1000000"})
+    private int resultCount;
+
+    @Param("1")
+    private int fanOut;
+
+    /**
+     * Classes with more than {@link TestResults#PARALLEL_SORT_THRESHOLD} results are
+     * sorted using this many threads.
+     */
+    @Param("1")
+    private int threads;
+
+    private final HTMLReporter reporter = new HTMLReporter();
+    private IResultMap results;
+    private Map<String, Collection<ITestNGMethod>> methodsByGroups;
+
+
+    @Setup
+    public void setUp()
+    {
+        List<ISuite> suites = new SyntheticSuites(resultCount, 0.05, 10, 0, fanOut).generate();
+        // Combine the results of every test into a single map so that all of them are sorted together.
+        Set<ITestResult> allResults = new LinkedHashSet<ITestResult>();
+        for (ISuiteResult suiteResult : suites.get(0).getResults().values())
+        {
+            allResults.addAll(suiteResult.getTestContext().getPassedTests().getAllResults());
+            allResults.addAll(suiteResult.getTestContext().getSkippedTests().getAllResults());
+            allResults.addAll(suiteResult.getTestContext().getFailedTests().getAllResults());
+        }
+        results = TestNGProxies.createResultMap(allResults);
+        methodsByGroups = suites.get(0).getMethodsByGroups();
+    }
+
+
+    @Benchmark
+    public SortedMap<IClass, List<ITestResult>> sortByTestClass()
+    {
+        return TestResults.sortByTestClass(results, threads);
+    }
+
+
+    @Benchmark
+    public SortedMap<String, SortedSet<ITestNGMethod>> sortGroups()
+    {
+        return reporter.sortGroups(methodsByGroups);
+    }
+}
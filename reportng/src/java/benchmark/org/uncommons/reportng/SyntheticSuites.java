@@ -0,0 +1,277 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+/**
+ * Generates fake TestNG result graphs ({@link ISuite}s, {@link ITestContext}s,
+ * {@link ITestResult}s etc.) of arbitrary size and shape so that the reporters can
+ * be benchmarked without having to run hundreds of thousands of real tests.  Each
+ * object is a {@link TestNGProxies proxy} that answers the methods used by ReportNG.  Generation is deterministic for a
+ * given configuration.
+ * @author Daniel Dyer
+ */
+public final class SyntheticSuites
+{
+    private static final int METHODS_PER_CLASS = 20;
+    private static final int CLASSES_PER_TEST = 50;
+    private static final String[] GROUPS = {"unit", "integration", "slow", "database", "web"};
+
+    private final int resultCount;
+    private final double failureRatio;
+    private final int stackDepth;
+    private final int logLinesPerResult;
+    private final int fanOut;
+
+
+    /**
+     * @param resultCount The total number of test results to generate.
+     * @param failureRatio The proportion (0 to 1) of results that fail.  A further
+     * tenth of this proportion is skipped.
+     * @param stackDepth The number of frames in the stack trace of each failure.
+     * @param logLinesPerResult The number of {@link Reporter} log lines recorded
+     * for each result.
+     * @param fanOut The number of invocations of each test method, as if the
+     * method were fed by a data provider.  If greater than one, each result has
+     * a single argument.
+     */
+    public SyntheticSuites(int resultCount,
+                           double failureRatio,
+                           int stackDepth,
+                           int logLinesPerResult,
+                           int fanOut)
+    {
+        if (resultCount < 1 || fanOut < 1)
+        {
+            throw new IllegalArgumentException("Result count and fan-out must be positive.");
+        }
+        this.resultCount = resultCount;
+        this.failureRatio = failureRatio;
+        this.stackDepth = stackDepth;
+        this.logLinesPerResult = logLinesPerResult;
+        this.fanOut = fanOut;
+    }
+
+
+    /**
+     * Generates a single suite containing the configured number of results.  Any
+     * previously recorded {@link Reporter} output is discarded first.
+     */
+    public List<ISuite> generate()
+    {
+        Reporter.clear();
+        Random random = new Random(resultCount);
+        long time = 1262304000000L; // Midnight, 1st January 2010.
+
+        XmlSuite xmlSuite = new XmlSuite();
+        xmlSuite.setName("Synthetic Suite");
+        Map<String, Object> suite = new HashMap<String, Object>();
+        Map<String, ISuiteResult> suiteResults = new LinkedHashMap<String, ISuiteResult>();
+        Map<String, Collection<ITestNGMethod>> methodsByGroups = new HashMap<String, Collection<ITestNGMethod>>();
+        ISuite suiteProxy = TestNGProxies.create(ISuite.class, suite);
+        suite.put("getName", xmlSuite.getName());
+        suite.put("getXmlSuite", xmlSuite);
+        suite.put("getResults", suiteResults);
+        suite.put("getMethodsByGroups", methodsByGroups);
+        suite.put("getOutputDirectory", "synthetic");
+        // No invocations are generated, so there is no chronology.
+        suite.put("getAllInvokedMethods", Collections.<IInvokedMethod>emptyList());
+        suite.put("getInvokedMethods", Collections.<IInvokedMethod>emptyList());
+
+        int resultsPerTest = METHODS_PER_CLASS * CLASSES_PER_TEST * fanOut;
+        int remaining = resultCount;
+        for (int testIndex = 1; remaining > 0; testIndex++)
+        {
+            int count = Math.min(remaining, resultsPerTest);
+            String testName = "Test " + testIndex;
+            ITestContext context = createTest(suiteProxy, xmlSuite, testName, count, time, random, methodsByGroups);
+            Map<String, Object> suiteResult = new HashMap<String, Object>();
+            suiteResult.put("getTestContext", context);
+            suiteResults.put(testName, TestNGProxies.create(ISuiteResult.class, suiteResult));
+            time = context.getEndDate().getTime();
+            remaining -= count;
+        }
+        Reporter.setCurrentTestResult(null);
+        return Collections.singletonList(suiteProxy);
+    }
+
+
+    private ITestContext createTest(ISuite suite,
+                                    XmlSuite xmlSuite,
+                                    String testName,
+                                    int count,
+                                    long startTime,
+                                    Random random,
+                                    Map<String, Collection<ITestNGMethod>> methodsByGroups)
+    {
+        XmlTest xmlTest = new XmlTest(xmlSuite);
+        xmlTest.setName(testName);
+        Set<ITestResult> passed = new LinkedHashSet<ITestResult>();
+        Set<ITestResult> skipped = new LinkedHashSet<ITestResult>();
+        Set<ITestResult> failed = new LinkedHashSet<ITestResult>();
+        Map<String, Object> context = new HashMap<String, Object>();
+        ITestContext contextProxy = TestNGProxies.create(ITestContext.class, context);
+
+        long time = startTime;
+        int generated = 0;
+        for (int classIndex = 0; generated < count; classIndex++)
+        {
+            ITestClass testClass = createClass(testName, classIndex, xmlTest);
+            for (int methodIndex = 0; methodIndex < METHODS_PER_CLASS && generated < count; methodIndex++)
+            {
+                ITestNGMethod method = createMethod(testClass, methodIndex, methodsByGroups);
+                for (int invocation = 0; invocation < fanOut && generated < count; invocation++)
+                {
+                    long duration = (long) Math.abs(random.nextGaussian() * 50);
+                    double outcome = random.nextDouble();
+                    Map<String, Object> result = new HashMap<String, Object>();
+                    ITestResult resultProxy = TestNGProxies.create(ITestResult.class, result);
+                    result.put("getName", method.getMethodName());
+                    result.put("getTestName", null);
+                    result.put("getMethod", method);
+                    result.put("getTestClass", testClass);
+                    result.put("getTestContext", contextProxy);
+                    result.put("getStartMillis", time);
+                    result.put("getEndMillis", time + duration);
+                    result.put("isSuccess", outcome >= failureRatio);
+                    result.put("getParameters", fanOut > 1 ? new Object[]{"row " + invocation} : new Object[0]);
+                    result.put("getThrowable", null);
+                    if (outcome < failureRatio)
+                    {
+                        result.put("getStatus", ITestResult.FAILURE);
+                        result.put("getThrowable", createThrowable(generated));
+                        failed.add(resultProxy);
+                    }
+                    else if (outcome < failureRatio * 1.1)
+                    {
+                        result.put("getStatus", ITestResult.SKIP);
+                        skipped.add(resultProxy);
+                    }
+                    else
+                    {
+                        result.put("getStatus", ITestResult.SUCCESS);
+                        passed.add(resultProxy);
+                    }
+                    if (logLinesPerResult > 0)
+                    {
+                        Reporter.setCurrentTestResult(resultProxy);
+                        for (int line = 0; line < logLinesPerResult; line++)
+                        {
+                            Reporter.log("Checking <" + method.getMethodName() + "> step " + line + " & continuing");
+                        }
+                    }
+                    time += duration;
+                    ++generated;
+                }
+            }
+        }
+
+        context.put("getName", testName);
+        context.put("getSuite", suite);
+        context.put("getCurrentXmlTest", xmlTest);
+        context.put("getStartDate", new Date(startTime));
+        context.put("getEndDate", new Date(time));
+        context.put("getPassedTests", TestNGProxies.createResultMap(passed));
+        context.put("getSkippedTests", TestNGProxies.createResultMap(skipped));
+        context.put("getFailedTests", TestNGProxies.createResultMap(failed));
+        context.put("getPassedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        context.put("getSkippedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        context.put("getFailedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        return contextProxy;
+    }
+
+
+    private ITestClass createClass(String testName, int classIndex, XmlTest xmlTest)
+    {
+        Map<String, Object> testClass = new HashMap<String, Object>();
+        testClass.put("getName", String.format("com.example.%s.Synthetic%04dTest",
+                                               testName.replace(" ", "").toLowerCase(),
+                                               classIndex));
+        testClass.put("getXmlTest", xmlTest);
+        testClass.put("getRealClass", Object.class);
+        return TestNGProxies.create(ITestClass.class, testClass);
+    }
+
+
+    private ITestNGMethod createMethod(ITestClass testClass,
+                                       int methodIndex,
+                                       Map<String, Collection<ITestNGMethod>> methodsByGroups)
+    {
+        String group = GROUPS[methodIndex % GROUPS.length];
+        Map<String, Object> method = new HashMap<String, Object>();
+        ITestNGMethod methodProxy = TestNGProxies.create(ITestNGMethod.class, method);
+        method.put("getMethodName", "testMethod" + methodIndex);
+        method.put("getTestClass", testClass);
+        method.put("getRealClass", Object.class);
+        method.put("getGroups", new String[]{group});
+        method.put("isTest", true);
+        method.put("getGroupsDependedUpon", new String[0]);
+        method.put("getMethodsDependedUpon", new String[0]);
+        method.put("getDescription", methodIndex % 4 == 0
+                                     ? "Checks behaviour number " + methodIndex + " of " + testClass.getName()
+                                     : null);
+        Collection<ITestNGMethod> groupMethods = methodsByGroups.get(group);
+        if (groupMethods == null)
+        {
+            groupMethods = new ArrayList<ITestNGMethod>();
+            methodsByGroups.put(group, groupMethods);
+        }
+        groupMethods.add(methodProxy);
+        return methodProxy;
+    }
+
+
+    /**
+     * Creates an exception with a synthetic stack trace of the configured depth.
+     * Only a handful of distinct messages are used so that, as in real test runs,
+     * many failures share identical stack traces.
+     */
+    private Throwable createThrowable(int index)
+    {
+        AssertionError error = new AssertionError("Expected <" + (index % 10) + "> but was <-1>");
+        StackTraceElement[] frames = new StackTraceElement[stackDepth];
+        for (int i = 0; i < frames.length; i++)
+        {
+            frames[i] = new StackTraceElement("com.example.layer" + i + ".Component" + (i % 7),
+                                              "operation" + (i % 3),
+                                              "Component" + (i % 7) + ".java",
+                                              10 + i);
+        }
+        error.setStackTrace(frames);
+        return error;
+    }
+}
@@ -0,0 +1,219 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+
+/**
+ * Measures the {@link ReportNGUtils} helpers that are invoked once or more for
+ * every result in a report: escaping of log output and exception messages, and
+ * formatting of durations.  The per-character escaping that ReportNG used to do
+ * is included for comparison.
+ * @author Daniel Dyer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UtilsBenchmark
+{
+    @Param({"10000", "100000", "1000000"})
+    private int resultCount;
+
+    @Param("1")
+    private int logLines;
+
+    private final ReportNGUtils utils = new ReportNGUtils();
+    private final Writer sink = new DiscardingWriter();
+    private List<String> lines;
+    private List<ITestContext> contexts;
+    private List<ITestResult> results;
+
+
+    @Setup
+    public void setUp()
+    {
+        List<ISuite> suites = new SyntheticSuites(resultCount, 0.05, 10, logLines, 1).generate();
+        lines = new ArrayList<String>(Reporter.getOutput());
+        contexts = new ArrayList<ITestContext>();
+        results = new ArrayList<ITestResult>(resultCount);
+        for (ISuiteResult suiteResult : suites.get(0).getResults().values())
+        {
+            ITestContext context = suiteResult.getTestContext();
+            contexts.add(context);
+            results.addAll(context.getPassedTests().getAllResults());
+            results.addAll(context.getSkippedTests().getAllResults());
+            results.addAll(context.getFailedTests().getAllResults());
+        }
+        for (ITestResult result : results)
+        {
+            if (result.getThrowable() != null)
+            {
+                lines.add(result.getThrowable().getMessage());
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void escapeHTMLPerCharacter() throws IOException
+    {
+        for (String line : lines)
+        {
+            sink.write(legacyEscapeHTMLString(line));
+        }
+    }
+
+
+    @Benchmark
+    public void escapeHTMLString() throws IOException
+    {
+        for (String line : lines)
+        {
+            sink.write(utils.escapeHTMLString(line));
+        }
+    }
+
+
+    @Benchmark
+    public void escapeHTMLToWriter() throws IOException
+    {
+        for (String line : lines)
+        {
+            utils.escapeHTMLString(line, sink);
+        }
+    }
+
+
+    @Benchmark
+    public void escapeXMLToWriter() throws IOException
+    {
+        for (String line : lines)
+        {
+            utils.escapeString(line, sink);
+        }
+    }
+
+
+    @Benchmark
+    public void formatDuration(Blackhole blackhole)
+    {
+        for (ITestResult result : results)
+        {
+            blackhole.consume(utils.formatDuration(result.getStartMillis(), result.getEndMillis()));
+        }
+    }
+
+
+    @Benchmark
+    public long getDuration()
+    {
+        long duration = 0;
+        for (ITestContext context : contexts)
+        {
+            duration += utils.getDuration(context);
+        }
+        return duration;
+    }
+
+
+    /**
+     * The original implementation, which created a String for every character.
+     */
+    private static String legacyEscapeHTMLString(String s)
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < s.length(); i++)
+        {
+            char ch = s.charAt(i);
+            switch (ch)
+            {
+                case ' ':
+                    char nextCh = i + 1 < s.length() ? s.charAt(i + 1) : 0;
+                    buffer.append(nextCh == ' ' ? "&nbsp;" : " ");
+                    break;
+                case '\n':
+                    buffer.append("<br/>\n");
+                    break;
+                case '<': buffer.append("&lt;"); break;
+                case '>': buffer.append("&gt;"); break;
+                case '"': buffer.append("&quot;"); break;
+                case '\'': buffer.append("&apos;"); break;
+                case '&': buffer.append("&amp;"); break;
+                default: buffer.append(String.valueOf(ch));
+            }
+        }
+        return buffer.toString();
+    }
+
+
+    /**
+     * Accepts and ignores all output, so that the cost of buffering the escaped
+     * text is not included in the measurements.
+     */
+    private static final class DiscardingWriter extends Writer
+    {
+        @Override
+        public void write(char[] buffer, int offset, int length)
+        {
+            // Discard.
+        }
+
+
+        @Override
+        public void write(String s, int offset, int length)
+        {
+            // Discard.
+        }
+
+
+        @Override
+        public void flush()
+        {
+            // Nothing to flush.
+        }
+
+
+        @Override
+        public void close()
+        {
+            // Nothing to close.
+        }
+    }
+}
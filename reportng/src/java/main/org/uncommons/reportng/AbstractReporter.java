@@ -15,22 +15,34 @@
 //=============================================================================
 package org.uncommons.reportng;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.app.VelocityEngine;
 import org.testng.IReporter;
+import org.testng.ISuite;
 
 /**
  * Convenient base class for the ReportNG reporters.  Provides common functionality.
@@ -39,19 +51,44 @@ import org.testng.IReporter;
 public abstract class AbstractReporter implements IReporter
 {
     private static final String ENCODING = "UTF-8";
+    private static final String COMPRESSED_EXTENSION = ".gz";
 
     protected static final String TEMPLATE_EXTENSION = ".vm";
 
     private static final String META_KEY ="meta";
     protected static final ReportMetadata META = new ReportMetadata();
     private static final String UTILS_KEY ="utils";
-    private static final ReportNGUtils UTILS = new ReportNGUtils();
+    protected static final ReportNGUtils UTILS = new ReportNGUtils();
     private static final String MESSAGES_KEY ="messages";
-    private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("org.uncommons.reportng.messages.reportng",
+    protected static final ResourceBundle MESSAGES = ResourceBundle.getBundle("org.uncommons.reportng.messages.reportng",
                                                                             META.getLocale());
 
     private final String classpathPrefix;
 
+    /**
+     * Each reporter has its own Velocity engine rather than sharing (and repeatedly
+     * re-initialising) the global Velocity singleton.
+     */
+    private final VelocityEngine engine = new VelocityEngine();
+
+    /**
+     * Parsed templates, keyed by template name.  Each template is only loaded and
+     * parsed once no matter how many files are generated from it.
+     */
+    private final Map<String, Template> templates = new HashMap<String, Template>();
+
+    /**
+     * Content hashes of the files in each output directory, keyed by directory.  Only
+     * used if {@link ReportMetadata#shouldWriteChangedFilesOnly()} is true.
+     */
+    private final Map<File, ReportManifest> manifests = new HashMap<File, ReportManifest>();
+
+    /**
+     * Timings for the report currently being generated, or null if timings are not
+     * being recorded.
+     */
+    private volatile ReportTimings timings = null;
+
 
     /**
      * @param classpathPrefix Where in the classpath to load templates from.
@@ -59,18 +96,23 @@ public abstract class AbstractReporter implements IReporter
     protected AbstractReporter(String classpathPrefix)
     {
         this.classpathPrefix = classpathPrefix;
-        Velocity.setProperty("resource.loader", "classpath");
-        Velocity.setProperty("classpath.resource.loader.class",
-                             "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+        engine.setProperty("resource.loader", "classpath");
+        engine.setProperty("classpath.resource.loader.class",
+                           "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+        // Templates that are included via #parse are cached by the engine itself.  They
+        // are loaded from the JAR file so there is no need to check for modifications.
+        engine.setProperty("classpath.resource.loader.cache", "true");
+        engine.setProperty("classpath.resource.loader.modificationCheckInterval", "0");
+        engine.setProperty("input.encoding", ENCODING);
         if (!META.shouldGenerateVelocityLog())
         {
-            Velocity.setProperty("runtime.log.logsystem.class",
-                                 "org.apache.velocity.runtime.log.NullLogSystem");
+            engine.setProperty("runtime.log.logsystem.class",
+                               "org.apache.velocity.runtime.log.NullLogSystem");
         }
 
         try
         {
-            Velocity.init();
+            engine.init();
         }
         catch (Exception ex)
         {
@@ -94,6 +136,18 @@ public abstract class AbstractReporter implements IReporter
     }
 
 
+    /**
+     * Look-up the model for the run that is being reported.  All reporters that are
+     * invoked for the same run share the same model.
+     * @param suites The suites passed to {@link #generateReport}.
+     * @return The model of the run.
+     */
+    protected ReportModel getReportModel(List<ISuite> suites)
+    {
+        return ReportModel.forRun(suites, META.getThreadCount());
+    }
+
+
     /**
      * Generate the specified output file by merging the specified
      * Velocity template with the supplied context.
@@ -102,18 +156,196 @@ public abstract class AbstractReporter implements IReporter
                                 String templateName,
                                 VelocityContext context) throws Exception
     {
-        Writer writer = new BufferedWriter(new FileWriter(file));
-        try
+        new TemplateFileTask(file, templateName, context).call();
+    }
+
+
+    /**
+     * Look-up the named template, loading and parsing it if this is the first
+     * time that it has been used.
+     * @param templateName The name of the template (relative to the classpath
+     * prefix for this reporter).
+     * @return The parsed template.
+     * @throws Exception If the template cannot be loaded or parsed.
+     */
+    private synchronized Template getTemplate(String templateName) throws Exception
+    {
+        Template template = templates.get(templateName);
+        if (template == null)
         {
-            Velocity.mergeTemplate(classpathPrefix + templateName,
-                                   ENCODING,
-                                   context,
-                                   writer);
-            writer.flush();
+            template = engine.getTemplate(classpathPrefix + templateName, ENCODING);
+            templates.put(templateName, template);
         }
-        finally
+        return template;
+    }
+
+
+    /**
+     * Generates all of the specified files.  If more than one rendering thread has been
+     * configured (see {@link ReportMetadata#getThreadCount()}), the files are rendered
+     * concurrently on a pool of worker threads, otherwise they are rendered one after
+     * another on the calling thread.  Either way, this method does not return until
+     * all of the files have been written.
+     * @param tasks The files to generate.  Each task must write to a different file.
+     * @throws Exception If any of the files cannot be generated.
+     */
+    protected void generateFiles(List<FileTask> tasks) throws Exception
+    {
+        int threads = Math.min(META.getThreadCount(), tasks.size());
+        if (threads <= 1)
         {
-            writer.close();
+            for (FileTask task : tasks)
+            {
+                task.call();
+            }
+        }
+        else
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try
+            {
+                for (Future<File> future : executor.invokeAll(tasks))
+                {
+                    try
+                    {
+                        future.get();
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        throw new ReportNGException("Failed generating report file.", ex.getCause());
+                    }
+                }
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+        }
+        saveManifests();
+    }
+
+
+    /**
+     * Labels a task with the phase of report generation that it belongs to.  This
+     * determines how the task is reported in the timings (see
+     * {@link ReportMetadata#shouldWriteTimings()}).
+     * @param phase The name of the phase.
+     * @param task The task to label.
+     * @return The labelled task.
+     */
+    protected static FileTask inPhase(String phase, FileTask task)
+    {
+        task.phase = phase;
+        return task;
+    }
+
+
+    /**
+     * Labels several tasks with the phase of report generation that they belong to.
+     * @param phase The name of the phase.
+     * @param tasks The tasks to label.
+     * @return The labelled tasks.
+     */
+    protected static List<FileTask> inPhase(String phase, List<FileTask> tasks)
+    {
+        for (FileTask task : tasks)
+        {
+            task.phase = phase;
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Starts recording timings for a new report, if timings have been enabled.
+     */
+    protected void startTimings()
+    {
+        timings = META.shouldWriteTimings() ? new ReportTimings(getClass().getName()) : null;
+    }
+
+
+    /**
+     * Records the time taken by part of report generation that does not produce files
+     * directly (if timings are being recorded).
+     * @param phase The name of the phase.
+     * @param startTime When the work started, as returned by {@link System#nanoTime()}.
+     */
+    protected void recordPhase(String phase, long startTime)
+    {
+        ReportTimings currentTimings = timings;
+        if (currentTimings != null)
+        {
+            currentTimings.recordPhase(phase, System.nanoTime() - startTime);
+        }
+    }
+
+
+    /**
+     * Records the number of items of some kind (e.g. passed tests) in the report (if
+     * timings are being recorded).
+     */
+    protected void recordCount(String name, int count)
+    {
+        ReportTimings currentTimings = timings;
+        if (currentTimings != null)
+        {
+            currentTimings.recordCount(name, count);
+        }
+    }
+
+
+    /**
+     * Writes the timings for the report (if timings are being recorded) and stops
+     * recording.
+     * @param outputDirectory The report directory.
+     * @throws IOException If the timings cannot be written.
+     */
+    protected void finishTimings(File outputDirectory) throws IOException
+    {
+        ReportTimings currentTimings = timings;
+        timings = null;
+        if (currentTimings != null)
+        {
+            currentTimings.write(outputDirectory);
+        }
+    }
+
+
+    /**
+     * Look-up the manifest for an output directory, loading it if this is the first
+     * time that it has been used.
+     */
+    private synchronized ReportManifest getManifest(File directory) throws IOException
+    {
+        ReportManifest manifest = manifests.get(directory);
+        if (manifest == null)
+        {
+            manifest = ReportManifest.load(directory);
+            manifests.put(directory, manifest);
+        }
+        return manifest;
+    }
+
+
+    /**
+     * Forgets and deletes the manifest for an output directory.
+     */
+    private synchronized void discardManifest(File directory) throws IOException
+    {
+        manifests.remove(directory);
+        ReportManifest.delete(directory);
+    }
+
+
+    /**
+     * Writes any manifests that have been modified.
+     */
+    private synchronized void saveManifests() throws IOException
+    {
+        for (ReportManifest manifest : manifests.values())
+        {
+            manifest.save();
         }
     }
 
@@ -136,7 +368,9 @@ public abstract class AbstractReporter implements IReporter
 
 
     /**
-     * Copy a single named file to the output directory.
+     * Copy a single named file to the output directory.  The file is not copied if the
+     * target file already has the same content.  If compression is enabled, a compressed
+     * copy is written too (or instead).
      * @param outputDirectory The destination directory for the copied resource.
      * @param sourceFile The path of the file to copy.
      * @param targetFileName The name of the file created in {@literal outputDirectory}.
@@ -146,20 +380,51 @@ public abstract class AbstractReporter implements IReporter
                             File sourceFile,
                             String targetFileName) throws IOException
     {
-        InputStream fileStream = new FileInputStream(sourceFile);
+        if (META.shouldCompressOutput())
+        {
+            // The compressed copy is created in memory, so the file has to be read anyway.
+            copyStream(outputDirectory, new FileInputStream(sourceFile), targetFileName);
+            return;
+        }
+        File targetFile = new File(outputDirectory, targetFileName);
+        // Compare the lengths before bothering to calculate the digest of the source.
+        if (targetFile.length() == sourceFile.length()
+            && ContentDigest.hasContent(targetFile, sourceFile.length(), ContentDigest.digest(sourceFile)))
+        {
+            return;
+        }
+        FileChannel source = new FileInputStream(sourceFile).getChannel();
         try
         {
-            copyStream(outputDirectory, fileStream, targetFileName);
+            FileChannel target = new FileOutputStream(targetFile).getChannel();
+            try
+            {
+                // The channel may transfer fewer bytes than requested, so keep going until
+                // everything has been copied.
+                long position = 0;
+                long size = source.size();
+                while (position < size)
+                {
+                    position += source.transferTo(position, size - position, target);
+                }
+            }
+            finally
+            {
+                target.close();
+            }
         }
         finally
         {
-            fileStream.close();
+            source.close();
         }
     }
 
 
     /**
-     * Helper method to copy the contents of a stream to a file.
+     * Helper method to copy the contents of a stream to a file.  The contents are
+     * copied byte-for-byte, and the file is not written at all if it already has the
+     * same content.  The stream is closed once it has been read.  If compression is
+     * enabled, a compressed copy of the file is written too (or instead).
      * @param outputDirectory The directory in which the new file is created.
      * @param stream The stream to copy.
      * @param targetFileName The file to write the stream contents to.
@@ -169,34 +434,107 @@ public abstract class AbstractReporter implements IReporter
                               InputStream stream,
                               String targetFileName) throws IOException
     {
-        File resourceFile = new File(outputDirectory, targetFileName);
-        BufferedReader reader = null;
-        Writer writer = null;
+        File targetFile = new File(outputDirectory, targetFileName);
+        byte[] content;
         try
         {
-            reader = new BufferedReader(new InputStreamReader(stream, ENCODING));
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(resourceFile), ENCODING));
+            content = ContentDigest.readFully(stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+        if (META.shouldKeepUncompressedOutput())
+        {
+            copyContent(targetFile, content);
+        }
+        if (META.shouldCompressOutput())
+        {
+            copyContent(getCompressedFile(targetFile), compress(content));
+        }
+    }
+
 
-            String line = reader.readLine();
-            while (line != null)
+    /**
+     * Writes the specified content to a file, unless the file already has exactly
+     * that content.
+     */
+    private void copyContent(File targetFile, byte[] content) throws IOException
+    {
+        if (ContentDigest.hasContent(targetFile, content.length, ContentDigest.digest(content)))
+        {
+            return;
+        }
+        FileChannel target = new FileOutputStream(targetFile).getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining())
             {
-                writer.write(line);
-                writer.write('\n');
-                line = reader.readLine();
+                target.write(buffer);
             }
-            writer.flush();
         }
         finally
         {
-            if (reader != null)
-            {
-                reader.close();
-            }
-            if (writer != null)
-            {
-                writer.close();
-            }
+            target.close();
+        }
+    }
+
+
+    /**
+     * @param file A report file.
+     * @return The file that a compressed copy of the report file is written to.
+     */
+    static File getCompressedFile(File file)
+    {
+        return new File(file.getPath() + COMPRESSED_EXTENSION);
+    }
+
+
+    /**
+     * Opens a stream for writing a report file.  Depending on the compression options,
+     * the content is written to the file, to a compressed copy of the file or to both.
+     */
+    private static OutputStream openOutputStream(File file) throws IOException
+    {
+        OutputStream stream = META.shouldKeepUncompressedOutput() ? new FileOutputStream(file) : null;
+        if (META.shouldCompressOutput())
+        {
+            // A larger buffer than the default (512 bytes) means fewer, larger writes to the file.
+            OutputStream compressed = new GZIPOutputStream(new FileOutputStream(getCompressedFile(file)), 8192);
+            stream = stream == null ? compressed : new TeeOutputStream(stream, compressed);
+        }
+        return stream;
+    }
+
+
+    /**
+     * @return The number of bytes written for a report file (including its compressed
+     * copy, if there is one).
+     */
+    private static long getWrittenLength(File file)
+    {
+        long length = META.shouldKeepUncompressedOutput() ? file.length() : 0;
+        if (META.shouldCompressOutput())
+        {
+            length += getCompressedFile(file).length();
         }
+        return length;
+    }
+
+
+    /**
+     * Compresses content in memory.  The gzip header written by Java does not include a
+     * timestamp, so the same content always compresses to the same bytes and an unchanged
+     * compressed file can be recognised by its digest.
+     */
+    private static byte[] compress(byte[] content) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+        OutputStream stream = new GZIPOutputStream(buffer);
+        stream.write(content);
+        stream.close();
+        return buffer.toByteArray();
     }
 
 
@@ -220,6 +558,212 @@ public abstract class AbstractReporter implements IReporter
     }
 
 
+    /**
+     * A single output file.  Tasks are independent of each other so they may be
+     * executed in any order and on any thread.
+     */
+    protected abstract class FileTask implements Callable<File>
+    {
+        private final File file;
+        private String phase = "generateFile";
+
+
+        /**
+         * @param file The file to generate.
+         */
+        protected FileTask(File file)
+        {
+            this.file = file;
+        }
+
+
+        /**
+         * @return The file that this task generates.
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+
+        public File call() throws Exception
+        {
+            long startTime = System.nanoTime();
+            long bytes;
+            if (META.shouldWriteChangedFilesOnly())
+            {
+                bytes = writeIfChanged();
+            }
+            else
+            {
+                // The file is about to be replaced without updating the manifest, so a
+                // later incremental report must not rely on the manifest.
+                discardManifest(file.getAbsoluteFile().getParentFile());
+                // Default encoding, as used by the FileWriter that this replaced.
+                Writer writer = new BufferedWriter(new OutputStreamWriter(openOutputStream(file)));
+                try
+                {
+                    render(writer);
+                    writer.flush();
+                }
+                finally
+                {
+                    writer.close();
+                }
+                bytes = getWrittenLength(file);
+            }
+            ReportTimings currentTimings = timings;
+            if (currentTimings != null)
+            {
+                currentTimings.recordFile(phase, file, System.nanoTime() - startTime, bytes);
+            }
+            return file;
+        }
+
+
+        /**
+         * Renders the content in memory and only writes it to the file (and/or its
+         * compressed copy) if it is different from what was written last time.
+         * @return The number of bytes written (zero if the content had not changed).
+         */
+        private long writeIfChanged() throws Exception
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            // Same (default) encoding as used when writing directly to the file.
+            Writer writer = new OutputStreamWriter(buffer);
+            render(writer);
+            writer.close();
+            byte[] content = buffer.toByteArray();
+            ReportManifest manifest = getManifest(file.getAbsoluteFile().getParentFile());
+            long bytes = 0;
+            if (META.shouldKeepUncompressedOutput())
+            {
+                bytes += writeIfChanged(manifest, file, content);
+            }
+            if (META.shouldCompressOutput())
+            {
+                bytes += writeIfChanged(manifest, getCompressedFile(file), compress(content));
+            }
+            return bytes;
+        }
+
+
+        private long writeIfChanged(ReportManifest manifest, File target, byte[] content) throws IOException
+        {
+            byte[] digest = ContentDigest.digest(content);
+            if (!manifest.isUnchanged(target, content.length, digest))
+            {
+                OutputStream stream = new FileOutputStream(target);
+                try
+                {
+                    stream.write(content);
+                }
+                finally
+                {
+                    stream.close();
+                }
+                manifest.update(target, content.length, digest);
+                return content.length;
+            }
+            return 0;
+        }
+
+
+        /**
+         * Write the content of the file.
+         * @param writer The destination for the generated content.
+         * @throws Exception If the content cannot be generated.
+         */
+        protected abstract void render(Writer writer) throws Exception;
+    }
+
+
+    /**
+     * An output file that is created by merging a Velocity template with a context.
+     */
+    protected final class TemplateFileTask extends FileTask
+    {
+        private final String templateName;
+        private final VelocityContext context;
+
+
+        /**
+         * @param file The file to generate.
+         * @param templateName The name of the template used to generate the file.
+         * @param context The Velocity context used when merging the template.
+         */
+        public TemplateFileTask(File file, String templateName, VelocityContext context)
+        {
+            super(file);
+            this.templateName = templateName;
+            this.context = context;
+        }
+
+
+        @Override
+        protected void render(Writer writer) throws Exception
+        {
+            getTemplate(templateName).merge(context, writer);
+        }
+    }
+
+
+    /**
+     * Writes everything to two streams, so that a report file and its compressed copy
+     * can be generated in a single pass.
+     */
+    private static final class TeeOutputStream extends OutputStream
+    {
+        private final OutputStream first;
+        private final OutputStream second;
+
+
+        TeeOutputStream(OutputStream first, OutputStream second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            first.write(b);
+            second.write(b);
+        }
+
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            first.write(bytes, offset, length);
+            second.write(bytes, offset, length);
+        }
+
+
+        @Override
+        public void flush() throws IOException
+        {
+            first.flush();
+            second.flush();
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                first.close();
+            }
+            finally
+            {
+                second.close();
+            }
+        }
+    }
+
+
     private static final class EmptyDirectoryFilter implements FileFilter
     {
         public boolean accept(File file)
@@ -0,0 +1,55 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.testng.IReporter;
+import org.testng.ISuite;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Writes the results of the test run to a compact binary archive
+ * ({@value ResultsArchive#FILE_NAME}) in the TestNG output directory.  When a suite
+ * is split across several machines, each node uses this reporter and the archives
+ * are then combined into a single report by the {@link ReportMerger}.
+ * @author Daniel Dyer
+ */
+public class ArchiveReporter implements IReporter
+{
+    private static final ReportNGUtils UTILS = new ReportNGUtils();
+
+
+    public void generateReport(List<XmlSuite> xmlSuites,
+                               List<ISuite> suites,
+                               String outputDirectoryName)
+    {
+        File outputDirectory = new File(outputDirectoryName);
+        outputDirectory.mkdirs();
+        try
+        {
+            ResultsArchive.write(suites,
+                                 UTILS.getAllOutput(),
+                                 UTILS,
+                                 new File(outputDirectory, ResultsArchive.FILE_NAME));
+        }
+        catch (IOException ex)
+        {
+            throw new ReportNGException("Failed writing results archive.", ex);
+        }
+    }
+}
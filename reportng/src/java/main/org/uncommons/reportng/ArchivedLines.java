@@ -0,0 +1,62 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.IOException;
+import java.util.AbstractList;
+
+/**
+ * A list of log messages that are read from a {@link ResultsArchive} when they are
+ * needed, rather than being held in memory.
+ * @author Daniel Dyer
+ */
+final class ArchivedLines extends AbstractList<String>
+{
+    private final ResultsArchive archive;
+    private final long[] positions;
+
+
+    /**
+     * @param archive The archive that contains the messages.
+     * @param positions The position of each message within the archive.
+     */
+    ArchivedLines(ResultsArchive archive, long[] positions)
+    {
+        this.archive = archive;
+        this.positions = positions;
+    }
+
+
+    @Override
+    public String get(int index)
+    {
+        try
+        {
+            return archive.readString(positions[index]);
+        }
+        catch (IOException ex)
+        {
+            throw new ReportNGException("Failed reading log output from results archive.", ex);
+        }
+    }
+
+
+    @Override
+    public int size()
+    {
+        return positions.length;
+    }
+}
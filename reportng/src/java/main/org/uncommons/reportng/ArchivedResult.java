@@ -15,17 +15,19 @@
 //=============================================================================
 package org.uncommons.reportng;
 
-import java.util.Comparator;
+import java.util.List;
 import org.testng.ITestResult;
 
 /**
- * Comparator for sorting TestNG test results alphabetically by method name.
+ * A test result that has been read back from a results archive (see
+ * {@link ResultsArchive}).  TestNG's {@link org.testng.Reporter} knows nothing about
+ * such results, so they carry their own log output.
  * @author Daniel Dyer
  */
-class TestResultComparator implements Comparator<ITestResult>
+interface ArchivedResult extends ITestResult
 {
-    public int compare(ITestResult result1, ITestResult result2)
-    {
-        return result1.getName().compareTo(result2.getName());
-    }
+    /**
+     * @return The messages logged by the test.
+     */
+    List<String> getOutput();
 }
@@ -0,0 +1,106 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import org.testng.SkipException;
+
+/**
+ * A throwable read back from a results archive (see {@link ResultsArchive}).  The
+ * original exception class may not be available (and could not be instantiated
+ * generically anyway), so this records the name of the original class and reproduces
+ * its message, stack trace and causes.
+ * @author Daniel Dyer
+ */
+final class ArchivedThrowable extends Throwable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String type;
+    private final boolean skipException;
+
+
+    /**
+     * @param type The fully-qualified class name of the original throwable.
+     * @param message The message of the original throwable (may be null).
+     * @param stackTrace The stack trace of the original throwable.
+     * @param cause The archived cause of the original throwable (may be null).
+     * @param skipException Whether the original throwable was a {@link SkipException}.
+     */
+    ArchivedThrowable(String type,
+                      String message,
+                      StackTraceElement[] stackTrace,
+                      ArchivedThrowable cause,
+                      boolean skipException)
+    {
+        super(message, cause);
+        this.type = type;
+        this.skipException = skipException;
+        setStackTrace(stackTrace);
+    }
+
+
+    /**
+     * The stack trace is that of the original throwable, so there is no point
+     * capturing the current one.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace()
+    {
+        return this;
+    }
+
+
+    /**
+     * @return The fully-qualified class name of the original throwable.
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+
+    /**
+     * @return True if the original throwable was a {@link SkipException}.
+     */
+    public boolean isSkipException()
+    {
+        return skipException;
+    }
+
+
+    /**
+     * Formats the throwable in the same way as the original would have been.
+     */
+    @Override
+    public String toString()
+    {
+        String message = getLocalizedMessage();
+        return message != null ? type + ": " + message : type;
+    }
+
+
+    /**
+     * @param throwable Any throwable.
+     * @return The fully-qualified class name of the throwable or, if it has been read
+     * from an archive, the name of the original class.
+     */
+    static String getType(Throwable throwable)
+    {
+        return throwable instanceof ArchivedThrowable
+               ? ((ArchivedThrowable) throwable).getType()
+               : throwable.getClass().getName();
+    }
+}
@@ -0,0 +1,449 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * How the time spent running a suite is divided between configuration methods
+ * (set-up and tear-down) and test methods, for each test and for each test class,
+ * plus the configuration methods ranked by the total time spent running them.  This
+ * shows which shared fixtures are worth caching or moving to a less frequently
+ * invoked configuration method.
+ * @author Daniel Dyer
+ */
+public final class ConfigurationStatistics
+{
+    private static final Comparator<Breakdown> CONFIGURATION_TIME_COMPARATOR = new Comparator<Breakdown>()
+    {
+        public int compare(Breakdown breakdown1, Breakdown breakdown2)
+        {
+            if (breakdown1.configurationTime != breakdown2.configurationTime)
+            {
+                return breakdown1.configurationTime > breakdown2.configurationTime ? -1 : 1;
+            }
+            return breakdown1.name.compareTo(breakdown2.name);
+        }
+    };
+
+    private static final Comparator<Fixture> FIXTURE_COMPARATOR = new Comparator<Fixture>()
+    {
+        public int compare(Fixture fixture1, Fixture fixture2)
+        {
+            if (fixture1.totalTime != fixture2.totalTime)
+            {
+                return fixture1.totalTime > fixture2.totalTime ? -1 : 1;
+            }
+            return fixture1.name.compareTo(fixture2.name);
+        }
+    };
+
+    private final Breakdown total;
+    private final List<Breakdown> tests;
+    private final List<Breakdown> classes;
+    private final List<Fixture> fixtures;
+
+
+    private ConfigurationStatistics(Breakdown total,
+                                    List<Breakdown> tests,
+                                    List<Breakdown> classes,
+                                    List<Fixture> fixtures)
+    {
+        this.total = total;
+        this.tests = Collections.unmodifiableList(tests);
+        this.classes = Collections.unmodifiableList(classes);
+        this.fixtures = Collections.unmodifiableList(fixtures);
+    }
+
+
+    /**
+     * Calculate the configuration statistics for a suite.
+     * @param suite The suite.
+     * @return The statistics.
+     */
+    public static ConfigurationStatistics forSuite(ISuite suite)
+    {
+        Breakdown total = new Breakdown(suite.getName());
+        List<Breakdown> tests = new ArrayList<Breakdown>();
+        Map<String, Breakdown> classes = new HashMap<String, Breakdown>();
+        Map<String, Fixture> fixtures = new HashMap<String, Fixture>();
+        for (ISuiteResult suiteResult : suite.getResults().values())
+        {
+            ITestContext context = suiteResult.getTestContext();
+            Breakdown test = new Breakdown(context.getName());
+            tests.add(test);
+            for (Set<ITestResult> results : getConfigurationResults(context))
+            {
+                for (ITestResult result : results)
+                {
+                    long duration = getDuration(result);
+                    total.addConfiguration(duration);
+                    test.addConfiguration(duration);
+                    getClassBreakdown(classes, result).addConfiguration(duration);
+                    getFixture(fixtures, result).add(duration);
+                }
+            }
+            for (Set<ITestResult> results : getTestResults(context))
+            {
+                for (ITestResult result : results)
+                {
+                    long duration = getDuration(result);
+                    total.addTest(duration);
+                    test.addTest(duration);
+                    getClassBreakdown(classes, result).addTest(duration);
+                }
+            }
+        }
+        List<Breakdown> classList = new ArrayList<Breakdown>(classes.values());
+        Collections.sort(classList, CONFIGURATION_TIME_COMPARATOR);
+        List<Fixture> fixtureList = new ArrayList<Fixture>(fixtures.values());
+        Collections.sort(fixtureList, FIXTURE_COMPARATOR);
+        return new ConfigurationStatistics(total, tests, classList, fixtureList);
+    }
+
+
+    /**
+     * @return True if any configuration methods were run (or skipped) in the suite.
+     */
+    public static boolean hasConfigurations(ISuite suite)
+    {
+        for (ISuiteResult suiteResult : suite.getResults().values())
+        {
+            for (Set<ITestResult> results : getConfigurationResults(suiteResult.getTestContext()))
+            {
+                if (!results.isEmpty())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private static List<Set<ITestResult>> getConfigurationResults(ITestContext context)
+    {
+        List<Set<ITestResult>> results = new ArrayList<Set<ITestResult>>(3);
+        results.add(context.getPassedConfigurations().getAllResults());
+        results.add(context.getFailedConfigurations().getAllResults());
+        results.add(context.getSkippedConfigurations().getAllResults());
+        return results;
+    }
+
+
+    private static List<Set<ITestResult>> getTestResults(ITestContext context)
+    {
+        List<Set<ITestResult>> results = new ArrayList<Set<ITestResult>>(3);
+        results.add(context.getPassedTests().getAllResults());
+        results.add(context.getFailedTests().getAllResults());
+        results.add(context.getSkippedTests().getAllResults());
+        return results;
+    }
+
+
+    private static long getDuration(ITestResult result)
+    {
+        return result.getEndMillis() - result.getStartMillis();
+    }
+
+
+    private static Breakdown getClassBreakdown(Map<String, Breakdown> classes, ITestResult result)
+    {
+        String className = result.getTestClass() == null ? "" : result.getTestClass().getName();
+        Breakdown breakdown = classes.get(className);
+        if (breakdown == null)
+        {
+            breakdown = new Breakdown(className);
+            classes.put(className, breakdown);
+        }
+        return breakdown;
+    }
+
+
+    private static Fixture getFixture(Map<String, Fixture> fixtures, ITestResult result)
+    {
+        String className = result.getTestClass() == null ? "" : result.getTestClass().getName();
+        String name = className + '.' + result.getName();
+        Fixture fixture = fixtures.get(name);
+        if (fixture == null)
+        {
+            fixture = new Fixture(name, getAnnotation(result.getMethod()));
+            fixtures.put(name, fixture);
+        }
+        return fixture;
+    }
+
+
+    /**
+     * @return The name of the annotation that made the method a configuration method,
+     * or an empty string if it is not known.
+     */
+    static String getAnnotation(ITestNGMethod method)
+    {
+        if (method == null)
+        {
+            return "";
+        }
+        else if (method.isBeforeSuiteConfiguration())
+        {
+            return "@BeforeSuite";
+        }
+        else if (method.isAfterSuiteConfiguration())
+        {
+            return "@AfterSuite";
+        }
+        else if (method.isBeforeTestConfiguration())
+        {
+            return "@BeforeTest";
+        }
+        else if (method.isAfterTestConfiguration())
+        {
+            return "@AfterTest";
+        }
+        else if (method.isBeforeGroupsConfiguration())
+        {
+            return "@BeforeGroups";
+        }
+        else if (method.isAfterGroupsConfiguration())
+        {
+            return "@AfterGroups";
+        }
+        else if (method.isBeforeClassConfiguration())
+        {
+            return "@BeforeClass";
+        }
+        else if (method.isAfterClassConfiguration())
+        {
+            return "@AfterClass";
+        }
+        else if (method.isBeforeMethodConfiguration())
+        {
+            return "@BeforeMethod";
+        }
+        else if (method.isAfterMethodConfiguration())
+        {
+            return "@AfterMethod";
+        }
+        return "";
+    }
+
+
+    /**
+     * @return The breakdown for the whole suite.
+     */
+    public Breakdown getTotal()
+    {
+        return total;
+    }
+
+
+    /**
+     * @return The breakdown for each test, in the order in which they appear in the suite.
+     */
+    public List<Breakdown> getTests()
+    {
+        return tests;
+    }
+
+
+    /**
+     * @return The breakdown for each test class, in decreasing order of configuration time.
+     */
+    public List<Breakdown> getClasses()
+    {
+        return classes;
+    }
+
+
+    /**
+     * @return Each configuration method, in decreasing order of total time.
+     */
+    public List<Fixture> getFixtures()
+    {
+        return fixtures;
+    }
+
+
+    /**
+     * Configuration time and test time for a test, a class or the whole suite.
+     */
+    public static final class Breakdown
+    {
+        private final String name;
+        private long configurationTime = 0;
+        private int configurationCount = 0;
+        private long testTime = 0;
+        private int testCount = 0;
+
+
+        Breakdown(String name)
+        {
+            this.name = name;
+        }
+
+
+        void addConfiguration(long duration)
+        {
+            configurationTime += duration;
+            ++configurationCount;
+        }
+
+
+        void addTest(long duration)
+        {
+            testTime += duration;
+            ++testCount;
+        }
+
+
+        public String getName()
+        {
+            return name;
+        }
+
+
+        public long getConfigurationTime()
+        {
+            return configurationTime;
+        }
+
+
+        /**
+         * @return The number of configuration method invocations.
+         */
+        public int getConfigurationCount()
+        {
+            return configurationCount;
+        }
+
+
+        public long getTestTime()
+        {
+            return testTime;
+        }
+
+
+        /**
+         * @return The number of test method invocations.
+         */
+        public int getTestCount()
+        {
+            return testCount;
+        }
+
+
+        /**
+         * @return The configuration time as a whole-number percentage of the combined
+         * configuration and test time.
+         */
+        public int getConfigurationShare()
+        {
+            long totalTime = configurationTime + testTime;
+            return totalTime <= 0 ? 0 : (int) Math.round(configurationTime * 100.0 / totalTime);
+        }
+
+
+        /**
+         * @return The configuration time as a percentage of the combined configuration
+         * and test time, formatted for display.
+         */
+        public String getConfigurationPercentage()
+        {
+            long totalTime = configurationTime + testTime;
+            return totalTime <= 0
+                   ? "-"
+                   : String.format(Locale.ENGLISH, "%.1f%%", configurationTime * 100.0 / totalTime);
+        }
+    }
+
+
+    /**
+     * A configuration method and the time spent running it.
+     */
+    public static final class Fixture
+    {
+        private final String name;
+        private final String annotation;
+        private long totalTime = 0;
+        private int count = 0;
+
+
+        Fixture(String name, String annotation)
+        {
+            this.name = name;
+            this.annotation = annotation;
+        }
+
+
+        void add(long duration)
+        {
+            totalTime += duration;
+            ++count;
+        }
+
+
+        /**
+         * @return The fully-qualified name of the method.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+
+        /**
+         * @return The configuration annotation (e.g. "@BeforeMethod"), or an empty
+         * string if it is not known.
+         */
+        public String getAnnotation()
+        {
+            return annotation;
+        }
+
+
+        public long getTotalTime()
+        {
+            return totalTime;
+        }
+
+
+        /**
+         * @return The number of times that the method was invoked.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+
+        public long getMeanTime()
+        {
+            return count == 0 ? 0 : totalTime / count;
+        }
+    }
+}
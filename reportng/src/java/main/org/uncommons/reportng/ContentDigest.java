@@ -0,0 +1,140 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Utility methods for calculating content hashes, used to avoid re-writing report
+ * files whose content has not changed.
+ * @author Daniel Dyer
+ */
+final class ContentDigest
+{
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 8192;
+
+    private ContentDigest()
+    {
+        // Prevents instantiation of utility class.
+    }
+
+
+    /**
+     * @return The digest of the specified data.
+     */
+    public static byte[] digest(byte[] data)
+    {
+        return createDigest().digest(data);
+    }
+
+
+    /**
+     * @return The digest of the contents of the specified file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static byte[] digest(File file) throws IOException
+    {
+        MessageDigest digest = createDigest();
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+        return digest.digest();
+    }
+
+
+    /**
+     * Checks whether a file already has the specified content.  The lengths are compared
+     * first so that, in most cases where the content has changed, the file doesn't
+     * have to be read at all.
+     * @param file The file to check (which need not exist).
+     * @param length The length of the expected content, in bytes.
+     * @param digest The digest of the expected content.
+     * @return True if the file exists and has the expected content, false otherwise.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean hasContent(File file, long length, byte[] digest) throws IOException
+    {
+        return file.isFile() && file.length() == length && Arrays.equals(digest(file), digest);
+    }
+
+
+    /**
+     * Reads the remaining contents of a stream.  The stream is not closed.
+     */
+    public static byte[] readFully(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count = stream.read(buffer);
+        while (count >= 0)
+        {
+            contents.write(buffer, 0, count);
+            count = stream.read(buffer);
+        }
+        return contents.toByteArray();
+    }
+
+
+    /**
+     * @return A hexadecimal representation of a digest.
+     */
+    public static String toHex(byte[] digest)
+    {
+        StringBuilder buffer = new StringBuilder(digest.length * 2);
+        for (byte b : digest)
+        {
+            buffer.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buffer.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buffer.toString();
+    }
+
+
+    private static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(ex);
+        }
+    }
+}
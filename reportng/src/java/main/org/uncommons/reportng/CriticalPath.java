@@ -0,0 +1,483 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * The dependency graph of the test methods in a test, built from their
+ * {@link ITestNGMethod#getMethodsDependedUpon() method} and
+ * {@link ITestNGMethod#getGroupsDependedUpon() group} dependencies and weighted with
+ * the measured duration of each method.  The critical path is the chain of dependent
+ * methods with the longest total duration.  However many threads are available, the
+ * test cannot finish in less time than this, so these are the methods to speed up in
+ * order to shorten the run.  The slack of each method is how much longer it could
+ * take without lengthening the critical path.
+ * @author Daniel Dyer
+ */
+public final class CriticalPath
+{
+    private static final Comparator<Node> SLACK_COMPARATOR = new Comparator<Node>()
+    {
+        public int compare(Node node1, Node node2)
+        {
+            if (node1.getSlack() != node2.getSlack())
+            {
+                return node1.getSlack() < node2.getSlack() ? -1 : 1;
+            }
+            return node1.name.compareTo(node2.name);
+        }
+    };
+
+    private final ITestContext context;
+    private final List<Node> path;
+    private final List<Node> dependentMethods;
+    private final long length;
+    private final long summedTime;
+
+
+    private CriticalPath(ITestContext context,
+                         List<Node> path,
+                         List<Node> dependentMethods,
+                         long length,
+                         long summedTime)
+    {
+        this.context = context;
+        this.path = Collections.unmodifiableList(path);
+        this.dependentMethods = Collections.unmodifiableList(dependentMethods);
+        this.length = length;
+        this.summedTime = summedTime;
+    }
+
+
+    /**
+     * Calculates the critical path of each test in a suite that has any dependencies
+     * between its methods.
+     * @param suite The suite.
+     * @return The critical paths, in the order in which the tests appear in the suite.
+     */
+    public static List<CriticalPath> forSuite(ISuite suite)
+    {
+        List<CriticalPath> paths = new ArrayList<CriticalPath>();
+        for (ISuiteResult result : suite.getResults().values())
+        {
+            CriticalPath path = forTest(result.getTestContext());
+            if (!path.dependentMethods.isEmpty())
+            {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+
+    /**
+     * @return True if any test method in the suite depends on other methods or groups.
+     */
+    public static boolean hasDependencies(ISuite suite)
+    {
+        for (ISuiteResult suiteResult : suite.getResults().values())
+        {
+            for (ITestResult result : getResults(suiteResult.getTestContext()))
+            {
+                ITestNGMethod method = result.getMethod();
+                if (method != null
+                    && (method.getMethodsDependedUpon().length > 0 || method.getGroupsDependedUpon().length > 0))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Calculates the critical path of a single test.  Each method is a node in the graph,
+     * weighted by the total duration of all of its invocations.  Methods are identified
+     * by their fully-qualified names (the form that TestNG uses for method dependencies),
+     * so all instances of a method are treated as one.
+     * @param context The test.
+     * @return The critical path.
+     */
+    public static CriticalPath forTest(ITestContext context)
+    {
+        Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+        long summedTime = 0;
+        for (ITestResult result : getResults(context))
+        {
+            ITestNGMethod method = result.getMethod();
+            if (method == null || result.getTestClass() == null)
+            {
+                continue;
+            }
+            String name = result.getTestClass().getName() + '.' + method.getMethodName();
+            Node node = nodes.get(name);
+            if (node == null)
+            {
+                node = new Node(name, method);
+                nodes.put(name, node);
+            }
+            long duration = result.getEndMillis() - result.getStartMillis();
+            node.duration += duration;
+            summedTime += duration;
+        }
+
+        // Index the methods by group so that group dependencies can be resolved without
+        // scanning every method.
+        Map<String, List<Node>> groups = new HashMap<String, List<Node>>();
+        for (Node node : nodes.values())
+        {
+            for (String group : node.method.getGroups())
+            {
+                List<Node> members = groups.get(group);
+                if (members == null)
+                {
+                    members = new ArrayList<Node>();
+                    groups.put(group, members);
+                }
+                members.add(node);
+            }
+        }
+
+        // Add an edge from each method to each method that depends on it.
+        for (Node node : nodes.values())
+        {
+            for (String dependency : node.method.getMethodsDependedUpon())
+            {
+                Node predecessor = nodes.get(dependency);
+                if (predecessor != null)
+                {
+                    addEdge(predecessor, node);
+                }
+            }
+            for (String group : node.method.getGroupsDependedUpon())
+            {
+                for (Node predecessor : getGroupMembers(groups, group))
+                {
+                    addEdge(predecessor, node);
+                }
+            }
+        }
+
+        // Visit the methods in topological order (Kahn's algorithm) to find the earliest
+        // time at which each could finish.  TestNG rejects cyclic dependencies, but if
+        // there is a cycle anyway (e.g. in merged results) the methods in it, and those
+        // that depend on them, are never ready, so they are left out of the analysis.
+        List<Node> order = new ArrayList<Node>(nodes.size());
+        LinkedList<Node> ready = new LinkedList<Node>();
+        Map<Node, Integer> remaining = new HashMap<Node, Integer>();
+        for (Node node : nodes.values())
+        {
+            remaining.put(node, node.predecessors.size());
+            if (node.predecessors.isEmpty())
+            {
+                ready.add(node);
+            }
+        }
+        long length = 0;
+        Node last = null;
+        while (!ready.isEmpty())
+        {
+            Node node = ready.removeFirst();
+            order.add(node);
+            for (Node predecessor : node.predecessors)
+            {
+                node.earliestStart = Math.max(node.earliestStart, predecessor.getEarliestFinish());
+            }
+            if (last == null || node.getEarliestFinish() > length)
+            {
+                length = node.getEarliestFinish();
+                last = node;
+            }
+            for (Node successor : node.successors)
+            {
+                int count = remaining.get(successor) - 1;
+                remaining.put(successor, count);
+                if (count == 0)
+                {
+                    ready.add(successor);
+                }
+            }
+        }
+
+        // Work backwards to find the latest time at which each method could finish
+        // without delaying the end of the critical path.
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            Node node = order.get(i);
+            node.latestFinish = length;
+            for (Node successor : node.successors)
+            {
+                node.latestFinish = Math.min(node.latestFinish, successor.latestFinish - successor.duration);
+            }
+        }
+
+        // Follow the longest chain back from the method that finishes last.
+        LinkedList<Node> path = new LinkedList<Node>();
+        for (Node node = last; node != null; node = getCriticalPredecessor(node))
+        {
+            node.critical = true;
+            path.addFirst(node);
+        }
+
+        List<Node> dependentMethods = new ArrayList<Node>();
+        for (Node node : order)
+        {
+            if (!node.predecessors.isEmpty() || !node.successors.isEmpty())
+            {
+                dependentMethods.add(node);
+            }
+        }
+        Collections.sort(dependentMethods, SLACK_COMPARATOR);
+        return new CriticalPath(context, path, dependentMethods, length, summedTime);
+    }
+
+
+    private static List<ITestResult> getResults(ITestContext context)
+    {
+        List<ITestResult> results = new ArrayList<ITestResult>();
+        results.addAll(context.getPassedTests().getAllResults());
+        results.addAll(context.getFailedTests().getAllResults());
+        results.addAll(context.getSkippedTests().getAllResults());
+        return results;
+    }
+
+
+    private static void addEdge(Node predecessor, Node successor)
+    {
+        if (predecessor != successor && successor.predecessors.add(predecessor))
+        {
+            predecessor.successors.add(successor);
+        }
+    }
+
+
+    /**
+     * Finds the methods that belong to a group.  TestNG allows group dependencies to
+     * be regular expressions, so if there is no group with exactly the specified name,
+     * all groups whose names match it are included.
+     */
+    private static List<Node> getGroupMembers(Map<String, List<Node>> groups, String group)
+    {
+        List<Node> members = groups.get(group);
+        if (members != null)
+        {
+            return members;
+        }
+        members = new ArrayList<Node>();
+        try
+        {
+            Pattern pattern = Pattern.compile(group);
+            for (Map.Entry<String, List<Node>> entry : groups.entrySet())
+            {
+                if (pattern.matcher(entry.getKey()).matches())
+                {
+                    members.addAll(entry.getValue());
+                }
+            }
+        }
+        catch (PatternSyntaxException ex)
+        {
+            // Not a regular expression, so there are no matching groups.
+        }
+        return members;
+    }
+
+
+    private static Node getCriticalPredecessor(Node node)
+    {
+        for (Node predecessor : node.predecessors)
+        {
+            if (predecessor.getEarliestFinish() == node.earliestStart)
+            {
+                return predecessor;
+            }
+        }
+        return null;
+    }
+
+
+    public String getTestName()
+    {
+        return context.getName();
+    }
+
+
+    /**
+     * @return The methods on the critical path, in the order in which they must run.
+     */
+    public List<Node> getPath()
+    {
+        return path;
+    }
+
+
+    /**
+     * @return The methods that depend on, or are depended upon by, other methods,
+     * ordered by increasing slack.
+     */
+    public List<Node> getDependentMethods()
+    {
+        return dependentMethods;
+    }
+
+
+    /**
+     * @return The total duration of the methods on the critical path.  This is the
+     * shortest time in which the test could run, however many threads were used.
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+
+    /**
+     * @return The summed duration of all methods in the test.
+     */
+    public long getSummedTime()
+    {
+        return summedTime;
+    }
+
+
+    /**
+     * @return The time between the start and end of the test.
+     */
+    public long getWallTime()
+    {
+        return ReportNGUtils.getWallTime(context);
+    }
+
+
+    /**
+     * @return The summed time divided by the length of the critical path, which is
+     * the greatest number of threads that the test could make use of.
+     */
+    public String getMaximumParallelism()
+    {
+        return length <= 0 ? "-" : String.format(Locale.ENGLISH, "%.2f", (double) summedTime / length);
+    }
+
+
+    /**
+     * A test method in the dependency graph.
+     */
+    public static final class Node
+    {
+        private final String name;
+        private final ITestNGMethod method;
+        private final Set<Node> predecessors = new LinkedHashSet<Node>();
+        private final List<Node> successors = new ArrayList<Node>();
+        private long duration = 0;
+        private long earliestStart = 0;
+        private long latestFinish = 0;
+        private boolean critical = false;
+
+
+        Node(String name, ITestNGMethod method)
+        {
+            this.name = name;
+            this.method = method;
+        }
+
+
+        /**
+         * @return The fully-qualified name of the method.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+
+        /**
+         * @return The total duration of all invocations of the method.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+
+        /**
+         * @return The earliest time, relative to the start of the test, at which the
+         * method could start once all of its dependencies have finished.
+         */
+        public long getEarliestStart()
+        {
+            return earliestStart;
+        }
+
+
+        long getEarliestFinish()
+        {
+            return earliestStart + duration;
+        }
+
+
+        /**
+         * @return How much later the method could finish without lengthening the
+         * critical path.
+         */
+        public long getSlack()
+        {
+            return latestFinish - getEarliestFinish();
+        }
+
+
+        /**
+         * @return The number of methods that this method directly depends on.
+         */
+        public int getDependencyCount()
+        {
+            return predecessors.size();
+        }
+
+
+        /**
+         * @return The number of methods that directly depend on this method.
+         */
+        public int getDependentCount()
+        {
+            return successors.size();
+        }
+
+
+        public boolean isCritical()
+        {
+            return critical;
+        }
+    }
+}
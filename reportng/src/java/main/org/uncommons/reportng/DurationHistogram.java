@@ -0,0 +1,274 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The distribution of a set of durations, recorded in a fixed number of buckets so
+ * that memory use does not depend on the number of durations.  Each power of two
+ * (in milliseconds) is split into four buckets, so percentiles are estimated to
+ * within 25% of their true values.  Durations below four milliseconds are recorded
+ * exactly, as are the count, total and maximum.
+ * @author Daniel Dyer
+ */
+public final class DurationHistogram
+{
+    private static final int SUB_BUCKETS = 4;
+    // Durations of 2^32 milliseconds (about 50 days) or more share the last bucket.
+    private static final int MAX_EXPONENT = 32;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - 1) * SUB_BUCKETS;
+
+    // Unicode block elements, from one eighth to full height.
+    private static final int FIRST_BLOCK = 0x2581;
+    private static final int BLOCK_COUNT = 8;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+
+    /**
+     * Records a single duration.  Negative durations are treated as zero.
+     * @param duration A duration in milliseconds.
+     */
+    public void add(long duration)
+    {
+        long value = Math.max(0, duration);
+        ++counts[getBucket(value)];
+        ++count;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+
+    static int getBucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+        int mantissa = (int) (value >> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return (exponent - 1) * SUB_BUCKETS + mantissa;
+    }
+
+
+    /**
+     * @return The smallest duration that is recorded in the specified bucket.
+     */
+    static long getLowerBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+    }
+
+
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    public long getTotal()
+    {
+        return total;
+    }
+
+
+    public long getMax()
+    {
+        return max;
+    }
+
+
+    /**
+     * Estimates a percentile of the recorded durations.  The estimate is the largest
+     * duration that falls in the same bucket as the true value (but never more than
+     * the maximum recorded duration).
+     * @param percentile The percentile, between 0 and 100.
+     * @return The estimated duration, or zero if no durations have been recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            seen += counts[bucket];
+            if (seen >= rank)
+            {
+                long upperBound = bucket + 1 < BUCKET_COUNT ? getLowerBound(bucket + 1) - 1 : max;
+                return Math.min(upperBound, max);
+            }
+        }
+        return max;
+    }
+
+
+    public long getMedian()
+    {
+        return getPercentile(50);
+    }
+
+
+    /**
+     * Groups the buckets into one bin per power of two, from the bin containing the
+     * shortest recorded duration to the bin containing the longest.  Durations below
+     * two milliseconds share the first bin.
+     * @return The bins, in order of increasing duration.  Empty if no durations
+     * have been recorded.
+     */
+    public List<Bin> getBins()
+    {
+        if (count == 0)
+        {
+            return Collections.emptyList();
+        }
+        List<Bin> bins = new ArrayList<Bin>();
+        long lower = 0;
+        long upper = 2;
+        int binCount = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            long bucketUpper = bucket + 1 < BUCKET_COUNT ? getLowerBound(bucket + 1) : Long.MAX_VALUE;
+            binCount += counts[bucket];
+            if (bucketUpper >= upper || bucket == BUCKET_COUNT - 1)
+            {
+                bins.add(new Bin(lower, bucketUpper, binCount));
+                lower = bucketUpper;
+                upper = bucketUpper * 2;
+                binCount = 0;
+            }
+        }
+        // Trim the empty bins before the shortest and after the longest durations.
+        int first = 0;
+        while (bins.get(first).getCount() == 0)
+        {
+            ++first;
+        }
+        int last = bins.size() - 1;
+        while (bins.get(last).getCount() == 0)
+        {
+            --last;
+        }
+        List<Bin> trimmed = bins.subList(first, last + 1);
+        int largest = 0;
+        for (Bin bin : trimmed)
+        {
+            largest = Math.max(largest, bin.count);
+        }
+        for (Bin bin : trimmed)
+        {
+            bin.percentage = (int) ((long) bin.count * 100 / largest);
+        }
+        return new ArrayList<Bin>(trimmed);
+    }
+
+
+    /**
+     * @return The shape of the distribution as a string of Unicode block elements,
+     * one per bin (see {@link #getBins()}), using HTML character references so that
+     * it does not depend on the encoding of the report.  Empty bins are shown as
+     * spaces.
+     */
+    public String getSparkline()
+    {
+        List<Bin> bins = getBins();
+        StringBuilder buffer = new StringBuilder(bins.size() * 7);
+        for (Bin bin : bins)
+        {
+            if (bin.count == 0)
+            {
+                buffer.append("&#160;");
+            }
+            else
+            {
+                int level = bin.percentage * (BLOCK_COUNT - 1) / 100;
+                buffer.append("&#").append(FIRST_BLOCK + level).append(';');
+            }
+        }
+        return buffer.toString();
+    }
+
+
+    /**
+     * A range of durations and the number of recorded durations that fall in it.
+     */
+    public static final class Bin
+    {
+        private final long lowerBound;
+        private final long upperBound;
+        private final int count;
+        private int percentage;
+
+
+        Bin(long lowerBound, long upperBound, int count)
+        {
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.count = count;
+        }
+
+
+        /**
+         * @return The shortest duration in this bin.
+         */
+        public long getLowerBound()
+        {
+            return lowerBound;
+        }
+
+
+        /**
+         * @return The shortest duration above this bin.
+         */
+        public long getUpperBound()
+        {
+            return upperBound;
+        }
+
+
+        public int getCount()
+        {
+            return count;
+        }
+
+
+        /**
+         * @return The count as a percentage of the count of the fullest bin.
+         */
+        public int getPercentage()
+        {
+            return percentage;
+        }
+    }
+}
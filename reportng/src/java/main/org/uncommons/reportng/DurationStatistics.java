@@ -0,0 +1,177 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * The distribution of test method durations in a suite, overall and broken down by
+ * test class and by group, plus the slowest individual invocations.  Only tests that
+ * actually ran (i.e. passed or failed) are included.  Each distribution is a
+ * fixed-size {@link DurationHistogram} and only the slowest invocations are retained,
+ * so the memory used does not depend on the number of results.
+ * @author Daniel Dyer
+ */
+public final class DurationStatistics
+{
+    private static final Comparator<ITestResult> DURATION_COMPARATOR = new Comparator<ITestResult>()
+    {
+        public int compare(ITestResult result1, ITestResult result2)
+        {
+            long duration1 = getDuration(result1);
+            long duration2 = getDuration(result2);
+            return duration1 < duration2 ? -1 : (duration1 == duration2 ? 0 : 1);
+        }
+    };
+
+    private final DurationHistogram suite = new DurationHistogram();
+    private final SortedMap<String, DurationHistogram> classes = new TreeMap<String, DurationHistogram>();
+    private final SortedMap<String, DurationHistogram> groups = new TreeMap<String, DurationHistogram>();
+    private final int slowestCount;
+    private final PriorityQueue<ITestResult> slowest;
+
+
+    private DurationStatistics(int slowestCount)
+    {
+        this.slowestCount = slowestCount;
+        // A min-heap, so that the quickest of the slowest results is the one evicted.
+        this.slowest = new PriorityQueue<ITestResult>(Math.max(1, slowestCount), DURATION_COMPARATOR);
+    }
+
+
+    /**
+     * Calculate the duration statistics for a suite.
+     * @param suite The suite.
+     * @param slowestCount The number of slowest invocations to retain.
+     * @return The statistics.
+     */
+    public static DurationStatistics forSuite(ISuite suite, int slowestCount)
+    {
+        DurationStatistics statistics = new DurationStatistics(slowestCount);
+        // Only the groups that TestNG reports for the suite are included, as on the
+        // groups page.
+        for (String group : suite.getMethodsByGroups().keySet())
+        {
+            statistics.groups.put(group, new DurationHistogram());
+        }
+        for (ISuiteResult suiteResult : suite.getResults().values())
+        {
+            ITestContext context = suiteResult.getTestContext();
+            for (ITestResult result : context.getPassedTests().getAllResults())
+            {
+                statistics.add(result);
+            }
+            for (ITestResult result : context.getFailedTests().getAllResults())
+            {
+                statistics.add(result);
+            }
+        }
+        return statistics;
+    }
+
+
+    private void add(ITestResult result)
+    {
+        long duration = getDuration(result);
+        suite.add(duration);
+        String className = result.getTestClass() == null ? "" : result.getTestClass().getName();
+        DurationHistogram classHistogram = classes.get(className);
+        if (classHistogram == null)
+        {
+            classHistogram = new DurationHistogram();
+            classes.put(className, classHistogram);
+        }
+        classHistogram.add(duration);
+        String[] methodGroups = result.getMethod() == null ? null : result.getMethod().getGroups();
+        if (methodGroups != null)
+        {
+            for (String group : methodGroups)
+            {
+                DurationHistogram groupHistogram = groups.get(group);
+                if (groupHistogram != null)
+                {
+                    groupHistogram.add(duration);
+                }
+            }
+        }
+        if (slowestCount > 0)
+        {
+            if (slowest.size() < slowestCount)
+            {
+                slowest.add(result);
+            }
+            else if (duration > getDuration(slowest.peek()))
+            {
+                slowest.poll();
+                slowest.add(result);
+            }
+        }
+    }
+
+
+    private static long getDuration(ITestResult result)
+    {
+        return result.getEndMillis() - result.getStartMillis();
+    }
+
+
+    /**
+     * @return The distribution of durations for the whole suite.
+     */
+    public DurationHistogram getSuite()
+    {
+        return suite;
+    }
+
+
+    /**
+     * @return The distribution of durations for each test class, keyed by class name.
+     */
+    public SortedMap<String, DurationHistogram> getClasses()
+    {
+        return Collections.unmodifiableSortedMap(classes);
+    }
+
+
+    /**
+     * @return The distribution of durations for each group, keyed by group name.
+     */
+    public SortedMap<String, DurationHistogram> getGroups()
+    {
+        return Collections.unmodifiableSortedMap(groups);
+    }
+
+
+    /**
+     * @return The slowest invocations, slowest first.
+     */
+    public List<ITestResult> getSlowest()
+    {
+        List<ITestResult> results = new ArrayList<ITestResult>(slowest);
+        Collections.sort(results, Collections.reverseOrder(DURATION_COMPARATOR));
+        return results;
+    }
+}
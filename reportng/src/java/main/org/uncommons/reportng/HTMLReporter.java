@@ -19,10 +19,12 @@ package org.uncommons.reportng;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -31,12 +33,11 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import org.apache.velocity.VelocityContext;
 import org.testng.IClass;
-import org.testng.IResultMap;
 import org.testng.ISuite;
 import org.testng.ISuiteResult;
+import org.testng.ITestContext;
 import org.testng.ITestNGMethod;
 import org.testng.ITestResult;
-import org.testng.Reporter;
 import org.testng.xml.XmlSuite;
 
 /**
@@ -54,8 +55,15 @@ public class HTMLReporter extends AbstractReporter
     private static final String SUITES_FILE = "suites.html";
     private static final String OVERVIEW_FILE = "overview.html";
     private static final String GROUPS_FILE = "groups.html";
+    private static final String CHRONOLOGY_FILE = "chronology.html";
+    private static final String DURATIONS_FILE = "durations.html";
+    private static final String CRITICAL_PATH_FILE = "critical-path.html";
+    private static final String CONFIGURATION_FILE = "configuration.html";
     private static final String RESULTS_FILE = "results.html";
     private static final String OUTPUT_FILE = "output.html";
+    private static final String OUTPUT_PAGE_FILE = "output-page.html";
+    private static final String VIRTUAL_RESULTS_FILE = "virtual-results.html";
+    private static final String RESULTS_SUMMARY_FILE = "results-summary.html";
     private static final String CUSTOM_STYLE_FILE = "custom.css";
 
     private static final String SUITE_KEY = "suite";
@@ -68,13 +76,31 @@ public class HTMLReporter extends AbstractReporter
     private static final String SKIPPED_TESTS_KEY = "skippedTests";
     private static final String PASSED_TESTS_KEY = "passedTests";
     private static final String ONLY_FAILURES_KEY = "onlyReportFailures";
+    private static final String PAGES_KEY = "pages";
+    private static final String PAGE_KEY = "page";
+    private static final String PAGE_COUNT_KEY = "pageCount";
+    private static final String STATISTICS_KEY = "statistics";
+    private static final String TEST_STATISTICS_KEY = "testStatistics";
+    private static final String TRACES_KEY = "traces";
+    private static final String DATA_FILE_KEY = "dataFile";
+    private static final String SHARDS_KEY = "shards";
+    private static final String SHARD_KEY = "shard";
+    private static final String HISTORY_KEY = "history";
+    private static final String TIMELINE_KEY = "timeline";
+    private static final String DURATIONS_KEY = "durations";
+    private static final String CRITICAL_PATHS_KEY = "criticalPaths";
+    private static final String CONFIGURATION_KEY = "configuration";
 
-    private static final String REPORT_DIRECTORY = "html";
+    static final String REPORT_DIRECTORY = "html";
 
     private static final Comparator<ITestNGMethod> METHOD_COMPARATOR = new TestMethodComparator();
-    private static final Comparator<ITestResult> RESULT_COMPARATOR = new TestResultComparator();
     private static final Comparator<IClass> CLASS_COMPARATOR = new TestClassComparator();
 
+    /**
+     * The history of previous runs, or null if no history is being kept.
+     */
+    private volatile RunHistory history = null;
+
     public HTMLReporter()
     {
         super(TEMPLATES_PATH);
@@ -93,24 +119,55 @@ public class HTMLReporter extends AbstractReporter
     {
         removeEmptyDirectories(new File(outputDirectoryName));
         
-        boolean useFrames = System.getProperty(FRAMES_PROPERTY, "true").equals("true");
-        boolean onlyFailures = System.getProperty(ONLY_FAILURES_PROPERTY, "false").equals("true");
+        boolean useFrames = useFrames();
+        boolean onlyFailures = onlyShowFailures();
 
         File outputDirectory = new File(outputDirectoryName, REPORT_DIRECTORY);
         outputDirectory.mkdirs();
 
         try
         {
+            startTimings();
+            // Each page is independent of the others so they can all be rendered
+            // concurrently if multiple threads have been configured.
+            // The statistics are calculated once, up front, and shared by all pages (and
+            // by any other reporters that render the same results).
+            long startTime = System.nanoTime();
+            ReportModel model = getReportModel(suites);
+            Map<ISuite, SuiteStatistics> statistics = model.getStatistics();
+            recordCounts(statistics);
+            recordPhase("statistics", startTime);
+            startTime = System.nanoTime();
+            loadHistory();
+            for (ISuite suite : suites)
+            {
+                for (ISuiteResult result : suite.getResults().values())
+                {
+                    recordHistory(result.getTestContext());
+                }
+            }
+            recordPhase("history", startTime);
+            List<FileTask> tasks = new ArrayList<FileTask>();
             if (useFrames)
             {
-                createFrameset(outputDirectory);
+                tasks.add(inPhase("createFrameset", createFrameset(outputDirectory)));
             }
-            createOverview(suites, outputDirectory, !useFrames, onlyFailures);
-            createSuiteList(suites, outputDirectory, onlyFailures);
-            createGroups(suites, outputDirectory);
-            createResults(suites, outputDirectory, onlyFailures);
-            createLog(outputDirectory, onlyFailures);
+            tasks.add(inPhase("createOverview",
+                              createOverview(suites, statistics, outputDirectory, !useFrames, onlyFailures)));
+            tasks.add(inPhase("createSuiteList", createSuiteList(model, outputDirectory, onlyFailures)));
+            tasks.addAll(inPhase("createGroups", createGroups(suites, outputDirectory)));
+            tasks.addAll(inPhase("createChronologies", createChronologies(suites, outputDirectory)));
+            tasks.addAll(inPhase("createDurations", createDurations(model, outputDirectory)));
+            tasks.addAll(inPhase("createCriticalPaths", createCriticalPaths(suites, outputDirectory)));
+            tasks.addAll(inPhase("createConfigurations", createConfigurations(suites, outputDirectory)));
+            tasks.addAll(inPhase("createResults", createResults(model, outputDirectory, onlyFailures)));
+            tasks.addAll(inPhase("createLog", createLog(outputDirectory, onlyFailures)));
+            generateFiles(tasks);
+            startTime = System.nanoTime();
             copyResources(outputDirectory);
+            recordPhase("copyResources", startTime);
+            saveHistory();
+            finishTimings(outputDirectory);
         }
         catch (Exception ex)
         {
@@ -119,30 +176,130 @@ public class HTMLReporter extends AbstractReporter
     }
 
 
+    /**
+     * Records the numbers of suites, tests and results for the timings file.
+     */
+    void recordCounts(Map<ISuite, SuiteStatistics> statistics)
+    {
+        int tests = 0;
+        int passed = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (SuiteStatistics suiteStatistics : statistics.values())
+        {
+            tests += suiteStatistics.getTests().size();
+            passed += suiteStatistics.getPassed();
+            skipped += suiteStatistics.getSkipped();
+            failed += suiteStatistics.getFailed();
+        }
+        recordCount("suites", statistics.size());
+        recordCount("tests", tests);
+        recordCount("passed", passed);
+        recordCount("skipped", skipped);
+        recordCount("failed", failed);
+    }
+
+
+    /**
+     * Loads the history of previous runs, if a history file has been configured (see
+     * {@link ReportMetadata#getHistoryFile()}).
+     */
+    void loadHistory() throws IOException
+    {
+        File file = META.getHistoryFile();
+        history = file == null ? null : RunHistory.load(file, META.getHistorySize());
+    }
+
+
+    /**
+     * Adds the results of a test to the history of the current run, so that the report
+     * can compare them with previous runs.
+     */
+    void recordHistory(ITestContext context)
+    {
+        RunHistory currentHistory = history;
+        if (currentHistory != null)
+        {
+            currentHistory.record(context);
+        }
+    }
+
+
+    /**
+     * Adds the current run to the history file.
+     */
+    void saveHistory() throws IOException
+    {
+        RunHistory currentHistory = history;
+        if (currentHistory != null)
+        {
+            currentHistory.save();
+        }
+    }
+
+
+    /**
+     * Adds the run history (if any) to the standard context, for use by the overview
+     * and results templates.
+     */
+    @Override
+    protected VelocityContext createContext()
+    {
+        VelocityContext context = super.createContext();
+        RunHistory currentHistory = history;
+        if (currentHistory != null)
+        {
+            context.put(HISTORY_KEY, currentHistory);
+        }
+        return context;
+    }
+
+
+    /**
+     * @return True if the report should use frames (the default), false otherwise.
+     */
+    static boolean useFrames()
+    {
+        return System.getProperty(FRAMES_PROPERTY, "true").equals("true");
+    }
+
+
+    /**
+     * @return True if only tests with failures should be included in the report,
+     * false (the default) if all tests should be included.
+     */
+    static boolean onlyShowFailures()
+    {
+        return System.getProperty(ONLY_FAILURES_PROPERTY, "false").equals("true");
+    }
+
+
     /**
      * Create the index file that sets up the frameset.
      * @param outputDirectory The target directory for the generated file(s).
      */
-    private void createFrameset(File outputDirectory) throws Exception
+    FileTask createFrameset(File outputDirectory)
     {
         VelocityContext context = createContext();
-        generateFile(new File(outputDirectory, INDEX_FILE),
-                     INDEX_FILE + TEMPLATE_EXTENSION,
-                     context);
+        return new TemplateFileTask(new File(outputDirectory, INDEX_FILE),
+                                    INDEX_FILE + TEMPLATE_EXTENSION,
+                                    context);
     }
 
 
-    private void createOverview(List<ISuite> suites,
-                                File outputDirectory,
-                                boolean isIndex,
-                                boolean onlyFailures) throws Exception
+    FileTask createOverview(List<ISuite> suites,
+                            Map<ISuite, SuiteStatistics> statistics,
+                            File outputDirectory,
+                            boolean isIndex,
+                            boolean onlyFailures)
     {
         VelocityContext context = createContext();
         context.put(SUITES_KEY, suites);
+        context.put(STATISTICS_KEY, statistics);
         context.put(ONLY_FAILURES_KEY, onlyFailures);
-        generateFile(new File(outputDirectory, isIndex ? INDEX_FILE : OVERVIEW_FILE),
-                     OVERVIEW_FILE + TEMPLATE_EXTENSION,
-                     context);
+        return new TemplateFileTask(new File(outputDirectory, isIndex ? INDEX_FILE : OVERVIEW_FILE),
+                                    OVERVIEW_FILE + TEMPLATE_EXTENSION,
+                                    context);
     }
 
 
@@ -150,16 +307,37 @@ public class HTMLReporter extends AbstractReporter
      * Create the navigation frame.
      * @param outputDirectory The target directory for the generated file(s).
      */
-    private void createSuiteList(List<ISuite> suites,
-                                 File outputDirectory,
-                                 boolean onlyFailures) throws Exception
+    FileTask createSuiteList(ReportModel model,
+                             File outputDirectory,
+                             boolean onlyFailures)
     {
+        // Tests whose results are split across several pages link to each page directly.
+        Map<ITestContext, List<ResultsShard>> shards = new HashMap<ITestContext, List<ResultsShard>>();
+        int index = 1;
+        for (ISuite suite : model.getSuites())
+        {
+            int index2 = 1;
+            for (ISuiteResult result : suite.getResults().values())
+            {
+                TestStatistics testStatistics = model.getStatistics().get(suite).getTest(result.getTestContext());
+                if (shouldShard(testStatistics))
+                {
+                    shards.put(result.getTestContext(),
+                               getShards(model.getTestResults(result.getTestContext()),
+                                         getResultsFileName(index, index2)));
+                }
+                ++index2;
+            }
+            ++index;
+        }
         VelocityContext context = createContext();
-        context.put(SUITES_KEY, suites);
+        context.put(SUITES_KEY, model.getSuites());
+        context.put(STATISTICS_KEY, model.getStatistics());
         context.put(ONLY_FAILURES_KEY, onlyFailures);
-        generateFile(new File(outputDirectory, SUITES_FILE),
-                     SUITES_FILE + TEMPLATE_EXTENSION,
-                     context);
+        context.put(SHARDS_KEY, shards);
+        return new TemplateFileTask(new File(outputDirectory, SUITES_FILE),
+                                    SUITES_FILE + TEMPLATE_EXTENSION,
+                                    context);
     }
 
 
@@ -167,61 +345,313 @@ public class HTMLReporter extends AbstractReporter
      * Generate a results file for each test in each suite.
      * @param outputDirectory The target directory for the generated file(s).
      */
-    private void createResults(List<ISuite> suites,
-                               File outputDirectory,
-                               boolean onlyShowFailures) throws Exception
+    private List<FileTask> createResults(ReportModel model,
+                                         File outputDirectory,
+                                         boolean onlyShowFailures)
     {
+        List<FileTask> tasks = new ArrayList<FileTask>();
         int index = 1;
-        for (ISuite suite : suites)
+        for (ISuite suite : model.getSuites())
         {
             int index2 = 1;
             for (ISuiteResult result : suite.getResults().values())
             {
-                boolean failuresExist = result.getTestContext().getFailedTests().size() > 0
-                                        || result.getTestContext().getFailedConfigurations().size() > 0;
-                if (!onlyShowFailures || failuresExist)
+                TestStatistics testStatistics = model.getStatistics().get(suite).getTest(result.getTestContext());
+                if (!onlyShowFailures || testStatistics.hasFailures())
                 {
-                    VelocityContext context = createContext();
-                    context.put(RESULT_KEY, result);
-                    context.put(FAILED_CONFIG_KEY, sortByTestClass(result.getTestContext().getFailedConfigurations()));
-                    context.put(SKIPPED_CONFIG_KEY, sortByTestClass(result.getTestContext().getSkippedConfigurations()));
-                    context.put(FAILED_TESTS_KEY, sortByTestClass(result.getTestContext().getFailedTests()));
-                    context.put(SKIPPED_TESTS_KEY, sortByTestClass(result.getTestContext().getSkippedTests()));
-                    context.put(PASSED_TESTS_KEY, sortByTestClass(result.getTestContext().getPassedTests()));
-                    String fileName = String.format("suite%d_test%d_%s", index, index2, RESULTS_FILE);
-                    generateFile(new File(outputDirectory, fileName),
-                                 RESULTS_FILE + TEMPLATE_EXTENSION,
-                                 context);
+                    File file = new File(outputDirectory, getResultsFileName(index, index2));
+                    tasks.addAll(createResultsFiles(result, model.getTestResults(result.getTestContext()), file));
                 }
                 ++index2;
             }
             ++index;
         }
+        return tasks;
     }
 
 
     /**
-     * Group test methods by class and sort alphabetically.
-     */ 
-    private SortedMap<IClass, List<ITestResult>> sortByTestClass(IResultMap results)
+     * Create the files for the results of a single test.  This is normally just the
+     * results page, but virtual results pages also require data files and the results
+     * of very large tests may be split into one page per class.
+     * @param result The test.
+     * @param testResults The sorted results of the test.
+     * @param file The results page to generate.
+     */
+    List<FileTask> createResultsFiles(ISuiteResult result,
+                                      TestResults testResults,
+                                      File file)
     {
-        SortedMap<IClass, List<ITestResult>> sortedResults = new TreeMap<IClass, List<ITestResult>>(CLASS_COMPARATOR);
-        for (ITestResult result : results.getAllResults())
+        if (META.shouldUseVirtualResults())
         {
-            List<ITestResult> resultsForClass = sortedResults.get(result.getTestClass());
-            if (resultsForClass == null)
+            return createVirtualResultsFiles(result, testResults, file);
+        }
+        List<ResultsShard> shards = getShards(testResults, file.getName());
+        return shards == null
+               ? Collections.<FileTask>singletonList(createResultsFile(result, testResults, file))
+               : createShardedResultsFiles(result, testResults, shards, file);
+    }
+
+
+    /**
+     * Create the results file for a single test.
+     * @param result The test.
+     * @param testResults The sorted results of the test.
+     * @param file The file to generate.
+     */
+    FileTask createResultsFile(ISuiteResult result,
+                               TestResults testResults,
+                               File file)
+    {
+        return createResultsFile(result,
+                                 testResults.getStatistics(),
+                                 testResults.getFailedConfigurations(),
+                                 testResults.getSkippedConfigurations(),
+                                 testResults.getFailedTests(),
+                                 testResults.getSkippedTests(),
+                                 testResults.getPassedTests(),
+                                 null,
+                                 file);
+    }
+
+
+    /**
+     * Create a results file containing the specified results, which must be grouped by
+     * class and sorted in the order in which they should appear.
+     * @param shard If the file contains only the results for one class of a test whose
+     * results have been split across several pages, the details of that page.  Otherwise
+     * null.
+     */
+    private FileTask createResultsFile(final ISuiteResult result,
+                                       final TestStatistics testStatistics,
+                                       final Map<IClass, List<ITestResult>> failedConfigurations,
+                                       final Map<IClass, List<ITestResult>> skippedConfigurations,
+                                       final Map<IClass, List<ITestResult>> failedTests,
+                                       final Map<IClass, List<ITestResult>> skippedTests,
+                                       final Map<IClass, List<ITestResult>> passedTests,
+                                       final ResultsShard shard,
+                                       File file)
+    {
+        if (META.shouldUseTemplates())
+        {
+            VelocityContext context = createContext();
+            context.put(RESULT_KEY, result);
+            context.put(TEST_STATISTICS_KEY, testStatistics);
+            context.put(SHARD_KEY, shard);
+            context.put(FAILED_CONFIG_KEY, failedConfigurations);
+            context.put(SKIPPED_CONFIG_KEY, skippedConfigurations);
+            context.put(FAILED_TESTS_KEY, failedTests);
+            context.put(SKIPPED_TESTS_KEY, skippedTests);
+            context.put(PASSED_TESTS_KEY, passedTests);
+            context.put(TRACES_KEY, new StackTraceTable(META.shouldDeduplicateStackTraces()));
+            return new TemplateFileTask(file,
+                                        RESULTS_FILE + TEMPLATE_EXTENSION,
+                                        context);
+        }
+        else
+        {
+            return new FileTask(file)
             {
-                resultsForClass = new ArrayList<ITestResult>();
-                sortedResults.put(result.getTestClass(), resultsForClass);
+                @Override
+                protected void render(Writer writer) throws Exception
+                {
+                    new HTMLResultsRenderer(META, UTILS, MESSAGES, history).render(result,
+                                                                                   testStatistics,
+                                                                                   failedConfigurations,
+                                                                                   skippedConfigurations,
+                                                                                   failedTests,
+                                                                                   skippedTests,
+                                                                                   passedTests,
+                                                                                   shard,
+                                                                                   writer);
+                }
+            };
+        }
+    }
+
+
+    /**
+     * Works out whether the results of a test should be split into one page per test
+     * class.  Results are split if there are more of them than the configured threshold
+     * (see {@link ReportMetadata#getShardThreshold()}).
+     * @param testStatistics Summary statistics for the test.
+     * @return True if the results should be split, false otherwise.
+     */
+    boolean shouldShard(TestStatistics testStatistics)
+    {
+        int threshold = META.getShardThreshold();
+        int resultCount = testStatistics.getTotal()
+                          + testStatistics.getFailedConfigurations()
+                          + testStatistics.getSkippedConfigurations();
+        return threshold > 0 && !META.shouldUseVirtualResults() && resultCount > threshold;
+    }
+
+
+    /**
+     * Works out whether the results of a test should be split into one page per test
+     * class (see {@link #shouldShard(TestStatistics)}) and, if so, what those pages are.
+     * @param testResults The sorted results of the test.
+     * @param fileName The name of the test's (summary) results page.
+     * @return The per-class pages, sorted by class name, or null if the results should
+     * not be split.
+     */
+    List<ResultsShard> getShards(TestResults testResults, String fileName)
+    {
+        if (!shouldShard(testResults.getStatistics()))
+        {
+            return null;
+        }
+        SortedMap<IClass, ResultsShard> shards = new TreeMap<IClass, ResultsShard>(CLASS_COMPARATOR);
+        addToShards(testResults.getFailedConfigurations(), true, fileName, shards);
+        addToShards(testResults.getSkippedConfigurations(), true, fileName, shards);
+        addToShards(testResults.getFailedTests(), false, fileName, shards);
+        addToShards(testResults.getSkippedTests(), false, fileName, shards);
+        addToShards(testResults.getPassedTests(), false, fileName, shards);
+
+        // Each page is named after the summary page, with a numbered suffix.
+        String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+        List<ResultsShard> sortedShards = new ArrayList<ResultsShard>(shards.values());
+        for (int i = 0; i < sortedShards.size(); i++)
+        {
+            sortedShards.get(i).setFileName(baseName + "-class" + (i + 1) + ".html");
+        }
+        return sortedShards;
+    }
+
+
+    private void addToShards(Map<IClass, List<ITestResult>> results,
+                             boolean configuration,
+                             String fileName,
+                             Map<IClass, ResultsShard> shards)
+    {
+        for (Map.Entry<IClass, List<ITestResult>> entry : results.entrySet())
+        {
+            ResultsShard shard = shards.get(entry.getKey());
+            if (shard == null)
+            {
+                shard = new ResultsShard(entry.getKey(), fileName);
+                shards.put(entry.getKey(), shard);
+            }
+            for (ITestResult result : entry.getValue())
+            {
+                shard.addResult(result, configuration);
             }
-            int index = Collections.binarySearch(resultsForClass, result, RESULT_COMPARATOR);
-            if (index < 0)
+        }
+    }
+
+
+    /**
+     * Create a summary page for a single test plus a results page for each test class.
+     * @param result The test.
+     * @param testResults The sorted results of the test.
+     * @param shards The per-class pages.
+     * @param file The summary page to generate.
+     */
+    private List<FileTask> createShardedResultsFiles(ISuiteResult result,
+                                                     TestResults testResults,
+                                                     List<ResultsShard> shards,
+                                                     File file)
+    {
+        TestStatistics testStatistics = testResults.getStatistics();
+        List<FileTask> tasks = new ArrayList<FileTask>(shards.size() + 1);
+        VelocityContext context = createContext();
+        context.put(RESULT_KEY, result);
+        context.put(TEST_STATISTICS_KEY, testStatistics);
+        context.put(SHARDS_KEY, shards);
+        tasks.add(new TemplateFileTask(file, RESULTS_SUMMARY_FILE + TEMPLATE_EXTENSION, context));
+        for (ResultsShard shard : shards)
+        {
+            IClass testClass = shard.getTestClass();
+            tasks.add(createResultsFile(result,
+                                        testStatistics,
+                                        forClass(testResults.getFailedConfigurations(), testClass),
+                                        forClass(testResults.getSkippedConfigurations(), testClass),
+                                        forClass(testResults.getFailedTests(), testClass),
+                                        forClass(testResults.getSkippedTests(), testClass),
+                                        forClass(testResults.getPassedTests(), testClass),
+                                        shard,
+                                        new File(file.getParentFile(), shard.getFileName())));
+        }
+        return tasks;
+    }
+
+
+    /**
+     * @return A map containing only the results for the specified class (if any).
+     */
+    private Map<IClass, List<ITestResult>> forClass(Map<IClass, List<ITestResult>> results, IClass testClass)
+    {
+        List<ITestResult> classResults = results.get(testClass);
+        return classResults == null
+               ? Collections.<IClass, List<ITestResult>>emptyMap()
+               : Collections.singletonMap(testClass, classResults);
+    }
+
+
+    /**
+     * Create a virtual results page for a single test, plus the data files that it
+     * loads.  The data files have the same name as the page, with a ".js" extension
+     * for the summary of the results and a numbered suffix for each chunk of details.
+     * @param result The test.
+     * @param testResults The sorted results of the test.
+     * @param file The results page to generate.
+     */
+    private List<FileTask> createVirtualResultsFiles(ISuiteResult result,
+                                                     TestResults testResults,
+                                                     File file)
+    {
+        final JSONResultsRenderer renderer
+            = new JSONResultsRenderer(META,
+                                      UTILS,
+                                      MESSAGES,
+                                      testResults.getFailedConfigurations(),
+                                      testResults.getSkippedConfigurations(),
+                                      testResults.getFailedTests(),
+                                      testResults.getSkippedTests(),
+                                      testResults.getPassedTests());
+        String baseName = file.getName().substring(0, file.getName().lastIndexOf('.'));
+        final String detailsPrefix = baseName + '-';
+        File dataFile = new File(file.getParentFile(), baseName + ".js");
+
+        List<FileTask> tasks = new ArrayList<FileTask>(renderer.getChunkCount() + 2);
+        VelocityContext context = createContext();
+        context.put(RESULT_KEY, result);
+        context.put(TEST_STATISTICS_KEY, testResults.getStatistics());
+        context.put(DATA_FILE_KEY, dataFile.getName());
+        tasks.add(new TemplateFileTask(file, VIRTUAL_RESULTS_FILE + TEMPLATE_EXTENSION, context));
+        tasks.add(new FileTask(dataFile)
+        {
+            @Override
+            protected void render(Writer writer) throws Exception
             {
-                index = Math.abs(index + 1);
+                renderer.renderResults(detailsPrefix, writer);
             }
-            resultsForClass.add(index, result);
+        });
+        for (int i = 0; i < renderer.getChunkCount(); i++)
+        {
+            final int chunk = i;
+            tasks.add(new FileTask(new File(file.getParentFile(), detailsPrefix + (chunk + 1) + ".js"))
+            {
+                @Override
+                protected void render(Writer writer) throws Exception
+                {
+                    renderer.renderDetails(chunk, writer);
+                }
+            });
         }
-        return sortedResults;
+        return tasks;
+    }
+
+
+    /**
+     * @param suiteIndex The (one-based) position of the test's suite in the report.
+     * @param testIndex The (one-based) position of the test within its suite.
+     * @return The name of the results file for the test at the specified position
+     * in the report.
+     */
+    static String getResultsFileName(int suiteIndex, int testIndex)
+    {
+        return String.format("suite%d_test%d_%s", suiteIndex, testIndex, RESULTS_FILE);
     }
 
 
@@ -230,9 +660,10 @@ public class HTMLReporter extends AbstractReporter
      * Generate a groups list for each suite.
      * @param outputDirectory The target directory for the generated file(s).
      */
-    private void createGroups(List<ISuite> suites,
-                              File outputDirectory) throws Exception
+    List<FileTask> createGroups(List<ISuite> suites,
+                                File outputDirectory)
     {
+        List<FileTask> tasks = new ArrayList<FileTask>();
         int index = 1;
         for (ISuite suite : suites)
         {
@@ -243,29 +674,246 @@ public class HTMLReporter extends AbstractReporter
                 context.put(SUITE_KEY, suite);
                 context.put(GROUPS_KEY, groups);
                 String fileName = String.format("suite%d_%s", index, GROUPS_FILE);
-                generateFile(new File(outputDirectory, fileName),
-                             GROUPS_FILE + TEMPLATE_EXTENSION,
-                             context);                
+                tasks.add(new TemplateFileTask(new File(outputDirectory, fileName),
+                                               GROUPS_FILE + TEMPLATE_EXTENSION,
+                                               context));
             }
             ++index;
         }
+        return tasks;
     }
 
 
     /**
-     * Generate a groups list for each suite.
+     * Generate a timeline of the method invocations on each thread, for each suite
+     * that has any invocations.
      * @param outputDirectory The target directory for the generated file(s).
      */
-    private void createLog(File outputDirectory, boolean onlyFailures) throws Exception
+    List<FileTask> createChronologies(List<ISuite> suites,
+                                      File outputDirectory)
     {
-        if (!Reporter.getOutput().isEmpty())
+        List<FileTask> tasks = new ArrayList<FileTask>();
+        int index = 1;
+        for (ISuite suite : suites)
         {
-            VelocityContext context = createContext();
-            context.put(ONLY_FAILURES_KEY, onlyFailures);
-            generateFile(new File(outputDirectory, OUTPUT_FILE),
-                         OUTPUT_FILE + TEMPLATE_EXTENSION,
-                         context);
+            if (!suite.getAllInvokedMethods().isEmpty())
+            {
+                tasks.add(createChronology(suite, index, outputDirectory));
+            }
+            ++index;
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Generate the timeline page for a single suite.  The timeline itself is built
+     * when the page is rendered so that, if several rendering threads have been
+     * configured, the timelines for different suites are built concurrently.
+     * @param index The position of the suite in the report (starting at 1).
+     * @param outputDirectory The target directory for the generated file.
+     */
+    FileTask createChronology(final ISuite suite, int index, File outputDirectory)
+    {
+        final File file = new File(outputDirectory, String.format("suite%d_%s", index, CHRONOLOGY_FILE));
+        return new FileTask(file)
+        {
+            @Override
+            protected void render(Writer writer) throws Exception
+            {
+                VelocityContext context = createContext();
+                context.put(SUITE_KEY, suite);
+                context.put(TIMELINE_KEY, SuiteTimeline.forSuite(suite, UTILS));
+                new TemplateFileTask(file, CHRONOLOGY_FILE + TEMPLATE_EXTENSION, context).render(writer);
+            }
+        };
+    }
+
+
+    /**
+     * Generate a page of duration statistics for each suite that has any tests that
+     * ran.
+     * @param outputDirectory The target directory for the generated file(s).
+     */
+    List<FileTask> createDurations(ReportModel model,
+                                   File outputDirectory)
+    {
+        List<FileTask> tasks = new ArrayList<FileTask>();
+        int index = 1;
+        for (ISuite suite : model.getSuites())
+        {
+            if (hasDurations(model.getStatistics().get(suite)))
+            {
+                tasks.add(createDurations(suite, index, outputDirectory));
+            }
+            ++index;
+        }
+        return tasks;
+    }
+
+
+    /**
+     * @return True if any of the suite's tests ran (i.e. passed or failed).
+     */
+    static boolean hasDurations(SuiteStatistics statistics)
+    {
+        return statistics.getPassed() + statistics.getFailed() > 0;
+    }
+
+
+    /**
+     * Generate the duration statistics page for a single suite.  As with the timeline,
+     * the statistics are calculated when the page is rendered.
+     * @param index The position of the suite in the report (starting at 1).
+     * @param outputDirectory The target directory for the generated file.
+     */
+    FileTask createDurations(final ISuite suite, int index, File outputDirectory)
+    {
+        final File file = new File(outputDirectory, String.format("suite%d_%s", index, DURATIONS_FILE));
+        return new FileTask(file)
+        {
+            @Override
+            protected void render(Writer writer) throws Exception
+            {
+                VelocityContext context = createContext();
+                context.put(SUITE_KEY, suite);
+                context.put(DURATIONS_KEY, DurationStatistics.forSuite(suite, META.getSlowestMethodCount()));
+                new TemplateFileTask(file, DURATIONS_FILE + TEMPLATE_EXTENSION, context).render(writer);
+            }
+        };
+    }
+
+
+    /**
+     * Generate a critical path page for each suite that has any dependencies between
+     * its test methods.
+     * @param outputDirectory The target directory for the generated file(s).
+     */
+    List<FileTask> createCriticalPaths(List<ISuite> suites,
+                                       File outputDirectory)
+    {
+        List<FileTask> tasks = new ArrayList<FileTask>();
+        int index = 1;
+        for (ISuite suite : suites)
+        {
+            if (UTILS.hasDependencies(suite))
+            {
+                tasks.add(createCriticalPath(suite, index, outputDirectory));
+            }
+            ++index;
         }
+        return tasks;
+    }
+
+
+    /**
+     * Generate the critical path page for a single suite.  The dependency graphs are
+     * built when the page is rendered.
+     * @param index The position of the suite in the report (starting at 1).
+     * @param outputDirectory The target directory for the generated file.
+     */
+    FileTask createCriticalPath(final ISuite suite, int index, File outputDirectory)
+    {
+        final File file = new File(outputDirectory, String.format("suite%d_%s", index, CRITICAL_PATH_FILE));
+        return new FileTask(file)
+        {
+            @Override
+            protected void render(Writer writer) throws Exception
+            {
+                VelocityContext context = createContext();
+                context.put(SUITE_KEY, suite);
+                context.put(CRITICAL_PATHS_KEY, CriticalPath.forSuite(suite));
+                new TemplateFileTask(file, CRITICAL_PATH_FILE + TEMPLATE_EXTENSION, context).render(writer);
+            }
+        };
+    }
+
+
+    /**
+     * Generate a configuration overhead page for each suite that has any configuration
+     * methods.
+     * @param outputDirectory The target directory for the generated file(s).
+     */
+    List<FileTask> createConfigurations(List<ISuite> suites,
+                                        File outputDirectory)
+    {
+        List<FileTask> tasks = new ArrayList<FileTask>();
+        int index = 1;
+        for (ISuite suite : suites)
+        {
+            if (UTILS.hasConfigurations(suite))
+            {
+                tasks.add(createConfiguration(suite, index, outputDirectory));
+            }
+            ++index;
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Generate the configuration overhead page for a single suite.  The statistics are
+     * calculated when the page is rendered.
+     * @param index The position of the suite in the report (starting at 1).
+     * @param outputDirectory The target directory for the generated file.
+     */
+    FileTask createConfiguration(final ISuite suite, int index, File outputDirectory)
+    {
+        final File file = new File(outputDirectory, String.format("suite%d_%s", index, CONFIGURATION_FILE));
+        return new FileTask(file)
+        {
+            @Override
+            protected void render(Writer writer) throws Exception
+            {
+                VelocityContext context = createContext();
+                context.put(SUITE_KEY, suite);
+                context.put(CONFIGURATION_KEY, ConfigurationStatistics.forSuite(suite));
+                new TemplateFileTask(file, CONFIGURATION_FILE + TEMPLATE_EXTENSION, context).render(writer);
+            }
+        };
+    }
+
+
+    /**
+     * Generate the log output pages.  The output is split into fixed-size pages
+     * (output-1.html, output-2.html, etc.) plus an index page (output.html) so that
+     * a large log never has to be rendered, or loaded by a browser, all at once.
+     * @param outputDirectory The target directory for the generated file(s).
+     */
+    List<FileTask> createLog(File outputDirectory, boolean onlyFailures)
+    {
+        List<String> output = UTILS.getAllOutput();
+        if (output.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        int pageSize = META.getLogPageSize();
+        List<LogPage> pages = new ArrayList<LogPage>();
+        for (int start = 0; start < output.size(); start += pageSize)
+        {
+            int end = Math.min(start + pageSize, output.size());
+            pages.add(new LogPage(pages.size() + 1, start, output.subList(start, end)));
+        }
+
+        List<FileTask> tasks = new ArrayList<FileTask>(pages.size() + 1);
+        VelocityContext context = createContext();
+        context.put(ONLY_FAILURES_KEY, onlyFailures);
+        context.put(PAGES_KEY, pages);
+        tasks.add(new TemplateFileTask(new File(outputDirectory, OUTPUT_FILE),
+                                       OUTPUT_FILE + TEMPLATE_EXTENSION,
+                                       context));
+        for (LogPage page : pages)
+        {
+            VelocityContext pageContext = createContext();
+            pageContext.put(ONLY_FAILURES_KEY, onlyFailures);
+            pageContext.put(PAGE_KEY, page);
+            pageContext.put(PAGE_COUNT_KEY, pages.size());
+            tasks.add(new TemplateFileTask(new File(outputDirectory, "output-" + page.getNumber() + ".html"),
+                                           OUTPUT_PAGE_FILE + TEMPLATE_EXTENSION,
+                                           pageContext));
+        }
+        return tasks;
     }
 
 
@@ -273,7 +921,7 @@ public class HTMLReporter extends AbstractReporter
      * Sorts groups alphabetically and also sorts methods within groups alphabetically
      * (class name first, then method name).  Also eliminates duplicate entries.
      */
-    private SortedMap<String, SortedSet<ITestNGMethod>> sortGroups(Map<String, Collection<ITestNGMethod>> groups)
+    SortedMap<String, SortedSet<ITestNGMethod>> sortGroups(Map<String, Collection<ITestNGMethod>> groups)
     {
         SortedMap<String, SortedSet<ITestNGMethod>> sortedGroups = new TreeMap<String, SortedSet<ITestNGMethod>>();
         for (Map.Entry<String, Collection<ITestNGMethod>> entry : groups.entrySet())
@@ -292,10 +940,14 @@ public class HTMLReporter extends AbstractReporter
      * @param outputDirectory Where to put the resources.
      * @throws IOException If the resources can't be read or written.
      */
-    private void copyResources(File outputDirectory) throws IOException
+    void copyResources(File outputDirectory) throws IOException
     {
         copyClasspathResource(outputDirectory, "reportng.css", "reportng.css");
         copyClasspathResource(outputDirectory, "reportng.js", "reportng.js");
+        if (META.shouldUseVirtualResults())
+        {
+            copyClasspathResource(outputDirectory, "reportng-virtual.js", "reportng-virtual.js");
+        }
         // If there is a custom stylesheet, copy that.
         File customStylesheet = META.getStylesheetPath();
 
@@ -317,4 +969,60 @@ public class HTMLReporter extends AbstractReporter
             }
         }
     }
+
+
+    /**
+     * A single page of log output.
+     */
+    public static final class LogPage
+    {
+        private final int number;
+        private final int offset;
+        private final List<String> lines;
+
+
+        private LogPage(int number, int offset, List<String> lines)
+        {
+            this.number = number;
+            this.offset = offset;
+            this.lines = lines;
+        }
+
+
+        /**
+         * @return The (one-based) page number.
+         */
+        public int getNumber()
+        {
+            return number;
+        }
+
+
+        /**
+         * @return The (one-based) line number of the first line on this page.
+         */
+        public int getFirstLine()
+        {
+            return offset + 1;
+        }
+
+
+        /**
+         * @return The (one-based) line number of the last line on this page.
+         */
+        public int getLastLine()
+        {
+            return offset + lines.size();
+        }
+
+
+        /**
+         * @return The log lines on this page.  This is a view of the complete log
+         * rather than a copy.
+         */
+        public List<String> getLines()
+        {
+            return lines;
+        }
+    }
 }
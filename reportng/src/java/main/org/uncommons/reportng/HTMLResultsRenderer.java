@@ -0,0 +1,323 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import org.testng.IClass;
+import org.testng.ISuiteResult;
+import org.testng.ITestResult;
+
+/**
+ * Renders the HTML results page for a single test directly from Java code.  This
+ * produces the same mark-up as the {@literal results.html.vm} and
+ * {@literal class-results.html.vm} templates but avoids the cost of Velocity's
+ * reflective evaluation of template references for every row.  The templates
+ * remain the default, and the only option if customised templates are required.
+ * @author Daniel Dyer
+ */
+final class HTMLResultsRenderer
+{
+    private final ReportMetadata meta;
+    private final ReportNGUtils utils;
+    private final ResourceBundle messages;
+    private final RunHistory history;
+
+    /**
+     * Used to assign unique identifiers to the stack trace divs within a page
+     * (equivalent to the $id variable in the templates).
+     */
+    private int id = 0;
+
+    /**
+     * The distinct stack traces that have been rendered so far in the current page.
+     */
+    private StackTraceTable traces;
+
+
+    /**
+     * @param meta Report metadata.
+     * @param utils Helper methods for formatting report content.
+     * @param messages Localised report text.
+     * @param history The history of previous runs, or null if no history is kept.
+     */
+    HTMLResultsRenderer(ReportMetadata meta,
+                        ReportNGUtils utils,
+                        ResourceBundle messages,
+                        RunHistory history)
+    {
+        this.meta = meta;
+        this.utils = utils;
+        this.messages = messages;
+        this.history = history;
+    }
+
+
+    /**
+     * Write the results page for a single test.  The result maps must be grouped by
+     * class and sorted in the order in which they should appear in the report.
+     * @param shard If the page contains only the results for one class of a test whose
+     * results are split across several pages, the details of that page.  Otherwise null.
+     */
+    public void render(ISuiteResult result,
+                       TestStatistics testStatistics,
+                       Map<IClass, List<ITestResult>> failedConfigurations,
+                       Map<IClass, List<ITestResult>> skippedConfigurations,
+                       Map<IClass, List<ITestResult>> failedTests,
+                       Map<IClass, List<ITestResult>> skippedTests,
+                       Map<IClass, List<ITestResult>> passedTests,
+                       ResultsShard shard,
+                       Writer writer) throws IOException
+    {
+        String testName = result.getTestContext().getName();
+        String language = messages.getLocale().getLanguage();
+        writer.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
+        writer.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\"\n");
+        writer.write("        \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+        writer.write("<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"" + language + "\" lang=\"" + language + "\">\n");
+        writer.write("<head>\n");
+        writer.write("  <title>" + meta.getReportTitle() + " - " + testName + "</title>\n");
+        writer.write("  <meta http-equiv=\"Content-Type\" content=\"text/html;charset=utf-8\" />\n");
+        writer.write("  <meta name=\"description\" content=\"TestNG unit test results.\" />\n");
+        writer.write("  <link href=\"reportng.css\" rel=\"stylesheet\" type=\"text/css\" />\n");
+        if (meta.getStylesheetPath() != null)
+        {
+            writer.write("  <link href=\"custom.css\" rel=\"stylesheet\" type=\"text/css\" />\n");
+        }
+        writer.write("  <script type=\"text/javascript\" src=\"reportng.js\"></script>\n");
+        writer.write("</head>\n");
+        writer.write("<body>\n");
+        if (shard != null)
+        {
+            writer.write("<h1><a href=\"" + shard.getSummaryFileName() + "\">" + testName + "</a></h1>\n");
+            writer.write("<h2>" + shard.getName() + "</h2>\n");
+        }
+        else
+        {
+            writer.write("<h1>" + testName + "</h1>\n");
+        }
+        writer.write("<p>\n");
+        writer.write("  " + messages.getString("testDuration") + ": "
+                     + utils.formatDuration(testStatistics.getDuration()) + "s\n");
+        writer.write("</p>\n");
+
+        id = 0;
+        traces = new StackTraceTable(meta.shouldDeduplicateStackTraces());
+        if (!failedConfigurations.isEmpty())
+        {
+            writer.write("<table class=\"resultsTable configTable\">\n");
+            writer.write("  <tr><th colspan=\"3\" class=\"header failedConfig\">"
+                         + messages.getString("failedConfiguration") + "</th></tr>\n");
+            for (Map.Entry<IClass, List<ITestResult>> entry : failedConfigurations.entrySet())
+            {
+                writer.write("  <tr class=\"group\">\n");
+                writer.write("    <td colspan=\"3\">" + entry.getKey().getName() + "</td>\n");
+                writer.write("  </tr>\n");
+                renderClassResults(entry.getValue(), writer);
+            }
+
+            if (!skippedConfigurations.isEmpty())
+            {
+                writer.write("  <tr><td colspan=\"3\">&nbsp;</td></tr>\n");
+                writer.write("  <tr><td colspan=\"3\" class=\"header skippedConfig\">"
+                             + messages.getString("skippedConfiguration") + "</td></tr>\n");
+                for (Map.Entry<IClass, List<ITestResult>> entry : skippedConfigurations.entrySet())
+                {
+                    renderGroupRow(entry.getKey(), writer);
+                    renderClassResults(entry.getValue(), writer);
+                }
+            }
+            writer.write("</table>\n");
+        }
+
+        renderResultsTable(failedTests, "<table class=\"resultsTable\">", "failed", "failedTests", writer);
+        renderResultsTable(skippedTests, "<table class=\"resultsTable\" width=\"100%\">", "skipped", "skippedTests", writer);
+        renderResultsTable(passedTests, "<table class=\"resultsTable\">", "passed", "passedTests", writer);
+
+        writer.write("</body>\n");
+        writer.write("</html>\n");
+    }
+
+
+    private void renderResultsTable(Map<IClass, List<ITestResult>> results,
+                                    String tableTag,
+                                    String headerClass,
+                                    String headerKey,
+                                    Writer writer) throws IOException
+    {
+        if (!results.isEmpty())
+        {
+            writer.write(tableTag + "\n");
+            writer.write("  <tr><th colspan=\"3\" class=\"header " + headerClass + "\">"
+                         + messages.getString(headerKey) + "</th></tr>\n");
+            for (Map.Entry<IClass, List<ITestResult>> entry : results.entrySet())
+            {
+                renderGroupRow(entry.getKey(), writer);
+                renderClassResults(entry.getValue(), writer);
+            }
+            writer.write("</table>\n");
+        }
+    }
+
+
+    private void renderGroupRow(IClass testClass, Writer writer) throws IOException
+    {
+        writer.write("  <tr>\n");
+        writer.write("    <td colspan=\"3\" class=\"group\">" + testClass.getName() + "</td>\n");
+        writer.write("  </tr>\n");
+    }
+
+
+    /**
+     * Equivalent to the {@literal class-results.html.vm} template.
+     */
+    private void renderClassResults(List<ITestResult> classResults, Writer writer) throws IOException
+    {
+        for (ITestResult testResult : classResults)
+        {
+            writer.write("<tr>\n");
+            writer.write("  <td class=\"method\">\n");
+            String testInstanceName = testResult.getTestName() != null ? " (" + testResult.getTestName() + ")" : "";
+            String description = testResult.getMethod().getDescription();
+            if (description != null && description.length() > 0)
+            {
+                writer.write("    <span class=\"description\" title=\"" + description + "\">"
+                             + testResult.getName() + testInstanceName + "</span>\n");
+            }
+            else
+            {
+                writer.write("    " + testResult.getName() + testInstanceName + "\n");
+            }
+            writer.write("  </td>\n");
+            writer.write("  <td class=\"duration\">\n");
+            writer.write("    " + utils.formatDuration(testResult.getStartMillis(), testResult.getEndMillis()) + "s\n");
+            RunHistory.Trend trend = history == null ? null : history.getTrend(testResult);
+            if (trend != null)
+            {
+                writer.write("    <br /><span class=\"sparkline\" title=\"" + messages.getString("medianDuration") + ": "
+                             + utils.formatDuration(trend.getMedian()) + "s\">" + trend.getSparkline() + "</span>\n");
+                writer.write("    <span class=\"" + trend.getStyleClass() + "\">"
+                             + utils.formatDelta(trend.getDelta()) + "s</span>\n");
+            }
+            writer.write("  </td>\n");
+            writer.write("  <td class=\"result\">\n");
+
+            // Display the dependencies for skipped test methods.
+            if (testResult.getStatus() == ITestResult.SKIP)
+            {
+                if (utils.hasDependentGroups(testResult))
+                {
+                    writer.write("    <i>" + messages.getString("dependsOnGroups") + ": </i>\n");
+                    writer.write("    <span class=\"dependency\">" + utils.getDependentGroups(testResult) + "</span>\n");
+                    writer.write("    <br />\n");
+                }
+                if (utils.hasDependentMethods(testResult))
+                {
+                    writer.write("    <i>" + messages.getString("dependsOnMethods") + ": </i>\n");
+                    writer.write("    <span class=\"dependency\">" + utils.getDependentMethods(testResult) + "</span>\n");
+                }
+                if (utils.hasSkipException(testResult))
+                {
+                    writer.write("    <i>" + messages.getString("skipped.reason") + ": </i>\n");
+                    writer.write("    <span class=\"dependency\">" + utils.getSkipExceptionMessage(testResult) + "</span>\n");
+                }
+            }
+
+            if (utils.hasArguments(testResult))
+            {
+                writer.write("    <i>" + messages.getString("methodArguments") + ": </i><span class=\"arguments\">"
+                             + utils.getArguments(testResult) + "</span><br />\n");
+            }
+
+            // Show logger output for the test.
+            List<String> output = utils.getTestOutput(testResult);
+            if (output.size() > 0)
+            {
+                writer.write("    <div class=\"testOutput\">\n");
+                for (String line : output)
+                {
+                    if (meta.shouldEscapeOutput())
+                    {
+                        writer.write("      ");
+                        utils.escapeHTMLString(line, writer);
+                        writer.write("<br />\n");
+                    }
+                    else
+                    {
+                        writer.write("      " + line + "\n");
+                    }
+                }
+                writer.write("    </div>\n");
+            }
+
+            Throwable throwable = testResult.getThrowable();
+            if (throwable != null
+                && (testResult.getStatus() == ITestResult.FAILURE || meta.shouldShowExpectedExceptions()))
+            {
+                StackTraceTable.Reference trace = traces.register(throwable, id, testResult.getName() + testInstanceName);
+                if (trace.isFirstOccurrence())
+                {
+                    writer.write("    <a href=\"javascript:toggleElement('exception-" + id + "', 'block')\" title=\""
+                                 + messages.getString("clickToExpandCollapse") + "\"><b>");
+                    utils.escapeHTMLString(throwable.toString(), writer);
+                    writer.write("</b></a><br />\n");
+                    writer.write("    <div class=\"stackTrace\" id=\"exception-" + id + "\">\n");
+                    renderStackTrace(throwable, "      ", writer);
+                    for (Throwable cause : utils.getCauses(throwable))
+                    {
+                        ++id;
+                        writer.write("      <b>" + messages.getString("causedBy")
+                                     + ": </b> <a href=\"javascript:toggleElement('exception-" + id
+                                     + "', 'block')\" title=\"Click to expand/collapse\">");
+                        utils.escapeHTMLString(cause.toString(), writer);
+                        writer.write("</a><br />\n");
+                        writer.write("      <div class=\"stackTrace\" id=\"exception-" + id + "\">\n");
+                        renderStackTrace(cause, "        ", writer);
+                        writer.write("      </div>\n");
+                    }
+                    writer.write("    </div>\n");
+                }
+                else
+                {
+                    writer.write("    <a href=\"#exception-" + trace.getId() + "\" onclick=\"showElement('exception-"
+                                 + trace.getId() + "', 'block')\" title=\"" + messages.getString("clickToExpandCollapse")
+                                 + "\"><b>");
+                    utils.escapeHTMLString(throwable.toString(), writer);
+                    writer.write("</b></a><br />\n");
+                    writer.write("    <i>" + messages.getString("sameStackTraceAs") + ": </i><span class=\"dependency\">"
+                                 + trace.getName() + "</span>\n");
+                }
+            }
+            ++id;
+            writer.write("  </td>\n");
+            writer.write("</tr>\n");
+        }
+    }
+
+
+    private void renderStackTrace(Throwable throwable, String indent, Writer writer) throws IOException
+    {
+        for (StackTraceElement element : throwable.getStackTrace())
+        {
+            writer.write(indent);
+            utils.escapeHTMLString(element.toString(), writer);
+            writer.write("<br />\n");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Pre-computed start and end times for each method invocation in a suite.  The index
+ * is built in a single pass over the invoked methods (plus one pass over the methods
+ * of each test) so that each subsequent look-up is a constant-time operation.  An
+ * index is not cached anywhere, so it should be built once for a suite (see
+ * {@link ReportNGUtils#indexInvokedMethods(ISuite, List)}) and then used for all of
+ * that suite's look-ups.
+ * @author Daniel Dyer
+ */
+public final class InvokedMethodIndex
+{
+    private final long startTime;
+    private final Map<IInvokedMethod, Long> endTimes = new IdentityHashMap<IInvokedMethod, Long>();
+    private final Map<ITestNGMethod, Long> testEndTimes = new IdentityHashMap<ITestNGMethod, Long>();
+
+
+    /**
+     * @param suite The suite that the methods belong to.
+     * @param methods The invoked methods, in the order that they were invoked.
+     */
+    InvokedMethodIndex(ISuite suite, List<IInvokedMethod> methods)
+    {
+        // If there is no subsequent invocation to mark the end of a method, we fall back
+        // to the end time of the test that the method belongs to.
+        for (ISuiteResult result : suite.getResults().values())
+        {
+            ITestContext testContext = result.getTestContext();
+            Long endTime = testContext.getEndDate().getTime();
+            for (ITestNGMethod method : testContext.getAllTestMethods())
+            {
+                addTestEndTime(method, endTime);
+            }
+            // Configuration methods are not included in the test methods.
+            addTestEndTimes(testContext.getPassedConfigurations().getAllResults(), endTime);
+            addTestEndTimes(testContext.getFailedConfigurations().getAllResults(), endTime);
+        }
+
+        // Walk the invocations backwards so that, for each method, we already know when the
+        // next invocation with the same ID (i.e. on the same thread) started.
+        long startTime = System.currentTimeMillis();
+        Map<String, Long> nextInvocationTimes = new HashMap<String, Long>();
+        ListIterator<IInvokedMethod> iterator = methods.listIterator(methods.size());
+        while (iterator.hasPrevious())
+        {
+            IInvokedMethod method = iterator.previous();
+            String id = method.getTestMethod().getId();
+            Long endTime = id == null ? null : nextInvocationTimes.get(id);
+            if (endTime == null)
+            {
+                endTime = testEndTimes.get(method.getTestMethod());
+            }
+            if (endTime != null)
+            {
+                endTimes.put(method, endTime);
+            }
+            if (id != null)
+            {
+                nextInvocationTimes.put(id, method.getDate());
+            }
+            startTime = Math.min(startTime, method.getDate());
+        }
+        this.startTime = startTime;
+    }
+
+
+    private void addTestEndTimes(Set<ITestResult> results, Long endTime)
+    {
+        for (ITestResult result : results)
+        {
+            addTestEndTime(result.getMethod(), endTime);
+        }
+    }
+
+
+    private void addTestEndTime(ITestNGMethod method, Long endTime)
+    {
+        // If a method belongs to several tests, the first one wins.
+        if (!testEndTimes.containsKey(method))
+        {
+            testEndTimes.put(method, endTime);
+        }
+    }
+
+
+    /**
+     * @return The earliest start time of the indexed methods.
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+
+    /**
+     * @param method An invoked method.
+     * @return The start time of the specified method invocation.
+     */
+    public long getStartTime(IInvokedMethod method)
+    {
+        return method.getDate();
+    }
+
+
+    /**
+     * Returns the time at which a method invocation finished.  This is taken to be the
+     * start time of the next invocation on the same thread or, if there is no such
+     * invocation, the end time of the test that the method belongs to.
+     * @param method An invoked method.
+     * @return The end time (as a number of milliseconds since 00:00 1st January 1970 UTC).
+     */
+    public long getEndTime(IInvokedMethod method)
+    {
+        Long endTime = endTimes.get(method);
+        if (endTime == null)
+        {
+            endTime = testEndTimes.get(method.getTestMethod());
+            if (endTime == null)
+            {
+                throw new IllegalStateException("Could not find matching end time.");
+            }
+        }
+        return endTime;
+    }
+}
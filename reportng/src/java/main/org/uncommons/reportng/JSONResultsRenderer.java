@@ -0,0 +1,294 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import org.testng.IClass;
+import org.testng.ITestResult;
+
+/**
+ * Writes the data for a virtual results page (see {@link ReportMetadata#shouldUseVirtualResults()}).
+ * The data is written as JSONP (JSON wrapped in a function call) so that the page can
+ * load it with a script element, which works even when the report is viewed from the
+ * file system.  The summary of every result is written to a single file, which is all
+ * that is needed to display the list of results.  The details of each result (output,
+ * arguments, stack traces, etc.) are split into fixed-size chunks, each in its own file,
+ * that the page only loads when they are needed.
+ * @author Daniel Dyer
+ */
+final class JSONResultsRenderer
+{
+    static final int CHUNK_SIZE = 200;
+
+    private final ReportMetadata meta;
+    private final ReportNGUtils utils;
+    private final ResourceBundle messages;
+    private final List<Section> sections = new ArrayList<Section>(5);
+    /** All of the results in the order in which they appear on the page. */
+    private final List<ITestResult> results = new ArrayList<ITestResult>();
+
+
+    /**
+     * The result maps must be grouped by class and sorted in the order in which they
+     * should appear in the report.
+     */
+    JSONResultsRenderer(ReportMetadata meta,
+                        ReportNGUtils utils,
+                        ResourceBundle messages,
+                        Map<IClass, List<ITestResult>> failedConfigurations,
+                        Map<IClass, List<ITestResult>> skippedConfigurations,
+                        Map<IClass, List<ITestResult>> failedTests,
+                        Map<IClass, List<ITestResult>> skippedTests,
+                        Map<IClass, List<ITestResult>> passedTests)
+    {
+        this.meta = meta;
+        this.utils = utils;
+        this.messages = messages;
+        addSection("failedConfiguration", "failedConfig", failedConfigurations);
+        addSection("skippedConfiguration", "skippedConfig", skippedConfigurations);
+        addSection("failedTests", "failed", failedTests);
+        addSection("skippedTests", "skipped", skippedTests);
+        addSection("passedTests", "passed", passedTests);
+    }
+
+
+    private void addSection(String titleKey, String style, Map<IClass, List<ITestResult>> classResults)
+    {
+        if (!classResults.isEmpty())
+        {
+            sections.add(new Section(titleKey, style, classResults));
+            for (List<ITestResult> testResults : classResults.values())
+            {
+                results.addAll(testResults);
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of files required for the details of the results.
+     */
+    public int getChunkCount()
+    {
+        return (results.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+
+    /**
+     * Write the summary of every result.
+     * @param detailsPrefix The path of the detail files, relative to the page, minus the
+     * chunk number and file extension.
+     */
+    public void renderResults(String detailsPrefix, Writer writer) throws IOException
+    {
+        writer.write("reportng.virtual.results(");
+        JSONWriter json = new JSONWriter(writer);
+        json.beginObject();
+        json.name("chunkSize").value(CHUNK_SIZE);
+        json.name("details").value(detailsPrefix);
+        json.name("escapeOutput").value(meta.shouldEscapeOutput());
+        json.name("messages").beginObject();
+        writeMessage(json, "causedBy", "causedBy");
+        writeMessage(json, "dependsOnGroups", "dependsOnGroups");
+        writeMessage(json, "dependsOnMethods", "dependsOnMethods");
+        writeMessage(json, "methodArguments", "methodArguments");
+        writeMessage(json, "sameStackTraceAs", "sameStackTraceAs");
+        writeMessage(json, "skipReason", "skipped.reason");
+        json.endObject();
+        json.name("sections").beginArray();
+        for (Section section : sections)
+        {
+            json.beginObject();
+            json.name("title").value(messages.getString(section.titleKey));
+            json.name("style").value(section.style);
+            json.name("classes").beginArray();
+            for (Map.Entry<IClass, List<ITestResult>> entry : section.classResults.entrySet())
+            {
+                json.beginObject();
+                json.name("name").value(entry.getKey().getName());
+                json.name("results").beginArray();
+                for (ITestResult result : entry.getValue())
+                {
+                    // Each result is an array rather than an object to keep the file compact.
+                    String description = result.getMethod().getDescription();
+                    json.beginArray();
+                    json.value(result.getTestName() == null
+                               ? result.getName()
+                               : result.getName() + " (" + result.getTestName() + ")");
+                    json.value(utils.formatDuration(result.getStartMillis(), result.getEndMillis()));
+                    json.value(description == null || description.length() == 0 ? null : description);
+                    json.value(hasDetails(result));
+                    json.endArray();
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        writer.write(");\n");
+    }
+
+
+    private void writeMessage(JSONWriter json, String name, String key) throws IOException
+    {
+        json.name(name).value(messages.getString(key));
+    }
+
+
+    /**
+     * Write the details of one chunk of results.  Results that have no details are
+     * represented by nulls.
+     * @param chunk The (zero-based) index of the chunk.
+     */
+    public void renderDetails(int chunk, Writer writer) throws IOException
+    {
+        writer.write("reportng.virtual.details(" + chunk + ", ");
+        JSONWriter json = new JSONWriter(writer);
+        json.beginArray();
+        StackTraceTable traces = new StackTraceTable(meta.shouldDeduplicateStackTraces());
+        int end = Math.min(results.size(), (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++)
+        {
+            ITestResult result = results.get(i);
+            if (hasDetails(result))
+            {
+                renderDetails(result, i, traces, json);
+            }
+            else
+            {
+                json.value((String) null);
+            }
+        }
+        json.endArray();
+        writer.write(");\n");
+    }
+
+
+    private void renderDetails(ITestResult result,
+                               int id,
+                               StackTraceTable traces,
+                               JSONWriter json) throws IOException
+    {
+        json.beginObject();
+        if (result.getStatus() == ITestResult.SKIP)
+        {
+            if (utils.hasDependentGroups(result))
+            {
+                json.name("dependsOnGroups").value(utils.getDependentGroups(result));
+            }
+            if (utils.hasDependentMethods(result))
+            {
+                json.name("dependsOnMethods").value(utils.getDependentMethods(result));
+            }
+            if (utils.hasSkipException(result))
+            {
+                json.name("skipReason").value(utils.getSkipExceptionMessage(result));
+            }
+        }
+        if (utils.hasArguments(result))
+        {
+            json.name("arguments").value(utils.getArguments(result));
+        }
+        List<String> output = utils.getTestOutput(result);
+        if (!output.isEmpty())
+        {
+            json.name("output").beginArray();
+            for (String line : output)
+            {
+                json.value(line);
+            }
+            json.endArray();
+        }
+        if (showThrowable(result))
+        {
+            Throwable throwable = result.getThrowable();
+            StackTraceTable.Reference trace = traces.register(throwable, id, result.getName());
+            if (trace.isFirstOccurrence())
+            {
+                json.name("exception").beginArray();
+                renderThrowable(throwable, json);
+                for (Throwable cause : utils.getCauses(throwable))
+                {
+                    renderThrowable(cause, json);
+                }
+                json.endArray();
+            }
+            else
+            {
+                json.name("summary").value(throwable.toString());
+                json.name("sameStackTraceAs").value(trace.getName());
+            }
+        }
+        json.endObject();
+    }
+
+
+    private void renderThrowable(Throwable throwable, JSONWriter json) throws IOException
+    {
+        json.beginObject();
+        json.name("summary").value(throwable.toString());
+        json.name("frames").beginArray();
+        for (StackTraceElement element : throwable.getStackTrace())
+        {
+            json.value(element.toString());
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+
+    private boolean hasDetails(ITestResult result)
+    {
+        return showThrowable(result)
+               || utils.hasArguments(result)
+               || !utils.getTestOutput(result).isEmpty()
+               || (result.getStatus() == ITestResult.SKIP
+                   && (utils.hasDependentGroups(result)
+                       || utils.hasDependentMethods(result)
+                       || utils.hasSkipException(result)));
+    }
+
+
+    private boolean showThrowable(ITestResult result)
+    {
+        return result.getThrowable() != null
+               && (result.getStatus() == ITestResult.FAILURE || meta.shouldShowExpectedExceptions());
+    }
+
+
+    private static final class Section
+    {
+        private final String titleKey;
+        private final String style;
+        private final Map<IClass, List<ITestResult>> classResults;
+
+
+        Section(String titleKey, String style, Map<IClass, List<ITestResult>> classResults)
+        {
+            this.titleKey = titleKey;
+            this.style = style;
+            this.classResults = classResults;
+        }
+    }
+}
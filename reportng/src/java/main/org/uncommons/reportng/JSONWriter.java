@@ -0,0 +1,182 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming writer for JSON data.  Values are written straight to the
+ * underlying writer as they are added, so arbitrarily large documents can be written
+ * without building them in memory first.  Callers are responsible for nesting
+ * objects and arrays correctly.
+ * @author Daniel Dyer
+ */
+final class JSONWriter
+{
+    private final Writer writer;
+
+    /**
+     * False if a value has already been written to the current object or array (in
+     * which case the next value must be preceded by a comma).
+     */
+    private boolean first = true;
+
+
+    /**
+     * @param writer The writer that the JSON text is written to.
+     */
+    JSONWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+
+    public JSONWriter beginObject() throws IOException
+    {
+        separate();
+        writer.write('{');
+        first = true;
+        return this;
+    }
+
+
+    public JSONWriter endObject() throws IOException
+    {
+        writer.write('}');
+        first = false;
+        return this;
+    }
+
+
+    public JSONWriter beginArray() throws IOException
+    {
+        separate();
+        writer.write('[');
+        first = true;
+        return this;
+    }
+
+
+    public JSONWriter endArray() throws IOException
+    {
+        writer.write(']');
+        first = false;
+        return this;
+    }
+
+
+    /**
+     * Writes the name of an object member.  Must be followed by the member's value.
+     */
+    public JSONWriter name(String name) throws IOException
+    {
+        separate();
+        writeString(name);
+        writer.write(':');
+        first = true;
+        return this;
+    }
+
+
+    public JSONWriter value(String value) throws IOException
+    {
+        separate();
+        if (value == null)
+        {
+            writer.write("null");
+        }
+        else
+        {
+            writeString(value);
+        }
+        return this;
+    }
+
+
+    public JSONWriter value(long value) throws IOException
+    {
+        separate();
+        writer.write(String.valueOf(value));
+        return this;
+    }
+
+
+    public JSONWriter value(double value) throws IOException
+    {
+        separate();
+        writer.write(String.valueOf(value));
+        return this;
+    }
+
+
+    public JSONWriter value(boolean value) throws IOException
+    {
+        separate();
+        writer.write(value ? "true" : "false");
+        return this;
+    }
+
+
+    private void separate() throws IOException
+    {
+        if (!first)
+        {
+            writer.write(',');
+        }
+        first = false;
+    }
+
+
+    /**
+     * Writes a quoted string, escaping any characters that cannot appear literally
+     * in a JSON string.  The line and paragraph separators are also escaped because,
+     * although they are valid in JSON, they are not valid in JavaScript string literals.
+     */
+    private void writeString(String value) throws IOException
+    {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            String replacement = null;
+            switch (c)
+            {
+                case '"': replacement = "\\\""; break;
+                case '\\': replacement = "\\\\"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                default:
+                {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029')
+                    {
+                        replacement = String.format("\\u%04x", (int) c);
+                    }
+                }
+            }
+            if (replacement != null)
+            {
+                writer.write(value, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
@@ -16,12 +16,12 @@
 package org.uncommons.reportng;
 
 import java.io.File;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import org.apache.velocity.VelocityContext;
 import org.testng.IClass;
 import org.testng.ISuite;
@@ -65,23 +65,74 @@ public class JUnitXMLReporter extends AbstractReporter
         File outputDirectory = new File(outputDirectoryName, REPORT_DIRECTORY);
         outputDirectory.mkdirs();
 
-        Collection<TestClassResults> flattenedResults = flattenResults(suites);
+        startTimings();
+        long startTime = System.nanoTime();
+        Collection<TestClassResults> flattenedResults = flattenResults(getReportModel(suites));
+        recordPhase("flattenResults", startTime);
+        recordCounts(flattenedResults);
 
+        List<FileTask> tasks = new ArrayList<FileTask>(flattenedResults.size());
         for (TestClassResults results : flattenedResults)
+        {
+            tasks.add(inPhase("createResultsFile", createResultsFile(results, outputDirectory)));
+        }
+        try
+        {
+            generateFiles(tasks);
+            finishTimings(outputDirectory);
+        }
+        catch (Exception ex)
+        {
+            throw new ReportNGException("Failed generating JUnit XML report.", ex);
+        }
+    }
+
+
+    /**
+     * Records the numbers of classes and results for the timings file.
+     */
+    private void recordCounts(Collection<TestClassResults> flattenedResults)
+    {
+        int passed = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (TestClassResults results : flattenedResults)
+        {
+            passed += results.getPassedTests().size();
+            skipped += results.getSkippedTests().size();
+            failed += results.getFailedTests().size();
+        }
+        recordCount("classes", flattenedResults.size());
+        recordCount("passed", passed);
+        recordCount("skipped", skipped);
+        recordCount("failed", failed);
+    }
+
+
+    /**
+     * Create the XML results file for a single test class.
+     */
+    private FileTask createResultsFile(final TestClassResults results, File outputDirectory)
+    {
+        File file = new File(outputDirectory, results.getTestClass().getName() + '_' + RESULTS_FILE);
+        if (META.shouldUseTemplates())
         {
             VelocityContext context = createContext();
             context.put(RESULTS_KEY, results);
-
-            try
-            {
-                generateFile(new File(outputDirectory, results.getTestClass().getName() + '_' + RESULTS_FILE),
-                             RESULTS_FILE + TEMPLATE_EXTENSION,
-                             context);
-            }
-            catch (Exception ex)
+            return new TemplateFileTask(file,
+                                        RESULTS_FILE + TEMPLATE_EXTENSION,
+                                        context);
+        }
+        else
+        {
+            return new FileTask(file)
             {
-                throw new ReportNGException("Failed generating JUnit XML report.", ex);
-            }
+                @Override
+                protected void render(Writer writer) throws Exception
+                {
+                    new XMLResultsRenderer(UTILS, MESSAGES).render(results, writer);
+                }
+            };
         }
     }
 
@@ -89,35 +140,42 @@ public class JUnitXMLReporter extends AbstractReporter
     /**
      * Flatten a list of test suite results into a collection of results grouped by test class.
      * This method basically strips away the TestNG way of organising tests and arranges
-     * the results by test class.
+     * the results by test class.  The results of each test have already been grouped by
+     * class in the report model, which may be shared with other reporters.  They are
+     * used in the order in which TestNG recorded them rather than sorted.
      */
-    private Collection<TestClassResults> flattenResults(List<ISuite> suites)
+    static Collection<TestClassResults> flattenResults(ReportModel model)
     {
         Map<IClass, TestClassResults> flattenedResults = new HashMap<IClass, TestClassResults>();
-        for (ISuite suite : suites)
+        for (ISuite suite : model.getSuites())
         {
             for (ISuiteResult suiteResult : suite.getResults().values())
             {
+                TestResults testResults = model.getTestResults(suiteResult.getTestContext());
                 // Failed and skipped configuration methods are treated as test failures.
-                organiseByClass(suiteResult.getTestContext().getFailedConfigurations().getAllResults(), flattenedResults);
-                organiseByClass(suiteResult.getTestContext().getSkippedConfigurations().getAllResults(), flattenedResults);
+                organiseByClass(testResults.getUnsortedFailedConfigurations(), flattenedResults);
+                organiseByClass(testResults.getUnsortedSkippedConfigurations(), flattenedResults);
                 // Successful configuration methods are not included.
                 
-                organiseByClass(suiteResult.getTestContext().getFailedTests().getAllResults(), flattenedResults);
-                organiseByClass(suiteResult.getTestContext().getSkippedTests().getAllResults(), flattenedResults);
-                organiseByClass(suiteResult.getTestContext().getPassedTests().getAllResults(), flattenedResults);
+                organiseByClass(testResults.getUnsortedFailedTests(), flattenedResults);
+                organiseByClass(testResults.getUnsortedSkippedTests(), flattenedResults);
+                organiseByClass(testResults.getUnsortedPassedTests(), flattenedResults);
             }
         }
         return flattenedResults.values();
     }
 
 
-    private void organiseByClass(Set<ITestResult> testResults,
-                                 Map<IClass, TestClassResults> flattenedResults)
+    private static void organiseByClass(Map<IClass, List<ITestResult>> testResults,
+                                        Map<IClass, TestClassResults> flattenedResults)
     {
-        for (ITestResult testResult : testResults)
+        for (Map.Entry<IClass, List<ITestResult>> entry : testResults.entrySet())
         {
-            getResultsForClass(flattenedResults, testResult).addResult(testResult);
+            TestClassResults resultsForClass = getResultsForClass(flattenedResults, entry.getKey());
+            for (ITestResult testResult : entry.getValue())
+            {
+                resultsForClass.addResult(testResult);
+            }
         }
     }
 
@@ -125,14 +183,14 @@ public class JUnitXMLReporter extends AbstractReporter
     /**
      * Look-up the results data for a particular test class.
      */
-    private TestClassResults getResultsForClass(Map<IClass, TestClassResults> flattenedResults,
-                                                ITestResult testResult)
+    private static TestClassResults getResultsForClass(Map<IClass, TestClassResults> flattenedResults,
+                                                       IClass testClass)
     {
-        TestClassResults resultsForClass = flattenedResults.get(testResult.getTestClass());
+        TestClassResults resultsForClass = flattenedResults.get(testClass);
         if (resultsForClass == null)
         {
-            resultsForClass = new TestClassResults(testResult.getTestClass());
-            flattenedResults.put(testResult.getTestClass(), resultsForClass);
+            resultsForClass = new TestClassResults(testClass);
+            flattenedResults.put(testClass, resultsForClass);
         }
         return resultsForClass;
     }
@@ -145,9 +203,9 @@ public class JUnitXMLReporter extends AbstractReporter
     public static final class TestClassResults
     {
         private final IClass testClass;
-        private final Collection<ITestResult> failedTests = new LinkedList<ITestResult>();
-        private final Collection<ITestResult> skippedTests = new LinkedList<ITestResult>();
-        private final Collection<ITestResult> passedTests = new LinkedList<ITestResult>();
+        private final Collection<ITestResult> failedTests = new ArrayList<ITestResult>();
+        private final Collection<ITestResult> skippedTests = new ArrayList<ITestResult>();
+        private final Collection<ITestResult> passedTests = new ArrayList<ITestResult>();
 
         private long duration = 0;
 
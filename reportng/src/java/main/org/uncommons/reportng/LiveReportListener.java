@@ -0,0 +1,743 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.velocity.VelocityContext;
+import org.testng.IClass;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Serves a live view of the test run over HTTP while the run is in progress, so that
+ * long-running suites can be monitored before TestNG invokes the reporters at the end.
+ * The overview, the results page of each test (including tests that are still running)
+ * and the analysis pages of each suite are rendered on request, using the same
+ * templates and stylesheet as the {@link HTMLReporter}.  A summary of the run is also
+ * available as JSON from {@code summary.json}, and the results of each test from
+ * {@code suiteN_testM_results.json}.  The server only listens on localhost, on the
+ * port set by {@link ReportMetadata#getLivePort()}, and is stopped at the end of the
+ * run.  No report is written, so this listener is normally used alongside one of the
+ * other reporters.  It must be registered as a TestNG listener (not just as a reporter)
+ * in order to receive the test and suite events.
+ * <p>
+ * The listener methods only update counters and concurrent collections, so they never
+ * wait for each other or for the pages being rendered, which is all done by the server's
+ * own threads.
+ * @author Daniel Dyer
+ */
+public class LiveReportListener extends HTMLReporter implements ISuiteListener, ITestListener
+{
+    private static final String RESOURCES_PATH = "org/uncommons/reportng/templates/html/";
+    private static final String INDEX_FILE = "index.html";
+    private static final String OVERVIEW_FILE = "overview.html";
+    private static final String SUMMARY_FILE = "summary.json";
+    private static final String CUSTOM_STYLE_FILE = "custom.css";
+    private static final String REFRESH_KEY = "refreshInterval";
+
+    /**
+     * How often, in seconds, the overview and results pages reload themselves.
+     */
+    private static final int REFRESH_INTERVAL = 10;
+    private static final int SERVER_THREADS = 2;
+
+    private static final Pattern RESULTS_PATTERN = Pattern.compile("suite(\\d+)_test(\\d+)_results\\.(html|json)");
+    private static final Pattern SUITE_PAGE_PATTERN = Pattern.compile("suite(\\d+)_([a-z-]+)\\.html");
+
+    private final List<LiveSuite> suites = new CopyOnWriteArrayList<LiveSuite>();
+    private final ConcurrentMap<ITestContext, LiveTest> tests = new ConcurrentHashMap<ITestContext, LiveTest>();
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+    private boolean started = false;
+
+
+    public void onStart(ISuite suite)
+    {
+        startServer();
+        suites.add(new LiveSuite(suite));
+    }
+
+
+    public void onFinish(ISuite suite)
+    {
+        LiveSuite liveSuite = getSuite(suite);
+        if (liveSuite != null)
+        {
+            liveSuite.finished = true;
+        }
+    }
+
+
+    public void onStart(ITestContext context)
+    {
+        getTest(context);
+    }
+
+
+    public void onFinish(ITestContext context)
+    {
+        getTest(context).finished = true;
+    }
+
+
+    public void onTestStart(ITestResult result)
+    {
+        getTest(result.getTestContext()).running.put(result, Boolean.TRUE);
+    }
+
+
+    public void onTestSuccess(ITestResult result)
+    {
+        finishTest(result).passed.incrementAndGet();
+    }
+
+
+    public void onTestFailure(ITestResult result)
+    {
+        finishTest(result).failed.incrementAndGet();
+    }
+
+
+    public void onTestSkipped(ITestResult result)
+    {
+        finishTest(result).skipped.incrementAndGet();
+    }
+
+
+    /**
+     * These results do not fail the test, so they are counted as passes.
+     */
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result)
+    {
+        finishTest(result).passed.incrementAndGet();
+    }
+
+
+    /**
+     * Stops the server.  The run is over, so there is nothing more to see that is
+     * not in the final report.
+     */
+    @Override
+    public synchronized void generateReport(List<XmlSuite> xmlSuites,
+                                            List<ISuite> suites,
+                                            String outputDirectoryName)
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+            executor = null;
+        }
+    }
+
+
+    /**
+     * Starts the server when the first suite starts.  If the server can't be started
+     * (e.g. because the port is in use) the problem is reported but the tests still run.
+     */
+    private synchronized void startServer()
+    {
+        if (!started)
+        {
+            started = true;
+            try
+            {
+                InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("localhost"),
+                                                                  META.getLivePort());
+                server = HttpServer.create(address, 0);
+                server.createContext("/", new PageHandler());
+                executor = Executors.newFixedThreadPool(SERVER_THREADS, new ThreadFactory()
+                {
+                    public Thread newThread(Runnable task)
+                    {
+                        // Don't keep the JVM alive if the run ends without the reporters being invoked.
+                        Thread thread = new Thread(task, "ReportNG-live");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                server.setExecutor(executor);
+                server.start();
+                Reporter.log("Live report: http://localhost:" + server.getAddress().getPort() + "/", true);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed starting live report server: " + ex.getMessage());
+                server = null;
+            }
+        }
+    }
+
+
+    private LiveSuite getSuite(ISuite suite)
+    {
+        for (LiveSuite liveSuite : suites)
+        {
+            if (liveSuite.suite == suite)
+            {
+                return liveSuite;
+            }
+        }
+        return null;
+    }
+
+
+    private LiveTest getTest(ITestContext context)
+    {
+        LiveTest test = tests.get(context);
+        if (test == null)
+        {
+            LiveTest newTest = new LiveTest(context);
+            test = tests.putIfAbsent(context, newTest);
+            if (test == null)
+            {
+                test = newTest;
+                LiveSuite suite = getSuite(context.getSuite());
+                if (suite != null)
+                {
+                    suite.tests.add(test);
+                }
+            }
+        }
+        return test;
+    }
+
+
+    private LiveTest finishTest(ITestResult result)
+    {
+        LiveTest test = getTest(result.getTestContext());
+        test.running.remove(result);
+        return test;
+    }
+
+
+    /**
+     * Adds the refresh interval to the standard context so that the overview and
+     * results pages reload themselves.
+     */
+    @Override
+    protected VelocityContext createContext()
+    {
+        VelocityContext context = super.createContext();
+        context.put(REFRESH_KEY, REFRESH_INTERVAL);
+        return context;
+    }
+
+
+    /**
+     * Renders the named page or resource.
+     * @return The content, or null if there is no such page.
+     */
+    byte[] getPage(String name) throws Exception
+    {
+        // Pages are rendered straight to the response, so no output directory is needed.
+        File outputDirectory = null;
+        if (name.equals(INDEX_FILE) || name.equals(OVERVIEW_FILE))
+        {
+            List<ISuite> snapshots = getSnapshots();
+            return render(createOverview(snapshots,
+                                         SuiteStatistics.forSuites(snapshots),
+                                         outputDirectory,
+                                         true,
+                                         onlyShowFailures()));
+        }
+        else if (name.equals(SUMMARY_FILE))
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(buffer, "UTF-8");
+            writeSummary(writer);
+            writer.close();
+            return buffer.toByteArray();
+        }
+        else if (name.equals("reportng.css") || name.equals("reportng.js"))
+        {
+            return read(getClass().getClassLoader().getResourceAsStream(RESOURCES_PATH + name));
+        }
+        else if (name.equals(CUSTOM_STYLE_FILE))
+        {
+            File customStylesheet = META.getStylesheetPath();
+            if (customStylesheet == null)
+            {
+                return null;
+            }
+            return customStylesheet.exists()
+                   ? read(new FileInputStream(customStylesheet))
+                   : read(ClassLoader.getSystemClassLoader().getResourceAsStream(customStylesheet.getPath()));
+        }
+        else if (name.startsWith("output"))
+        {
+            for (FileTask task : createLog(outputDirectory, onlyShowFailures()))
+            {
+                if (task.getFile().getName().equals(name))
+                {
+                    return render(task);
+                }
+            }
+            return null;
+        }
+
+        Matcher matcher = RESULTS_PATTERN.matcher(name);
+        if (matcher.matches())
+        {
+            LiveTest test = getTest(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+            if (test == null)
+            {
+                return null;
+            }
+            else if (matcher.group(3).equals("json"))
+            {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                Writer writer = new OutputStreamWriter(buffer, "UTF-8");
+                writeResults(test, writer);
+                writer.close();
+                return buffer.toByteArray();
+            }
+            ITestContext context = test.context;
+            TestResults testResults = TestResults.forTest(context, TestStatistics.forTest(context), 1);
+            return render(createResultsFile(test.result, testResults, new File(name)));
+        }
+
+        matcher = SUITE_PAGE_PATTERN.matcher(name);
+        if (matcher.matches())
+        {
+            int index = Integer.parseInt(matcher.group(1));
+            if (index < 1 || index > suites.size())
+            {
+                return null;
+            }
+            LiveSuite suite = suites.get(index - 1);
+            String page = matcher.group(2);
+            if (page.equals("chronology"))
+            {
+                // The timeline identifies the suite's invocations by the suite itself, so it
+                // can't use a snapshot.
+                return render(createChronology(suite.suite, index, outputDirectory));
+            }
+            else if (page.equals("durations"))
+            {
+                return render(createDurations(suite.createSnapshot(), index, outputDirectory));
+            }
+            else if (page.equals("critical-path"))
+            {
+                return render(createCriticalPath(suite.createSnapshot(), index, outputDirectory));
+            }
+            else if (page.equals("configuration"))
+            {
+                return render(createConfiguration(suite.createSnapshot(), index, outputDirectory));
+            }
+            else if (page.equals("groups"))
+            {
+                List<FileTask> tasks = createGroups(Collections.singletonList(suite.createSnapshot()),
+                                                    outputDirectory);
+                return tasks.isEmpty() ? null : render(tasks.get(0));
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @param suiteIndex The (one-based) position of the suite in the order in which
+     * the suites started.
+     * @param testIndex The (one-based) position of the test in the order in which the
+     * suite's tests started.
+     * @return The test, or null if there is no test at that position.
+     */
+    private LiveTest getTest(int suiteIndex, int testIndex)
+    {
+        if (suiteIndex < 1 || suiteIndex > suites.size())
+        {
+            return null;
+        }
+        List<LiveTest> suiteTests = suites.get(suiteIndex - 1).tests;
+        return testIndex < 1 || testIndex > suiteTests.size() ? null : suiteTests.get(testIndex - 1);
+    }
+
+
+    private List<ISuite> getSnapshots()
+    {
+        List<ISuite> snapshots = new ArrayList<ISuite>(suites.size());
+        for (LiveSuite suite : suites)
+        {
+            snapshots.add(suite.createSnapshot());
+        }
+        return snapshots;
+    }
+
+
+    private byte[] render(FileTask task) throws Exception
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // The templates declare UTF-8 as their encoding.
+        Writer writer = new OutputStreamWriter(buffer, "UTF-8");
+        task.render(writer);
+        writer.close();
+        return buffer.toByteArray();
+    }
+
+
+    private byte[] read(InputStream stream) throws IOException
+    {
+        if (stream == null)
+        {
+            return null;
+        }
+        try
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int count;
+            while ((count = stream.read(bytes)) > 0)
+            {
+                buffer.write(bytes, 0, count);
+            }
+            return buffer.toByteArray();
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+
+    /**
+     * Writes the counts of passed, failed, skipped and running test methods for each
+     * test and each suite.  These are maintained as the results arrive, so the summary
+     * is cheap enough to be polled frequently.
+     */
+    private void writeSummary(Writer writer) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        JSONWriter json = new JSONWriter(writer);
+        json.beginObject();
+        json.name("title").value(META.getReportTitle());
+        json.name("time").value(now);
+        json.name("suites").beginArray();
+        int suiteIndex = 1;
+        for (LiveSuite suite : suites)
+        {
+            int passed = 0;
+            int failed = 0;
+            int skipped = 0;
+            int running = 0;
+            json.beginObject();
+            json.name("name").value(suite.suite.getName());
+            json.name("finished").value(suite.finished);
+            json.name("tests").beginArray();
+            int testIndex = 1;
+            for (LiveTest test : suite.tests)
+            {
+                int testPassed = test.passed.get();
+                int testFailed = test.failed.get();
+                int testSkipped = test.skipped.get();
+                int testRunning = test.running.size();
+                json.beginObject();
+                json.name("name").value(test.context.getName());
+                json.name("finished").value(test.finished);
+                json.name("duration").value(getDuration(test, now));
+                json.name("passed").value(testPassed);
+                json.name("failed").value(testFailed);
+                json.name("skipped").value(testSkipped);
+                json.name("running").value(testRunning);
+                json.name("results").value(getResultsDataFileName(suiteIndex, testIndex));
+                json.endObject();
+                passed += testPassed;
+                failed += testFailed;
+                skipped += testSkipped;
+                running += testRunning;
+                ++testIndex;
+            }
+            json.endArray();
+            json.name("passed").value(passed);
+            json.name("failed").value(failed);
+            json.name("skipped").value(skipped);
+            json.name("running").value(running);
+            json.endObject();
+            ++suiteIndex;
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+
+    /**
+     * Writes the test methods that are currently running, followed by the results of
+     * those that have finished, grouped by class.
+     */
+    private void writeResults(LiveTest test, Writer writer) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        ITestContext context = test.context;
+        TestResults testResults = TestResults.forTest(context, TestStatistics.forTest(context), 1);
+        JSONWriter json = new JSONWriter(writer);
+        json.beginObject();
+        json.name("name").value(context.getName());
+        json.name("finished").value(test.finished);
+        json.name("duration").value(getDuration(test, now));
+        json.name("running").beginArray();
+        for (ITestResult result : test.running.keySet())
+        {
+            json.beginObject();
+            json.name("class").value(result.getTestClass() == null ? null : result.getTestClass().getName());
+            json.name("method").value(result.getName());
+            json.name("startMillis").value(result.getStartMillis());
+            json.name("duration").value(Math.max(0, now - result.getStartMillis()));
+            json.endObject();
+        }
+        json.endArray();
+        json.name("results").beginArray();
+        writeResults(testResults.getFailedTests(), "failed", json);
+        writeResults(testResults.getSkippedTests(), "skipped", json);
+        writeResults(testResults.getPassedTests(), "passed", json);
+        json.endArray();
+        json.endObject();
+    }
+
+
+    private void writeResults(Map<IClass, List<ITestResult>> classResults,
+                              String status,
+                              JSONWriter json) throws IOException
+    {
+        for (Map.Entry<IClass, List<ITestResult>> entry : classResults.entrySet())
+        {
+            for (ITestResult result : entry.getValue())
+            {
+                json.beginObject();
+                json.name("class").value(entry.getKey().getName());
+                json.name("method").value(result.getName());
+                json.name("status").value(status);
+                json.name("startMillis").value(result.getStartMillis());
+                json.name("duration").value(result.getEndMillis() - result.getStartMillis());
+                if (result.getThrowable() != null)
+                {
+                    json.name("throwable").value(result.getThrowable().toString());
+                }
+                json.endObject();
+            }
+        }
+    }
+
+
+    private static long getDuration(LiveTest test, long now)
+    {
+        if (test.context.getStartDate() == null)
+        {
+            return 0;
+        }
+        long end = test.finished && test.context.getEndDate() != null ? test.context.getEndDate().getTime() : now;
+        return Math.max(0, end - test.context.getStartDate().getTime());
+    }
+
+
+    private static String getResultsDataFileName(int suiteIndex, int testIndex)
+    {
+        String fileName = getResultsFileName(suiteIndex, testIndex);
+        return fileName.substring(0, fileName.lastIndexOf('.')) + ".json";
+    }
+
+
+    private static String getContentType(String name)
+    {
+        if (name.endsWith(".json"))
+        {
+            return "application/json; charset=utf-8";
+        }
+        else if (name.endsWith(".css"))
+        {
+            return "text/css";
+        }
+        else if (name.endsWith(".js"))
+        {
+            return "text/javascript";
+        }
+        return "text/html; charset=utf-8";
+    }
+
+
+    /**
+     * Serves each request from the name of the requested file, ignoring any directories
+     * so that the report's relative links work from any path.
+     */
+    private final class PageHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            try
+            {
+                if (!exchange.getRequestMethod().equals("GET"))
+                {
+                    send(exchange, 405, "text/plain", "Method not allowed.".getBytes("UTF-8"));
+                    return;
+                }
+                String path = exchange.getRequestURI().getPath();
+                String name = path.substring(path.lastIndexOf('/') + 1);
+                if (name.length() == 0)
+                {
+                    name = INDEX_FILE;
+                }
+                byte[] content;
+                try
+                {
+                    content = getPage(name);
+                }
+                catch (Exception ex)
+                {
+                    send(exchange, 500, "text/plain", ("Failed rendering " + name + ": " + ex).getBytes("UTF-8"));
+                    return;
+                }
+                if (content == null)
+                {
+                    send(exchange, 404, "text/plain", ("Not found: " + name).getBytes("UTF-8"));
+                }
+                else
+                {
+                    send(exchange, 200, getContentType(name), content);
+                }
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+
+
+        private void send(HttpExchange exchange, int status, String contentType, byte[] content) throws IOException
+        {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            // The pages change as the run progresses.
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(status, content.length);
+            OutputStream stream = exchange.getResponseBody();
+            stream.write(content);
+            stream.close();
+        }
+    }
+
+
+    /**
+     * A suite that has started, and the tests that have started in it.
+     */
+    private static final class LiveSuite
+    {
+        private final ISuite suite;
+        private final List<LiveTest> tests = new CopyOnWriteArrayList<LiveTest>();
+        private volatile boolean finished = false;
+
+
+        LiveSuite(ISuite suite)
+        {
+            this.suite = suite;
+        }
+
+
+        /**
+         * TestNG only adds a test to the suite's results once the test has finished,
+         * so the pages are rendered from a stand-in for the suite whose results include
+         * the tests that are still running.  The invoked methods are copied because
+         * TestNG is still adding to them.
+         */
+        ISuite createSnapshot()
+        {
+            Map<String, ISuiteResult> results = new LinkedHashMap<String, ISuiteResult>();
+            for (LiveTest test : tests)
+            {
+                results.put(test.context.getName(), test.result);
+            }
+            List<IInvokedMethod> invokedMethods = SuiteTimeline.copyInvokedMethods(suite);
+            List<ITestNGMethod> testMethods = new ArrayList<ITestNGMethod>(invokedMethods.size());
+            for (IInvokedMethod invokedMethod : invokedMethods)
+            {
+                if (invokedMethod.isTestMethod())
+                {
+                    testMethods.add(invokedMethod.getTestMethod());
+                }
+            }
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getName", suite.getName());
+            values.put("getResults", results);
+            values.put("getXmlSuite", suite.getXmlSuite());
+            values.put("getOutputDirectory", suite.getOutputDirectory());
+            values.put("getMethodsByGroups", suite.getMethodsByGroups());
+            values.put("getAllInvokedMethods", invokedMethods);
+            values.put("getInvokedMethods", testMethods);
+            return TestNGProxies.create(ISuite.class, values);
+        }
+    }
+
+
+    /**
+     * A test that has started, with counts of its results so far.  The counts are
+     * updated without locking by the threads that run the test methods.
+     */
+    private static final class LiveTest
+    {
+        private final ITestContext context;
+        private final ISuiteResult result;
+        private final AtomicInteger passed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        /** The test method invocations that have started but not yet finished. */
+        private final ConcurrentMap<ITestResult, Boolean> running = new ConcurrentHashMap<ITestResult, Boolean>();
+        private volatile boolean finished = false;
+
+
+        LiveTest(ITestContext context)
+        {
+            this.context = context;
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getTestContext", context);
+            values.put("getPropertyFileName", context.getSuite().getXmlSuite().getFileName());
+            this.result = TestNGProxies.create(ISuiteResult.class, values);
+        }
+    }
+}
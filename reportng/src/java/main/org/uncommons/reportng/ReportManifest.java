@@ -0,0 +1,180 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the length, content hash and modification time of each file generated in
+ * a report directory so that, when the report is regenerated, files whose content has
+ * not changed can be left alone rather than re-written.  A file that has been modified
+ * since it was recorded (e.g. edited by hand) is always re-written.  The manifest is
+ * stored in the directory that it describes.  Files may be checked and updated
+ * concurrently from several rendering threads.
+ * @author Daniel Dyer
+ */
+final class ReportManifest
+{
+    static final String FILE_NAME = ".reportng-manifest";
+    private static final String ENCODING = "UTF-8";
+
+    private final File manifestFile;
+    private final ConcurrentMap<String, String> entries = new ConcurrentHashMap<String, String>();
+    private volatile boolean modified = false;
+
+
+    private ReportManifest(File directory)
+    {
+        this.manifestFile = new File(directory, FILE_NAME);
+    }
+
+
+    /**
+     * Loads the manifest for a directory.  If there is no manifest (e.g. because this
+     * is the first time that a report has been generated in the directory), the manifest
+     * is empty and every file will be considered to have changed.
+     * @param directory The report directory.
+     * @return The manifest for the directory.
+     * @throws IOException If an existing manifest cannot be read.
+     */
+    public static ReportManifest load(File directory) throws IOException
+    {
+        ReportManifest manifest = new ReportManifest(directory);
+        if (manifest.manifestFile.isFile())
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest.manifestFile),
+                                                                             ENCODING));
+            try
+            {
+                // Each line is the digest, length and modification time of the file,
+                // followed by its name.
+                for (String line = reader.readLine(); line != null; line = reader.readLine())
+                {
+                    String[] fields = line.split(" ", 4);
+                    if (fields.length == 4)
+                    {
+                        manifest.entries.put(fields[3], createEntry(fields[0], fields[1], fields[2]));
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return manifest;
+    }
+
+
+    /**
+     * Deletes the manifest for a directory, if there is one.  This must be done whenever
+     * files in the directory are written without updating the manifest, otherwise the
+     * manifest could claim that a file still has content that has since been replaced.
+     * @param directory The report directory.
+     * @throws IOException If the manifest exists but cannot be deleted.
+     */
+    public static void delete(File directory) throws IOException
+    {
+        File manifestFile = new File(directory, FILE_NAME);
+        if (manifestFile.exists() && !manifestFile.delete())
+        {
+            throw new IOException("Failed deleting report manifest " + manifestFile);
+        }
+    }
+
+
+    private static String createEntry(String digest, String length, String modified)
+    {
+        return digest + ' ' + length + ' ' + modified;
+    }
+
+
+    private static String createEntry(File file, long length, byte[] digest)
+    {
+        return createEntry(ContentDigest.toHex(digest), String.valueOf(length), String.valueOf(file.lastModified()));
+    }
+
+
+    /**
+     * @param file A file in the directory that this manifest describes.
+     * @param length The length, in bytes, of the content that would be written to the file.
+     * @param digest The digest of that content.
+     * @return True if the file exists, the manifest records that it already has the
+     * specified content and it has not been modified since, false otherwise.
+     */
+    public boolean isUnchanged(File file, long length, byte[] digest)
+    {
+        String entry = entries.get(file.getName());
+        return entry != null
+               && file.isFile()
+               && file.length() == length
+               && entry.equals(createEntry(file, length, digest));
+    }
+
+
+    /**
+     * Records the content that has just been written to a file, and the file's new
+     * modification time.
+     */
+    public void update(File file, long length, byte[] digest)
+    {
+        entries.put(file.getName(), createEntry(file, length, digest));
+        modified = true;
+    }
+
+
+    /**
+     * Writes the manifest, if it has changed since it was loaded or last saved.
+     * @throws IOException If the manifest cannot be written.
+     */
+    public synchronized void save() throws IOException
+    {
+        if (modified)
+        {
+            modified = false;
+            // Sorted so that the manifest itself doesn't change unless its content does.
+            SortedMap<String, String> sortedEntries = new TreeMap<String, String>(entries);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), ENCODING));
+            try
+            {
+                for (Map.Entry<String, String> entry : sortedEntries.entrySet())
+                {
+                    writer.write(entry.getValue());
+                    writer.write(' ');
+                    writer.write(entry.getKey());
+                    writer.write('\n');
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+/**
+ * Combines the results archives written by the {@link ArchiveReporter} on several
+ * machines into a single HTML report and a single set of JUnit XML files.  Suites
+ * with the same name are merged, as are tests with the same name within a suite.
+ * <p>
+ * Only the structure and outcome of the results are held in memory.  Log output is
+ * read back from the archives as each page of the report is rendered.  Report options
+ * are set via system properties in the same way as for a normal TestNG run.
+ * <p>
+ * Usage: <code>java org.uncommons.reportng.ReportMerger -d &lt;output directory&gt;
+ * &lt;archive or directory&gt; ...</code>
+ * @author Daniel Dyer
+ */
+public final class ReportMerger
+{
+    private final Map<String, MergedSuite> suites = new LinkedHashMap<String, MergedSuite>();
+    private final List<List<String>> logs = new ArrayList<List<String>>();
+
+    private MergedSuite currentSuite = null;
+    private MergedTest currentTest = null;
+
+
+    ReportMerger()
+    {
+        // Instances are only created by the merge method (and by unit tests).
+    }
+
+
+    public static void main(String[] args)
+    {
+        String outputDirectory = null;
+        List<File> archives = new ArrayList<File>(args.length);
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-d") && i + 1 < args.length)
+            {
+                outputDirectory = args[++i];
+            }
+            else
+            {
+                File file = new File(args[i]);
+                archives.add(file.isDirectory() ? new File(file, ResultsArchive.FILE_NAME) : file);
+            }
+        }
+        if (outputDirectory == null || archives.isEmpty())
+        {
+            System.err.println("Usage: java " + ReportMerger.class.getName()
+                               + " -d <output directory> <archive or directory> ...");
+            System.exit(1);
+        }
+        try
+        {
+            merge(archives, outputDirectory);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed merging results archives: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Generates HTML and JUnit XML reports for the combined results of several archives.
+     * @param archiveFiles The archives written by the {@link ArchiveReporter}.
+     * @param outputDirectoryName The directory in which to create the reports.
+     * @throws IOException If any of the archives cannot be read.
+     */
+    public static void merge(List<File> archiveFiles, String outputDirectoryName) throws IOException
+    {
+        List<ResultsArchive> archives = new ArrayList<ResultsArchive>(archiveFiles.size());
+        try
+        {
+            ReportMerger merger = new ReportMerger();
+            for (File file : archiveFiles)
+            {
+                ResultsArchive archive = new ResultsArchive(file);
+                archives.add(archive);
+                archive.read(merger);
+            }
+
+            List<ISuite> suites = merger.getSuites();
+            List<XmlSuite> xmlSuites = new ArrayList<XmlSuite>(suites.size());
+            for (ISuite suite : suites)
+            {
+                xmlSuites.add(suite.getXmlSuite());
+            }
+            AbstractReporter.UTILS.setArchivedOutput(new ConcatenatedLines(merger.logs));
+            new HTMLReporter().generateReport(xmlSuites, suites, outputDirectoryName);
+            new JUnitXMLReporter().generateReport(xmlSuites, suites, outputDirectoryName);
+        }
+        finally
+        {
+            AbstractReporter.UTILS.setArchivedOutput(null);
+            for (ResultsArchive archive : archives)
+            {
+                archive.close();
+            }
+        }
+    }
+
+
+    /**
+     * @return The merged suites, in the order in which they were first read.
+     */
+    List<ISuite> getSuites()
+    {
+        List<ISuite> suites = new ArrayList<ISuite>(this.suites.size());
+        for (MergedSuite suite : this.suites.values())
+        {
+            suites.add(suite.suite);
+        }
+        return suites;
+    }
+
+
+    void startSuite(String name)
+    {
+        currentSuite = suites.get(name);
+        if (currentSuite == null)
+        {
+            currentSuite = new MergedSuite(name);
+            suites.put(name, currentSuite);
+        }
+    }
+
+
+    /**
+     * Records that a method belongs to a group.  Methods are only listed once per group,
+     * no matter how many archives include them.
+     */
+    void addGroupMethod(String group, String className, String methodName)
+    {
+        if (currentSuite.groupMethodKeys.add(group + '\n' + className + '\n' + methodName))
+        {
+            String methodKey = className + '\n' + methodName;
+            List<String> groups = currentSuite.groupsByMethod.get(methodKey);
+            if (groups == null)
+            {
+                groups = new ArrayList<String>();
+                currentSuite.groupsByMethod.put(methodKey, groups);
+            }
+            groups.add(group);
+            Collection<ITestNGMethod> methods = currentSuite.methodsByGroups.get(group);
+            if (methods == null)
+            {
+                methods = new ArrayList<ITestNGMethod>();
+                currentSuite.methodsByGroups.put(group, methods);
+            }
+            methods.add(currentSuite.getGroupMethod(className, methodName));
+        }
+    }
+
+
+    void startTest(String name, long startTime, long endTime)
+    {
+        currentTest = currentSuite.getTest(name);
+        currentTest.startTime = Math.min(currentTest.startTime, startTime);
+        currentTest.endTime = Math.max(currentTest.endTime, endTime);
+    }
+
+
+    /**
+     * Adds an archived result to the current test.
+     * @param kind Which of the test's result maps the result belongs to (one of the
+     * constants defined by {@link ResultsArchive}).
+     * @param className The name of the test class.
+     * @param method Values for the test method, used if the method has not been seen
+     * before in this test.
+     * @param result Values for the result.
+     */
+    void addResult(int kind, String className, Map<String, Object> method, Map<String, Object> result)
+    {
+        ITestClass testClass = currentTest.getTestClass(className);
+        String key = className + '\n' + method.get("getMethodName");
+        ITestNGMethod testMethod = currentTest.methods.get(key);
+        if (testMethod == null)
+        {
+            // The groups of each method are archived once per suite, before its tests.
+            List<String> groups = currentSuite.groupsByMethod.get(key);
+            method.put("getGroups", groups == null ? new String[0] : groups.toArray(new String[groups.size()]));
+            method.put("getTestClass", testClass);
+            testMethod = TestNGProxies.create(ITestNGMethod.class, method);
+            currentTest.methods.put(key, testMethod);
+        }
+        result.put("getMethod", testMethod);
+        result.put("getTestClass", testClass);
+        result.put("getTestContext", currentTest.context);
+        currentTest.results.get(kind).add(TestNGProxies.create(ITestResult.class, result, ArchivedResult.class));
+    }
+
+
+    void endTest()
+    {
+        currentTest.update();
+        currentTest = null;
+    }
+
+
+    void endSuite()
+    {
+        currentSuite = null;
+    }
+
+
+    void addLog(List<String> log)
+    {
+        logs.add(log);
+    }
+
+
+    /**
+     * The combined results of all suites with a particular name.
+     */
+    private static final class MergedSuite
+    {
+        private final XmlSuite xmlSuite = new XmlSuite();
+        private final ISuite suite;
+        private final Map<String, ISuiteResult> results = new LinkedHashMap<String, ISuiteResult>();
+        private final Map<String, MergedTest> tests = new HashMap<String, MergedTest>();
+        private final Map<String, Collection<ITestNGMethod>> methodsByGroups
+            = new LinkedHashMap<String, Collection<ITestNGMethod>>();
+        private final Set<String> groupMethodKeys = new HashSet<String>();
+        private final Map<String, List<String>> groupsByMethod = new HashMap<String, List<String>>();
+        private final Map<String, ITestNGMethod> groupMethods = new HashMap<String, ITestNGMethod>();
+        private final Map<String, ITestClass> groupClasses = new HashMap<String, ITestClass>();
+
+
+        MergedSuite(String name)
+        {
+            xmlSuite.setName(name);
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getName", name);
+            values.put("getXmlSuite", xmlSuite);
+            values.put("getResults", results);
+            values.put("getMethodsByGroups", methodsByGroups);
+            // Individual invocations are not archived, so there is no chronology.
+            values.put("getAllInvokedMethods", Collections.<IInvokedMethod>emptyList());
+            values.put("getInvokedMethods", Collections.<IInvokedMethod>emptyList());
+            suite = TestNGProxies.create(ISuite.class, values);
+        }
+
+
+        MergedTest getTest(String name)
+        {
+            MergedTest test = tests.get(name);
+            if (test == null)
+            {
+                test = new MergedTest(name, this);
+                tests.put(name, test);
+                Map<String, Object> suiteResult = new HashMap<String, Object>();
+                suiteResult.put("getTestContext", test.context);
+                results.put(name, TestNGProxies.create(ISuiteResult.class, suiteResult));
+            }
+            return test;
+        }
+
+
+        ITestNGMethod getGroupMethod(String className, String methodName)
+        {
+            String key = className + '\n' + methodName;
+            ITestNGMethod method = groupMethods.get(key);
+            if (method == null)
+            {
+                ITestClass testClass = groupClasses.get(className);
+                if (testClass == null)
+                {
+                    Map<String, Object> classValues = new HashMap<String, Object>();
+                    classValues.put("getName", className);
+                    testClass = TestNGProxies.create(ITestClass.class, classValues);
+                    groupClasses.put(className, testClass);
+                }
+                Map<String, Object> methodValues = new HashMap<String, Object>();
+                methodValues.put("getMethodName", methodName);
+                methodValues.put("getTestClass", testClass);
+                method = TestNGProxies.create(ITestNGMethod.class, methodValues);
+                groupMethods.put(key, method);
+            }
+            return method;
+        }
+    }
+
+
+    /**
+     * The combined results of all tests with a particular name within a suite.
+     */
+    private static final class MergedTest
+    {
+        private final XmlTest xmlTest;
+        private final Map<String, Object> values = new HashMap<String, Object>();
+        private final ITestContext context;
+        private final List<Set<ITestResult>> results = new ArrayList<Set<ITestResult>>(6);
+        private final Map<String, ITestClass> classes = new HashMap<String, ITestClass>();
+        private final Map<String, ITestNGMethod> methods = new HashMap<String, ITestNGMethod>();
+
+        private long startTime = Long.MAX_VALUE;
+        private long endTime = Long.MIN_VALUE;
+
+
+        MergedTest(String name, MergedSuite suite)
+        {
+            xmlTest = new XmlTest(suite.xmlSuite);
+            xmlTest.setName(name);
+            // One set for each kind of result, in the order of the ResultsArchive constants.
+            for (int i = ResultsArchive.PASSED_CONFIGURATION; i <= ResultsArchive.FAILED_TEST; i++)
+            {
+                results.add(new LinkedHashSet<ITestResult>());
+            }
+            values.put("getName", name);
+            values.put("getSuite", suite.suite);
+            values.put("getCurrentXmlTest", xmlTest);
+            context = TestNGProxies.create(ITestContext.class, values);
+            update();
+        }
+
+
+        ITestClass getTestClass(String className)
+        {
+            ITestClass testClass = classes.get(className);
+            if (testClass == null)
+            {
+                Map<String, Object> classValues = new HashMap<String, Object>();
+                classValues.put("getName", className);
+                classValues.put("getXmlTest", xmlTest);
+                testClass = TestNGProxies.create(ITestClass.class, classValues);
+                classes.put(className, testClass);
+            }
+            return testClass;
+        }
+
+
+        /**
+         * Refreshes the context's values after results have been added.
+         */
+        void update()
+        {
+            values.put("getStartDate", new Date(startTime == Long.MAX_VALUE ? 0 : startTime));
+            values.put("getEndDate", new Date(endTime == Long.MIN_VALUE ? 0 : endTime));
+            values.put("getPassedConfigurations",
+                       TestNGProxies.createResultMap(results.get(ResultsArchive.PASSED_CONFIGURATION)));
+            values.put("getSkippedConfigurations",
+                       TestNGProxies.createResultMap(results.get(ResultsArchive.SKIPPED_CONFIGURATION)));
+            values.put("getFailedConfigurations",
+                       TestNGProxies.createResultMap(results.get(ResultsArchive.FAILED_CONFIGURATION)));
+            values.put("getPassedTests", TestNGProxies.createResultMap(results.get(ResultsArchive.PASSED_TEST)));
+            values.put("getSkippedTests", TestNGProxies.createResultMap(results.get(ResultsArchive.SKIPPED_TEST)));
+            values.put("getFailedTests", TestNGProxies.createResultMap(results.get(ResultsArchive.FAILED_TEST)));
+        }
+    }
+
+
+    /**
+     * The log output of several archives, presented as a single list without
+     * copying it.
+     */
+    private static final class ConcatenatedLines extends AbstractList<String>
+    {
+        private final List<List<String>> lists;
+        private final int size;
+
+
+        ConcatenatedLines(List<List<String>> lists)
+        {
+            this.lists = lists;
+            int total = 0;
+            for (List<String> list : lists)
+            {
+                total += list.size();
+            }
+            this.size = total;
+        }
+
+
+        @Override
+        public String get(int index)
+        {
+            int remaining = index;
+            for (List<String> list : lists)
+            {
+                if (remaining < list.size())
+                {
+                    return list.get(remaining);
+                }
+                remaining -= list.size();
+            }
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+}
@@ -39,10 +39,30 @@ public final class ReportMetadata
     static final String STYLESHEET_KEY = PROPERTY_KEY_PREFIX + "stylesheet";
     static final String LOCALE_KEY = PROPERTY_KEY_PREFIX + "locale";
     static final String VELOCITY_LOG_KEY = PROPERTY_KEY_PREFIX + "velocity-log";
+    static final String THREADS_KEY = PROPERTY_KEY_PREFIX + "threads";
+    static final String RENDERER_KEY = PROPERTY_KEY_PREFIX + "renderer";
+    static final String LOG_PAGE_SIZE_KEY = PROPERTY_KEY_PREFIX + "log-page-size";
+    static final String STACK_TRACES_KEY = PROPERTY_KEY_PREFIX + "deduplicate-stack-traces";
+    static final String VIRTUAL_RESULTS_KEY = PROPERTY_KEY_PREFIX + "virtual-results";
+    static final String INCREMENTAL_KEY = PROPERTY_KEY_PREFIX + "incremental";
+    static final String TIMINGS_KEY = PROPERTY_KEY_PREFIX + "timings";
+    static final String COMPRESS_KEY = PROPERTY_KEY_PREFIX + "compress";
+    static final String KEEP_UNCOMPRESSED_KEY = PROPERTY_KEY_PREFIX + "keep-uncompressed";
+    static final String SHARD_THRESHOLD_KEY = PROPERTY_KEY_PREFIX + "shard-threshold";
+    static final String HISTORY_FILE_KEY = PROPERTY_KEY_PREFIX + "history-file";
+    static final String HISTORY_SIZE_KEY = PROPERTY_KEY_PREFIX + "history-size";
+    static final String SLOWEST_METHODS_KEY = PROPERTY_KEY_PREFIX + "slowest-methods";
+    static final String LIVE_PORT_KEY = PROPERTY_KEY_PREFIX + "live-port";
+    static final int DEFAULT_LOG_PAGE_SIZE = 1000;
+    static final int DEFAULT_HISTORY_SIZE = 20;
+    static final int DEFAULT_SLOWEST_METHODS = 20;
+    static final int DEFAULT_LIVE_PORT = 0;
+
+    // Date formats are not thread-safe so we create new instances each time they are
+    // used rather than sharing them between concurrently rendered pages.
+    private static final String DATE_PATTERN = "EEEE dd MMMM yyyy";
+    private static final String TIME_PATTERN = "HH:mm z";
 
-    private static final DateFormat DATE_FORMAT = new SimpleDateFormat("EEEE dd MMMM yyyy");
-    private static final DateFormat TIME_FORMAT = new SimpleDateFormat("HH:mm z");
-    
 
     /**
      * The date/time at which this report is being generated.
@@ -56,7 +76,8 @@ public final class ReportMetadata
      */
     public String getReportDate()
     {
-        return DATE_FORMAT.format(reportTime);
+        DateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+        return dateFormat.format(reportTime);
     }
 
 
@@ -66,7 +87,8 @@ public final class ReportMetadata
      */
     public String getReportTime()
     {
-        return TIME_FORMAT.format(reportTime);
+        DateFormat timeFormat = new SimpleDateFormat(TIME_PATTERN);
+        return timeFormat.format(reportTime);
     }
 
 
@@ -136,6 +158,19 @@ public final class ReportMetadata
     }
 
 
+    /**
+     * Returns true (the default) if identical stack traces should only be rendered in
+     * full once per HTML results page, with subsequent failures linking back to the
+     * first occurrence.  The JUnit XML always contains the complete stack trace of
+     * every failure, because the tools that read it treat each test case separately.
+     * @return True if duplicate stack traces should be omitted, false otherwise.
+     */
+    public boolean shouldDeduplicateStackTraces()
+    {
+        return System.getProperty(STACK_TRACES_KEY, "true").equalsIgnoreCase("true");
+    }
+
+
     /**
      * @return True if Velocity should generate a log file, false otherwise.
      */
@@ -145,6 +180,222 @@ public final class ReportMetadata
     }
 
 
+    /**
+     * Returns true (the default) if the results pages should be generated from the
+     * Velocity templates.  If the renderer has been set to "java", the results pages
+     * are instead generated by equivalent Java code, which is faster but cannot be
+     * customised.
+     * @return True if the Velocity templates should be used, false otherwise.
+     */
+    public boolean shouldUseTemplates()
+    {
+        return !System.getProperty(RENDERER_KEY, "velocity").equalsIgnoreCase("java");
+    }
+
+
+    /**
+     * Returns true if the results pages should be "virtual".  A virtual results page
+     * contains no results itself.  Instead it loads the results from separate data
+     * files and only adds the visible rows to the page.  This is intended for tests
+     * with so many results that a conventional page would be too large to display.
+     * @return True if virtual results pages should be generated, false (the default)
+     * otherwise.
+     */
+    public boolean shouldUseVirtualResults()
+    {
+        return System.getProperty(VIRTUAL_RESULTS_KEY, "false").equalsIgnoreCase("true");
+    }
+
+
+    /**
+     * Returns true if report files should only be written when their content has changed.
+     * Each file is rendered in memory first and its content hash is compared with the
+     * one recorded (in a manifest in the report directory) when the file was last written.
+     * Unchanged files are not touched, so they retain their modification times.
+     * @return True if only changed files should be written, false (the default) if all
+     * files should be written every time.
+     */
+    public boolean shouldWriteChangedFilesOnly()
+    {
+        return System.getProperty(INCREMENTAL_KEY, "false").equalsIgnoreCase("true");
+    }
+
+
+    /**
+     * Returns true if the reporters should record how long each phase of report
+     * generation takes (and how much is written) in a {@literal report-timings.json}
+     * file in the report directory.
+     * @return True if timings should be recorded, false (the default) otherwise.
+     */
+    public boolean shouldWriteTimings()
+    {
+        return System.getProperty(TIMINGS_KEY, "false").equalsIgnoreCase("true");
+    }
+
+
+    /**
+     * Returns true if the compression option has been set to "gzip", in which case a
+     * gzipped copy ({@literal .gz}) of each report file is written so that the report
+     * can be served pre-compressed (e.g. by nginx's {@literal gzip_static} module).
+     * @return True if compressed files should be written, false (the default) otherwise.
+     */
+    public boolean shouldCompressOutput()
+    {
+        return System.getProperty(COMPRESS_KEY, "none").equalsIgnoreCase("gzip");
+    }
+
+
+    /**
+     * Returns true (the default) if the uncompressed report files should be written
+     * as well as the compressed files.  Ignored unless compression is enabled (see
+     * {@link #shouldCompressOutput()}).
+     * @return False if only compressed files should be written, true otherwise.
+     */
+    public boolean shouldKeepUncompressedOutput()
+    {
+        return !shouldCompressOutput()
+               || System.getProperty(KEEP_UNCOMPRESSED_KEY, "true").equalsIgnoreCase("true");
+    }
+
+
+    /**
+     * Returns the number of threads that should be used to render report pages.  The
+     * default is a single thread, in which case all pages are rendered sequentially on
+     * the thread that invoked the reporter.
+     * @return The number of rendering threads (always at least one).
+     */
+    public int getThreadCount()
+    {
+        String threads = System.getProperty(THREADS_KEY, "1");
+        try
+        {
+            return Math.max(1, Integer.parseInt(threads.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Invalid thread count specified: " + threads);
+            return 1;
+        }
+    }
+
+
+    /**
+     * The log output is split across several pages so that no single page becomes too
+     * large for a browser to load.
+     * @return The maximum number of log lines per page of output.
+     */
+    public int getLogPageSize()
+    {
+        String size = System.getProperty(LOG_PAGE_SIZE_KEY, String.valueOf(DEFAULT_LOG_PAGE_SIZE));
+        try
+        {
+            return Math.max(1, Integer.parseInt(size.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Invalid log page size specified: " + size);
+            return DEFAULT_LOG_PAGE_SIZE;
+        }
+    }
+
+
+    /**
+     * If a test has more results than this threshold, its results page is split into
+     * one page per test class plus a summary page that links to them.  This caps the
+     * size of each page and allows the pages to be rendered concurrently.
+     * @return The maximum number of results on a single results page, or zero (the
+     * default) if results pages should never be split.
+     */
+    public int getShardThreshold()
+    {
+        String threshold = System.getProperty(SHARD_THRESHOLD_KEY, "0");
+        try
+        {
+            return Math.max(0, Integer.parseInt(threshold.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Invalid shard threshold specified: " + threshold);
+            return 0;
+        }
+    }
+
+
+    /**
+     * If a history file is configured, the duration and outcome of every test method
+     * are recorded in it each time that the report is generated, so that the report
+     * can show how durations have changed over recent runs (see {@link RunHistory}).
+     * @return The history file, or null (the default) if no history should be kept.
+     */
+    public File getHistoryFile()
+    {
+        String path = System.getProperty(HISTORY_FILE_KEY);
+        return path == null ? null : new File(path);
+    }
+
+
+    /**
+     * @return The number of runs, including the current run, for which history is
+     * retained.  Older runs are evicted from the history file.
+     */
+    public int getHistorySize()
+    {
+        String size = System.getProperty(HISTORY_SIZE_KEY, String.valueOf(DEFAULT_HISTORY_SIZE));
+        try
+        {
+            return Math.max(2, Integer.parseInt(size.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Invalid history size specified: " + size);
+            return DEFAULT_HISTORY_SIZE;
+        }
+    }
+
+
+    /**
+     * @return The number of slowest test method invocations listed on the durations
+     * page for each suite.
+     */
+    public int getSlowestMethodCount()
+    {
+        String count = System.getProperty(SLOWEST_METHODS_KEY, String.valueOf(DEFAULT_SLOWEST_METHODS));
+        try
+        {
+            return Math.max(0, Integer.parseInt(count.trim()));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Invalid slowest method count specified: " + count);
+            return DEFAULT_SLOWEST_METHODS;
+        }
+    }
+
+
+    /**
+     * @return The local port on which the {@link LiveReportListener} serves the live
+     * report.  Zero (the default) means any free port.
+     */
+    public int getLivePort()
+    {
+        String port = System.getProperty(LIVE_PORT_KEY, String.valueOf(DEFAULT_LIVE_PORT));
+        try
+        {
+            int value = Integer.parseInt(port.trim());
+            if (value >= 0 && value <= 65535)
+            {
+                return value;
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            // Reported below.
+        }
+        System.err.println("Invalid live report port specified: " + port);
+        return DEFAULT_LIVE_PORT;
+    }
+
+
     /**
      * @return The user account used to run the tests and the host name of the
      * test machine.
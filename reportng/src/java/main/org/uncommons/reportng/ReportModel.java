@@ -0,0 +1,190 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.ISuite;
+import org.testng.ITestContext;
+
+/**
+ * The results of a TestNG run in the form that the reporters render them: statistics
+ * for each suite and test, and the results of each test grouped by class and sorted
+ * (see {@link TestResults}).  When several reporters are invoked for the same run
+ * (e.g. the {@link HTMLReporter} and the {@link JUnitXMLReporter}), they share a
+ * single model (see {@link #forRun(List, int)}) so that the results are only
+ * traversed and grouped once.
+ * <p>
+ * The results of each test are grouped the first time that they are needed, and
+ * sorted the first time that sorted results are needed, so reporters that only need
+ * the statistics do not pay for grouping and reporters that don't sort do not pay
+ * for sorting.
+ * @author Daniel Dyer
+ */
+public final class ReportModel
+{
+    /**
+     * The models of recent runs.  TestNG passes the same list of suites to each of its
+     * reporters, so a model is identified by that list.  The list is only weakly
+     * referenced, so each model can be discarded once its run has finished.
+     */
+    private static final List<RunReference> RUNS = new LinkedList<RunReference>();
+
+    private final List<ISuite> suites;
+    private final Map<ISuite, SuiteStatistics> statistics;
+    private final int threads;
+    private final Map<ITestContext, TestResults> testResults = new ConcurrentHashMap<ITestContext, TestResults>();
+
+
+    private ReportModel(List<ISuite> suites, int threads)
+    {
+        this.suites = Collections.unmodifiableList(new ArrayList<ISuite>(suites));
+        this.statistics = SuiteStatistics.forSuites(suites);
+        this.threads = threads;
+    }
+
+
+    /**
+     * Returns the model for a finished TestNG run, building it if this is the first
+     * reporter to ask for it.  Reporters invoked for the same run receive the same
+     * list of suites, and therefore the same model.  A different list (e.g. for a
+     * later run in the same JVM) gets a new model, even if it contains the same suites.
+     * @param suites Data about the test runs, as passed to the reporter.
+     * @param threads The maximum number of threads to use to sort very large classes.
+     * @return The model.
+     */
+    public static ReportModel forRun(List<ISuite> suites, int threads)
+    {
+        synchronized (RUNS)
+        {
+            ReportModel model = null;
+            for (Iterator<RunReference> iterator = RUNS.iterator(); iterator.hasNext();)
+            {
+                RunReference run = iterator.next();
+                List<ISuite> runSuites = run.get();
+                if (runSuites == suites && run.model.hasSuites(suites))
+                {
+                    model = run.model;
+                }
+                else if (runSuites == null || runSuites == suites)
+                {
+                    // The run has finished, or its list of suites has since changed.
+                    iterator.remove();
+                }
+            }
+            if (model == null)
+            {
+                model = forSuites(suites, threads);
+                RUNS.add(new RunReference(suites, model));
+            }
+            return model;
+        }
+    }
+
+
+    /**
+     * Builds a new model for the specified suites.  Unlike {@link #forRun(List, int)},
+     * this does not share the model, so it is suitable for suites that are still running.
+     * @param suites Data about the test runs.
+     * @param threads The maximum number of threads to use to sort very large classes.
+     * @return The model.
+     */
+    public static ReportModel forSuites(List<ISuite> suites, int threads)
+    {
+        return new ReportModel(suites, threads);
+    }
+
+
+    /**
+     * @return True if this model was built for exactly the specified suites.  A list of
+     * suites that has changed since the model was built needs a new model.
+     */
+    private boolean hasSuites(List<ISuite> suites)
+    {
+        if (suites.size() != this.suites.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < suites.size(); i++)
+        {
+            if (suites.get(i) != this.suites.get(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public List<ISuite> getSuites()
+    {
+        return suites;
+    }
+
+
+    /**
+     * @return The statistics for each suite, in the same order as the suites.
+     */
+    public Map<ISuite, SuiteStatistics> getStatistics()
+    {
+        return statistics;
+    }
+
+
+    /**
+     * @param context One of the tests in the model.
+     * @return The grouped results of the test.
+     */
+    public TestResults getTestResults(ITestContext context)
+    {
+        TestResults results = testResults.get(context);
+        if (results == null)
+        {
+            // Concurrent callers may both sort the same test, but they produce
+            // identical results so it doesn't matter which one is kept.
+            SuiteStatistics suiteStatistics = statistics.get(context.getSuite());
+            TestStatistics testStatistics = suiteStatistics == null ? null : suiteStatistics.getTest(context);
+            results = TestResults.forTest(context,
+                                          testStatistics != null ? testStatistics : TestStatistics.forTest(context),
+                                          threads);
+            testResults.put(context, results);
+        }
+        return results;
+    }
+
+
+    /**
+     * Associates a model with the list of suites that it was built for, without
+     * keeping the list (or, once it has been removed, the model) in memory.
+     */
+    private static final class RunReference extends WeakReference<List<ISuite>>
+    {
+        private final ReportModel model;
+
+
+        RunReference(List<ISuite> suites, ReportModel model)
+        {
+            super(suites);
+            this.model = model;
+        }
+    }
+}
@@ -15,21 +15,22 @@
 //=============================================================================
 package org.uncommons.reportng;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import org.testng.IInvokedMethod;
 import org.testng.ISuite;
-import org.testng.ISuiteResult;
 import org.testng.ITestContext;
-import org.testng.ITestNGMethod;
 import org.testng.ITestResult;
 import org.testng.Reporter;
 import org.testng.SkipException;
@@ -41,8 +42,31 @@ import org.testng.SkipException;
  */
 public class ReportNGUtils
 {
-    private static final NumberFormat DURATION_FORMAT = new DecimalFormat("#0.000");
-    private static final NumberFormat PERCENTAGE_FORMAT = new DecimalFormat("#0.00%");
+    // NumberFormats are not thread-safe and pages may be rendered concurrently, so
+    // each rendering thread gets its own instances.
+    private static final ThreadLocal<NumberFormat> DURATION_FORMAT = new ThreadLocal<NumberFormat>()
+    {
+        @Override
+        protected NumberFormat initialValue()
+        {
+            return new DecimalFormat("#0.000");
+        }
+    };
+    private static final ThreadLocal<NumberFormat> PERCENTAGE_FORMAT = new ThreadLocal<NumberFormat>()
+    {
+        @Override
+        protected NumberFormat initialValue()
+        {
+            return new DecimalFormat("#0.00%");
+        }
+    };
+
+    /**
+     * Log output read from results archives, or null if the output recorded by TestNG
+     * should be used.
+     */
+    private volatile List<String> archivedOutput = null;
+
 
     /**
      * Returns the aggregate of the elapsed times for each test result.
@@ -62,6 +86,19 @@ public class ReportNGUtils
     }
 
 
+    /**
+     * @param context A test.
+     * @return The time between the start and end of the test.  If the test has not
+     * finished yet (see {@link LiveReportListener}), the time since it started.
+     */
+    static long getWallTime(ITestContext context)
+    {
+        Date endDate = context.getEndDate();
+        long endTime = endDate == null ? System.currentTimeMillis() : endDate.getTime();
+        return endTime - context.getStartDate().getTime();
+    }
+
+
     /**
      * Returns the aggregate of the elapsed times for each test result.
      * @param results A set of test results.
@@ -88,7 +125,18 @@ public class ReportNGUtils
     public String formatDuration(long elapsed)
     {
         double seconds = (double) elapsed / 1000;
-        return DURATION_FORMAT.format(seconds);
+        return DURATION_FORMAT.get().format(seconds);
+    }
+
+
+    /**
+     * Formats a difference between two durations, with an explicit sign.
+     * @param delta The difference in milliseconds.
+     * @return The difference in seconds.
+     */
+    public String formatDelta(long delta)
+    {
+        return (delta < 0 ? "-" : "+") + formatDuration(Math.abs(delta));
     }
 
 
@@ -117,7 +165,9 @@ public class ReportNGUtils
      */
     public List<String> getTestOutput(ITestResult result)
     {
-        return Reporter.getOutput(result);
+        return result instanceof ArchivedResult
+               ? ((ArchivedResult) result).getOutput()
+               : Reporter.getOutput(result);
     }
 
 
@@ -128,7 +178,20 @@ public class ReportNGUtils
      */
     public List<String> getAllOutput()
     {
-        return Reporter.getOutput();
+        List<String> output = archivedOutput;
+        return output != null ? output : Reporter.getOutput();
+    }
+
+
+    /**
+     * Replaces the output recorded by TestNG's {@link Reporter} with output read from
+     * results archives.  This is only used when merging archived results (see
+     * {@link ReportMerger}), in which case there are no results from this JVM.
+     * @param output The combined log output of the archived results.
+     */
+    void setArchivedOutput(List<String> output)
+    {
+        archivedOutput = output;
     }
 
 
@@ -156,7 +219,7 @@ public class ReportNGUtils
      * @param argument The argument to render.
      * @return The string representation of the argument.
      */
-    private String renderArgument(Object argument)
+    String renderArgument(Object argument)
     {
         if (argument == null)
         {
@@ -223,7 +286,20 @@ public class ReportNGUtils
     
     public boolean hasSkipException(ITestResult result) 
     {
-    	return result.getThrowable() instanceof SkipException;
+        Throwable throwable = result.getThrowable();
+    	return throwable instanceof SkipException
+               || (throwable instanceof ArchivedThrowable && ((ArchivedThrowable) throwable).isSkipException());
+    }
+
+
+    /**
+     * @param throwable A test failure.
+     * @return The fully-qualified class name of the throwable (or of the original
+     * throwable if this one has been read from a results archive).
+     */
+    public String getThrowableType(Throwable throwable)
+    {
+        return ArchivedThrowable.getType(throwable);
     }
     
     
@@ -239,6 +315,26 @@ public class ReportNGUtils
     }
 
 
+    /**
+     * @return True if any test method in the suite depends on other methods or groups.
+     * @see CriticalPath
+     */
+    public boolean hasDependencies(ISuite suite)
+    {
+        return CriticalPath.hasDependencies(suite);
+    }
+
+
+    /**
+     * @return True if any configuration methods were run (or skipped) in the suite.
+     * @see ConfigurationStatistics
+     */
+    public boolean hasConfigurations(ISuite suite)
+    {
+        return ConfigurationStatistics.hasConfigurations(suite);
+    }
+
+
     /**
      * Takes a list of Strings and combines them into a single comma-separated
      * String.
@@ -272,37 +368,22 @@ public class ReportNGUtils
      */
     public String escapeString(String s)
     {
-        if (s == null)
-        {
-            return null;
-        }
-        
-        StringBuilder buffer = new StringBuilder();
-        for(int i = 0; i < s.length(); i++)
-        {
-            buffer.append(escapeChar(s.charAt(i)));
-        }
-        return buffer.toString();
+        return escape(s, false);
     }
 
 
     /**
-     * Converts a char into a String that can be inserted into an XML document,
-     * replacing special characters with XML entities as required.
-     * @param character The character to convert.
-     * @return An XML entity representing the character (or a String containing
-     * just the character if it does not need to be escaped).
+     * Works like {@link #escapeString(String)} but writes the escaped String directly
+     * to the specified writer instead of creating a new String.
+     * @param s The String to escape.
+     * @param writer The writer that the escaped String is written to.
+     * @throws IOException If there is a problem writing the String.
      */
-    private String escapeChar(char character)
+    public void escapeString(String s, Writer writer) throws IOException
     {
-        switch (character)
+        if (s != null)
         {
-            case '<': return "&lt;";
-            case '>': return "&gt;";
-            case '"': return "&quot;";
-            case '\'': return "&apos;";
-            case '&': return "&amp;";
-            default: return String.valueOf(character);
+            escape(s, false, writer);
         }
     }
 
@@ -314,33 +395,108 @@ public class ReportNGUtils
      * @return The escaped String.
      */
     public String escapeHTMLString(String s)
+    {
+        return escape(s, true);
+    }
+
+
+    /**
+     * Works like {@link #escapeHTMLString(String)} but writes the escaped String
+     * directly to the specified writer instead of creating a new String.
+     * @param s The String to escape.
+     * @param writer The writer that the escaped String is written to.
+     * @throws IOException If there is a problem writing the String.
+     */
+    public void escapeHTMLString(String s, Writer writer) throws IOException
+    {
+        if (s != null)
+        {
+            escape(s, true, writer);
+        }
+    }
+
+
+    private String escape(String s, boolean html)
     {
         if (s == null)
         {
             return null;
         }
-        
-        StringBuilder buffer = new StringBuilder();
-        for(int i = 0; i < s.length(); i++)
+        // Most Strings don't need escaping at all, in which case we can just return
+        // the original.
+        int i = 0;
+        while (i < s.length() && getReplacement(s, i, html) == null)
+        {
+            ++i;
+        }
+        if (i == s.length())
         {
-            char ch = s.charAt(i);
-            switch (ch)
+            return s;
+        }
+        StringWriter writer = new StringWriter(s.length() + 16);
+        try
+        {
+            escape(s, html, writer);
+        }
+        catch (IOException ex)
+        {
+            // Can't happen, StringWriter doesn't throw IOExceptions.
+            throw new IllegalStateException(ex);
+        }
+        return writer.toString();
+    }
+
+
+    /**
+     * Each run of consecutive characters that don't need escaping is copied to the
+     * writer in a single operation, so no objects are created per character.
+     */
+    private void escape(String s, boolean html, Writer writer) throws IOException
+    {
+        int start = 0; // Start of the current run of characters that don't need escaping.
+        for (int i = 0; i < s.length(); i++)
+        {
+            String replacement = getReplacement(s, i, html);
+            if (replacement != null)
             {
-                case ' ':
-                    // All spaces in a block of consecutive spaces are converted to
-                    // non-breaking space (&nbsp;) except for the last one.  This allows
-                    // significant whitespace to be retained without prohibiting wrapping.
-                    char nextCh = i + 1 < s.length() ? s.charAt(i + 1) : 0;
-                    buffer.append(nextCh==' ' ? "&nbsp;" : " ");
-                    break;
-                case '\n':
-                    buffer.append("<br/>\n");
-                    break;
-                default:
-                    buffer.append(escapeChar(ch));
+                writer.write(s, start, i - start);
+                writer.write(replacement);
+                start = i + 1;
             }
         }
-        return buffer.toString();
+        writer.write(s, start, s.length() - start);
+    }
+
+
+    /**
+     * Converts a char into a String that can be inserted into an XML (or HTML)
+     * document, replacing special characters with entities as required.
+     * @param s The String that contains the character.
+     * @param index The position of the character in the String.
+     * @param html Whether to also replace line breaks and significant whitespace.
+     * @return The replacement for the character, or null if it does not need to be
+     * escaped.
+     */
+    private String getReplacement(String s, int index, boolean html)
+    {
+        switch (s.charAt(index))
+        {
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '"': return "&quot;";
+            case '\'': return "&apos;";
+            case '&': return "&amp;";
+            case ' ':
+            {
+                // All spaces in a block of consecutive spaces are converted to
+                // non-breaking space (&nbsp;) except for the last one.  This allows
+                // significant whitespace to be retained without prohibiting wrapping.
+                boolean nextIsSpace = index + 1 < s.length() && s.charAt(index + 1) == ' ';
+                return html && nextIsSpace ? "&nbsp;" : null;
+            }
+            case '\n': return html ? "<br/>\n" : null;
+            default: return null;
+        }
     }
 
 
@@ -381,67 +537,41 @@ public class ReportNGUtils
     }
 
 
+    /**
+     * Returns the time at which a method invocation finished.  This is the start time
+     * of the next invocation on the same thread or, if there isn't one, the end time
+     * of the test that the method belongs to.
+     * @param suite The suite that the method belongs to.
+     * @param method The method invocation.
+     * @param methods All invocations in the suite, in the order that they occurred.
+     * @return The end time (as a number of milliseconds since 00:00 1st January 1970 UTC).
+     * @deprecated This indexes the whole suite on every call, so looking up every
+     * invocation this way takes quadratic time.  Build the index once with
+     * {@link #indexInvokedMethods(ISuite, List)} instead, or use {@link SuiteTimeline},
+     * which takes each invocation's end time from its result.
+     */
+    @Deprecated
     public long getEndTime(ISuite suite, IInvokedMethod method, List<IInvokedMethod> methods)
     {
-        boolean found = false;
-        for (IInvokedMethod m : methods)
-        {
-            if (m == method)
-            {
-                found = true;
-            }
-            // Once a method is found, find subsequent method on same thread.
-            else if (found && m.getTestMethod().getId().equals(method.getTestMethod().getId()))
-            {
-                return m.getDate();
-            }
-        }
-        return getEndTime(suite, method);
+        return indexInvokedMethods(suite, methods).getEndTime(method);
     }
 
 
     /**
-     * Returns the timestamp for the time at which the suite finished executing.
-     * This is determined by finding the latest end time for each of the individual
-     * tests in the suite.
-     * @param suite The suite to find the end time of. 
-     * @return The end time (as a number of milliseconds since 00:00 1st January 1970 UTC).
+     * Builds an index of the start and end times of each of the specified methods.  The
+     * index is not cached, so callers should keep it for as long as they need it.
+     * @param suite The suite that the methods belong to.
+     * @param methods All invocations in the suite, in the order that they occurred.
+     * @return An index that provides constant-time look-ups of start and end times.
      */
-    private long getEndTime(ISuite suite, IInvokedMethod method)
+    public InvokedMethodIndex indexInvokedMethods(ISuite suite, List<IInvokedMethod> methods)
     {
-        // Find the latest end time for all tests in the suite.
-        for (Map.Entry<String, ISuiteResult> entry : suite.getResults().entrySet())
-        {
-            ITestContext testContext = entry.getValue().getTestContext();
-            for (ITestNGMethod m : testContext.getAllTestMethods())
-            {
-                if (method == m)
-                {
-                    return testContext.getEndDate().getTime();
-                }
-            }
-            // If we can't find a matching test method it must be a configuration method.
-            for (ITestNGMethod m : testContext.getPassedConfigurations().getAllMethods())
-            {
-                if (method == m)
-                {
-                    return testContext.getEndDate().getTime();
-                }
-            }
-            for (ITestNGMethod m : testContext.getFailedConfigurations().getAllMethods())
-            {
-                if (method == m)
-                {
-                    return testContext.getEndDate().getTime();
-                }
-            }
-        }
-        throw new IllegalStateException("Could not find matching end time.");
+        return new InvokedMethodIndex(suite, methods);
     }
 
 
     public String formatPercentage(int numerator, int denominator)
     {
-        return PERCENTAGE_FORMAT.format(numerator / (double) denominator);
+        return PERCENTAGE_FORMAT.get().format(numerator / (double) denominator);
     }
 }
@@ -0,0 +1,195 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how long each phase of report generation takes, and how many bytes are
+ * written by each file, so that the figures can be written to a machine-readable
+ * file alongside the report.  Files may be recorded concurrently from several
+ * rendering threads.
+ * @author Daniel Dyer
+ */
+final class ReportTimings
+{
+    static final String FILE_NAME = "report-timings.json";
+
+    private final String reporterName;
+    private final long startTime = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private final List<FileTiming> files = new ArrayList<FileTiming>();
+    private final Map<String, Integer> resultCounts = new LinkedHashMap<String, Integer>();
+
+
+    /**
+     * @param reporterName The name of the reporter that is generating the report.
+     */
+    ReportTimings(String reporterName)
+    {
+        this.reporterName = reporterName;
+    }
+
+
+    /**
+     * Records the time taken to perform some part of a phase that is not attributable
+     * to a particular file (e.g. copying resources).
+     * @param phase The name of the phase.
+     * @param elapsedTime The elapsed time in nanoseconds.
+     */
+    public synchronized void recordPhase(String phase, long elapsedTime)
+    {
+        getPhase(phase).elapsedTime += elapsedTime;
+    }
+
+
+    /**
+     * Records the time taken to render and write a single file.
+     * @param phase The name of the phase that the file belongs to.
+     * @param file The generated file.
+     * @param elapsedTime The elapsed time in nanoseconds.
+     * @param bytes The number of bytes written (zero if the file was not written
+     * because it had not changed).
+     */
+    public synchronized void recordFile(String phase, File file, long elapsedTime, long bytes)
+    {
+        Phase summary = getPhase(phase);
+        summary.elapsedTime += elapsedTime;
+        summary.bytes += bytes;
+        ++summary.files;
+        files.add(new FileTiming(phase, file.getName(), elapsedTime, bytes));
+    }
+
+
+    /**
+     * Records the number of items (e.g. tests, passed tests, failed tests) included
+     * in the report.
+     */
+    public synchronized void recordCount(String name, int count)
+    {
+        resultCounts.put(name, count);
+    }
+
+
+    private Phase getPhase(String name)
+    {
+        Phase phase = phases.get(name);
+        if (phase == null)
+        {
+            phase = new Phase();
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+
+
+    /**
+     * Writes the timings as JSON.  Elapsed times are in microseconds.  The elapsed time of
+     * each phase is the sum of the times for its files so, if files are rendered in
+     * parallel, it may be greater than the total elapsed time.
+     * @param outputDirectory The directory in which to write the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(File outputDirectory) throws IOException
+    {
+        long totalTime = System.nanoTime() - startTime;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputDirectory,
+                                                                                                FILE_NAME)),
+                                                                  "UTF-8"));
+        try
+        {
+            JSONWriter json = new JSONWriter(writer);
+            json.beginObject();
+            json.name("reporter").value(reporterName);
+            json.name("elapsedMicros").value(toMicros(totalTime));
+            json.name("results").beginObject();
+            for (Map.Entry<String, Integer> entry : resultCounts.entrySet())
+            {
+                json.name(entry.getKey()).value(entry.getValue());
+            }
+            json.endObject();
+            json.name("phases").beginArray();
+            for (Map.Entry<String, Phase> entry : phases.entrySet())
+            {
+                json.beginObject();
+                json.name("name").value(entry.getKey());
+                json.name("elapsedMicros").value(toMicros(entry.getValue().elapsedTime));
+                json.name("files").value(entry.getValue().files);
+                json.name("bytes").value(entry.getValue().bytes);
+                json.endObject();
+            }
+            json.endArray();
+            json.name("files").beginArray();
+            for (FileTiming file : files)
+            {
+                json.beginObject();
+                json.name("name").value(file.name);
+                json.name("phase").value(file.phase);
+                json.name("elapsedMicros").value(toMicros(file.elapsedTime));
+                json.name("bytes").value(file.bytes);
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            writer.write('\n');
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+
+    private static long toMicros(long nanos)
+    {
+        return nanos / 1000;
+    }
+
+
+    private static final class Phase
+    {
+        private long elapsedTime = 0;
+        private int files = 0;
+        private long bytes = 0;
+    }
+
+
+    private static final class FileTiming
+    {
+        private final String phase;
+        private final String name;
+        private final long elapsedTime;
+        private final long bytes;
+
+
+        FileTiming(String phase, String name, long elapsedTime, long bytes)
+        {
+            this.phase = phase;
+            this.name = name;
+            this.elapsedTime = elapsedTime;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,557 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.IResultMap;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.SkipException;
+
+/**
+ * A compact binary record of the data that ReportNG needs from a test run, so that
+ * the results of several runs (e.g. one logical suite split across several machines)
+ * can later be merged into a single report (see {@link ReportMerger}) without the
+ * original TestNG objects.
+ * <p>
+ * The archive is a sequence of tagged records.  Strings are length-prefixed UTF-8
+ * (a length of -1 means null).  Log output, which is usually the bulk of the data,
+ * is not loaded when an archive is read.  Instead the position of each line is
+ * recorded and the line is read from the file if and when it is rendered, so that
+ * merging does not need to hold all of the output in memory.
+ * @author Daniel Dyer
+ */
+final class ResultsArchive
+{
+    static final String FILE_NAME = "reportng-results.bin";
+
+    private static final int MAGIC = 0x524E4741; // "RNGA"
+    private static final int VERSION = 2;
+    private static final String ENCODING = "UTF-8";
+
+    // Record tags.
+    private static final int END = 0;
+    private static final int SUITE = 1;
+    private static final int GROUP = 2;
+    private static final int TEST = 3;
+    private static final int RESULT = 4;
+    private static final int END_TEST = 5;
+    private static final int END_SUITE = 6;
+    private static final int LOG = 7;
+
+    // The result map that a result belongs to.
+    static final int PASSED_CONFIGURATION = 0;
+    static final int SKIPPED_CONFIGURATION = 1;
+    static final int FAILED_CONFIGURATION = 2;
+    static final int PASSED_TEST = 3;
+    static final int SKIPPED_TEST = 4;
+    static final int FAILED_TEST = 5;
+
+    // The annotation of each kind of configuration method, and the method of
+    // ITestNGMethod that identifies it.
+    private static final String[] CONFIGURATION_ANNOTATIONS = {"@BeforeSuite", "@AfterSuite",
+                                                               "@BeforeTest", "@AfterTest",
+                                                               "@BeforeGroups", "@AfterGroups",
+                                                               "@BeforeClass", "@AfterClass",
+                                                               "@BeforeMethod", "@AfterMethod"};
+    private static final String[] CONFIGURATION_METHODS = {"isBeforeSuiteConfiguration", "isAfterSuiteConfiguration",
+                                                           "isBeforeTestConfiguration", "isAfterTestConfiguration",
+                                                           "isBeforeGroupsConfiguration", "isAfterGroupsConfiguration",
+                                                           "isBeforeClassConfiguration", "isAfterClassConfiguration",
+                                                           "isBeforeMethodConfiguration", "isAfterMethodConfiguration"};
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+
+
+    /**
+     * Opens an archive for reading.
+     * @param file The archive file.
+     * @throws IOException If the file cannot be opened.
+     */
+    ResultsArchive(File file) throws IOException
+    {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+    }
+
+
+    /**
+     * Writes an archive of the specified results.
+     * @param suites The results to write.
+     * @param log The log output from all tests.
+     * @param utils Used to retrieve the log output of each test and to format arguments.
+     * @param file The archive file to create.
+     * @throws IOException If the archive cannot be written.
+     */
+    static void write(List<ISuite> suites, List<String> log, ReportNGUtils utils, File file) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            for (ISuite suite : suites)
+            {
+                output.writeByte(SUITE);
+                writeString(suite.getName(), output);
+                for (Map.Entry<String, Collection<ITestNGMethod>> entry : suite.getMethodsByGroups().entrySet())
+                {
+                    for (ITestNGMethod method : entry.getValue())
+                    {
+                        output.writeByte(GROUP);
+                        writeString(entry.getKey(), output);
+                        writeString(method.getTestClass().getName(), output);
+                        writeString(method.getMethodName(), output);
+                    }
+                }
+                for (ISuiteResult suiteResult : suite.getResults().values())
+                {
+                    ITestContext context = suiteResult.getTestContext();
+                    output.writeByte(TEST);
+                    writeString(context.getName(), output);
+                    output.writeLong(context.getStartDate().getTime());
+                    output.writeLong(context.getEndDate().getTime());
+                    writeResults(context.getPassedConfigurations(), PASSED_CONFIGURATION, utils, output);
+                    writeResults(context.getSkippedConfigurations(), SKIPPED_CONFIGURATION, utils, output);
+                    writeResults(context.getFailedConfigurations(), FAILED_CONFIGURATION, utils, output);
+                    writeResults(context.getPassedTests(), PASSED_TEST, utils, output);
+                    writeResults(context.getSkippedTests(), SKIPPED_TEST, utils, output);
+                    writeResults(context.getFailedTests(), FAILED_TEST, utils, output);
+                    output.writeByte(END_TEST);
+                }
+                output.writeByte(END_SUITE);
+            }
+            output.writeByte(LOG);
+            writeStrings(log, output);
+            output.writeByte(END);
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+
+    private static void writeResults(IResultMap results,
+                                     int kind,
+                                     ReportNGUtils utils,
+                                     DataOutputStream output) throws IOException
+    {
+        for (ITestResult result : results.getAllResults())
+        {
+            ITestNGMethod method = result.getMethod();
+            output.writeByte(RESULT);
+            output.writeByte(kind);
+            writeString(result.getTestClass().getName(), output);
+            writeString(method.getMethodName(), output);
+            writeString(method.getDescription(), output);
+            writeString(ConfigurationStatistics.getAnnotation(method), output);
+            writeStrings(method.getGroupsDependedUpon(), output);
+            writeStrings(method.getMethodsDependedUpon(), output);
+            writeString(result.getName(), output);
+            writeString(result.getTestName(), output);
+            output.writeInt(result.getStatus());
+            output.writeLong(result.getStartMillis());
+            output.writeLong(result.getEndMillis());
+            Object[] parameters = result.getParameters();
+            output.writeInt(parameters.length);
+            for (Object parameter : parameters)
+            {
+                // Only the formatted arguments are needed for the report.
+                writeString(utils.renderArgument(parameter), output);
+            }
+            writeThrowable(result.getThrowable(), output);
+            writeStrings(utils.getTestOutput(result), output);
+        }
+    }
+
+
+    private static void writeThrowable(Throwable throwable, DataOutputStream output) throws IOException
+    {
+        output.writeBoolean(throwable != null);
+        if (throwable != null)
+        {
+            writeString(ArchivedThrowable.getType(throwable), output);
+            writeString(throwable.getMessage(), output);
+            output.writeBoolean(throwable instanceof SkipException
+                                || (throwable instanceof ArchivedThrowable
+                                    && ((ArchivedThrowable) throwable).isSkipException()));
+            StackTraceElement[] stackTrace = throwable.getStackTrace();
+            output.writeInt(stackTrace.length);
+            for (StackTraceElement element : stackTrace)
+            {
+                writeString(element.getClassName(), output);
+                writeString(element.getMethodName(), output);
+                writeString(element.getFileName(), output);
+                output.writeInt(element.getLineNumber());
+            }
+            writeThrowable(throwable.getCause(), output);
+        }
+    }
+
+
+    private static void writeStrings(String[] strings, DataOutputStream output) throws IOException
+    {
+        output.writeInt(strings.length);
+        for (String string : strings)
+        {
+            writeString(string, output);
+        }
+    }
+
+
+    private static void writeStrings(List<String> strings, DataOutputStream output) throws IOException
+    {
+        output.writeInt(strings.size());
+        for (String string : strings)
+        {
+            writeString(string, output);
+        }
+    }
+
+
+    private static void writeString(String string, DataOutputStream output) throws IOException
+    {
+        if (string == null)
+        {
+            output.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = string.getBytes(ENCODING);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+
+    /**
+     * Reads the archive, passing each suite, test and result to the merger.  Log output
+     * is not read at this point.  Instead it is read on demand when the merged report is
+     * generated, so the archive must not be closed until then.
+     * @param merger The merger that combines the contents of several archives.
+     * @throws IOException If the archive cannot be read or is not a valid archive.
+     */
+    void read(ReportMerger merger) throws IOException
+    {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        DataInputStream input = new DataInputStream(counter);
+        try
+        {
+            if (input.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a ReportNG results archive.");
+            }
+            int version = input.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported archive version (" + version + "): " + file);
+            }
+            for (int tag = input.readByte(); tag != END; tag = input.readByte())
+            {
+                switch (tag)
+                {
+                    case SUITE:
+                    {
+                        merger.startSuite(readString(input));
+                        break;
+                    }
+                    case GROUP:
+                    {
+                        merger.addGroupMethod(readString(input), readString(input), readString(input));
+                        break;
+                    }
+                    case TEST:
+                    {
+                        merger.startTest(readString(input), input.readLong(), input.readLong());
+                        break;
+                    }
+                    case RESULT:
+                    {
+                        readResult(input, counter, merger);
+                        break;
+                    }
+                    case END_TEST:
+                    {
+                        merger.endTest();
+                        break;
+                    }
+                    case END_SUITE:
+                    {
+                        merger.endSuite();
+                        break;
+                    }
+                    case LOG:
+                    {
+                        merger.addLog(readLines(input, counter));
+                        break;
+                    }
+                    default:
+                    {
+                        throw new IOException("Corrupt results archive (unknown record " + tag + "): " + file);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+
+    private void readResult(DataInputStream input, CountingInputStream counter, ReportMerger merger) throws IOException
+    {
+        int kind = input.readByte();
+        String className = readString(input);
+        Map<String, Object> method = new HashMap<String, Object>();
+        method.put("getMethodName", readString(input));
+        method.put("getDescription", readString(input));
+        String annotation = readString(input);
+        for (int i = 0; i < CONFIGURATION_METHODS.length; i++)
+        {
+            method.put(CONFIGURATION_METHODS[i], CONFIGURATION_ANNOTATIONS[i].equals(annotation));
+        }
+        method.put("getGroupsDependedUpon", readStrings(input));
+        method.put("getMethodsDependedUpon", readStrings(input));
+        method.put("isTest", kind >= PASSED_TEST);
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("getName", readString(input));
+        result.put("getTestName", readString(input));
+        int status = input.readInt();
+        result.put("getStatus", status);
+        result.put("isSuccess", status == ITestResult.SUCCESS);
+        result.put("getStartMillis", input.readLong());
+        result.put("getEndMillis", input.readLong());
+        Object[] parameters = new Object[input.readInt()];
+        for (int i = 0; i < parameters.length; i++)
+        {
+            parameters[i] = new FormattedArgument(readString(input));
+        }
+        result.put("getParameters", parameters);
+        result.put("getThrowable", readThrowable(input));
+        result.put("getOutput", readLines(input, counter));
+        merger.addResult(kind, className, method, result);
+    }
+
+
+    private ArchivedThrowable readThrowable(DataInputStream input) throws IOException
+    {
+        if (!input.readBoolean())
+        {
+            return null;
+        }
+        String type = readString(input);
+        String message = readString(input);
+        boolean skipException = input.readBoolean();
+        StackTraceElement[] stackTrace = new StackTraceElement[input.readInt()];
+        for (int i = 0; i < stackTrace.length; i++)
+        {
+            stackTrace[i] = new StackTraceElement(readString(input),
+                                                  readString(input),
+                                                  readString(input),
+                                                  input.readInt());
+        }
+        return new ArchivedThrowable(type, message, stackTrace, readThrowable(input), skipException);
+    }
+
+
+    /**
+     * Records the positions of a list of strings, without reading them.
+     * @return A list that reads the strings from the archive on demand.
+     */
+    private List<String> readLines(DataInputStream input, CountingInputStream counter) throws IOException
+    {
+        int count = input.readInt();
+        if (count == 0)
+        {
+            return Collections.emptyList();
+        }
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            positions[i] = counter.getPosition();
+            int length = input.readInt();
+            if (length > 0)
+            {
+                skipFully(input, length);
+            }
+        }
+        return new ArchivedLines(this, positions);
+    }
+
+
+    private static void skipFully(DataInputStream input, int length) throws IOException
+    {
+        int remaining = length;
+        while (remaining > 0)
+        {
+            int skipped = input.skipBytes(remaining);
+            if (skipped <= 0)
+            {
+                throw new IOException("Unexpected end of results archive.");
+            }
+            remaining -= skipped;
+        }
+    }
+
+
+    private static String[] readStrings(DataInputStream input) throws IOException
+    {
+        String[] strings = new String[input.readInt()];
+        for (int i = 0; i < strings.length; i++)
+        {
+            strings[i] = readString(input);
+        }
+        return strings;
+    }
+
+
+    private static String readString(DataInput input) throws IOException
+    {
+        int length = input.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+
+    /**
+     * Reads a single string from the archive.  Strings may be read concurrently by
+     * several rendering threads.
+     * @param position The position of the string's length prefix in the file.
+     * @return The string.
+     * @throws IOException If the string cannot be read.
+     */
+    synchronized String readString(long position) throws IOException
+    {
+        randomAccessFile.seek(position);
+        return readString(randomAccessFile);
+    }
+
+
+    /**
+     * Closes the archive once the merged report has been generated.
+     * @throws IOException If the archive cannot be closed.
+     */
+    void close() throws IOException
+    {
+        randomAccessFile.close();
+    }
+
+
+    /**
+     * An argument that has already been formatted for display (by
+     * {@link ReportNGUtils#renderArgument(Object)}) before it was archived.
+     */
+    private static final class FormattedArgument
+    {
+        private final String text;
+
+
+        FormattedArgument(String text)
+        {
+            this.text = text;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return text;
+        }
+    }
+
+
+    /**
+     * Keeps track of how far through the archive has been read, so that the positions
+     * of strings can be recorded.
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private long position = 0;
+
+
+        CountingInputStream(InputStream input)
+        {
+            super(input);
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                ++position;
+            }
+            return b;
+        }
+
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int count = super.read(buffer, offset, length);
+            if (count > 0)
+            {
+                position += count;
+            }
+            return count;
+        }
+
+
+        @Override
+        public long skip(long count) throws IOException
+        {
+            long skipped = super.skip(count);
+            position += skipped;
+            return skipped;
+        }
+
+
+        long getPosition()
+        {
+            return position;
+        }
+    }
+}
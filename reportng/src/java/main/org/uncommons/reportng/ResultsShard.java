@@ -0,0 +1,192 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import org.testng.IClass;
+import org.testng.ITestResult;
+
+/**
+ * One page of the results for a test whose results have been split into one page
+ * per test class (see {@link ReportMetadata#getShardThreshold()}).  Records the
+ * outcome of the class's results so that the summary and navigation pages can link
+ * to the page without having to re-scan the results.
+ * @author Daniel Dyer
+ */
+public final class ResultsShard
+{
+    private final IClass testClass;
+    private final String summaryFileName;
+    private String fileName;
+    private int passed = 0;
+    private int skipped = 0;
+    private int failed = 0;
+    private int skippedConfigurations = 0;
+    private int failedConfigurations = 0;
+    private long duration = 0;
+
+
+    /**
+     * @param testClass The class whose results are on this page.
+     * @param summaryFileName The name of the test's summary page.
+     */
+    ResultsShard(IClass testClass, String summaryFileName)
+    {
+        this.testClass = testClass;
+        this.summaryFileName = summaryFileName;
+    }
+
+
+    /**
+     * Adds a result to the totals for this page.
+     * @param result A test or configuration method result for this page's class.
+     * @param configuration Whether the result is for a configuration method.
+     */
+    void addResult(ITestResult result, boolean configuration)
+    {
+        switch (result.getStatus())
+        {
+            case ITestResult.SUCCESS:
+            {
+                ++passed;
+                break;
+            }
+            case ITestResult.SKIP:
+            {
+                if (configuration)
+                {
+                    ++skippedConfigurations;
+                }
+                else
+                {
+                    ++skipped;
+                }
+                break;
+            }
+            default:
+            {
+                if (configuration)
+                {
+                    ++failedConfigurations;
+                }
+                else
+                {
+                    ++failed;
+                }
+            }
+        }
+        duration += result.getEndMillis() - result.getStartMillis();
+    }
+
+
+    void setFileName(String fileName)
+    {
+        this.fileName = fileName;
+    }
+
+
+    public IClass getTestClass()
+    {
+        return testClass;
+    }
+
+
+    /**
+     * @return The fully-qualified name of the test class.
+     */
+    public String getName()
+    {
+        return testClass.getName();
+    }
+
+
+    /**
+     * @return The name of the test class without its package, for display where
+     * space is limited.
+     */
+    public String getShortName()
+    {
+        String name = testClass.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+
+    /**
+     * @return The name of the file that contains the results for this class.
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+
+    /**
+     * @return The name of the summary page that links to all of the test's pages.
+     */
+    public String getSummaryFileName()
+    {
+        return summaryFileName;
+    }
+
+
+    public int getPassed()
+    {
+        return passed;
+    }
+
+
+    public int getSkipped()
+    {
+        return skipped;
+    }
+
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+
+    /**
+     * @return The total number of test results for this class (excluding configuration
+     * methods).
+     */
+    public int getTotal()
+    {
+        return passed + skipped + failed;
+    }
+
+
+    public int getSkippedConfigurations()
+    {
+        return skippedConfigurations;
+    }
+
+
+    public int getFailedConfigurations()
+    {
+        return failedConfigurations;
+    }
+
+
+    /**
+     * @return The aggregate of the elapsed times of the class's test methods and any
+     * failed or skipped configuration methods, in milliseconds.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+}
@@ -0,0 +1,627 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * The durations and outcomes of test methods over recent runs, so that the report
+ * can show how each method's duration has changed (as a sparkline and as the
+ * difference from the median of the previous runs).
+ * <p>
+ * History is kept in an append-only, tab-separated text file.  Each run adds a header
+ * line followed by one line per test method and one per test, so recording a run
+ * never requires the existing history to be re-written.  Only the configured number
+ * of runs is retained (see {@link ReportMetadata#getHistorySize()}).  Once the file
+ * holds twice that many runs, it is re-written without the evicted runs, so the cost
+ * of eviction is spread across many runs.
+ * <p>
+ * The previous runs are loaded into a hash table keyed by suite, test, class and
+ * method, so the trend for each method is found in constant time regardless of how
+ * many methods there are.
+ * @author Daniel Dyer
+ */
+public final class RunHistory
+{
+    private static final String ENCODING = "UTF-8";
+    private static final String RUN_HEADER = "#run\t";
+    private static final String METHOD_RECORD = "M";
+    private static final String TEST_RECORD = "T";
+    private static final char PASSED = 'P';
+    private static final char SKIPPED = 'S';
+    private static final char FAILED = 'F';
+
+    private final File file;
+    private final int size;
+
+    /**
+     * Durations from previous runs, keyed by suite, test and (for methods) class and
+     * method.  This is not modified once the history has been loaded.
+     */
+    private final Map<String, Series> previousRuns = new HashMap<String, Series>();
+    private int runsOnFile = 0;
+
+    /**
+     * Records for the current run, to be appended to the file.
+     */
+    private final List<String> currentRun = new ArrayList<String>();
+    private final Set<String> recordedTests = new HashSet<String>();
+    private final Map<String, Trend> trends = new ConcurrentHashMap<String, Trend>();
+
+
+    private RunHistory(File file, int size)
+    {
+        this.file = file;
+        this.size = size;
+    }
+
+
+    /**
+     * Loads the history of previous runs.  Lines that cannot be parsed (e.g. because
+     * an earlier run was killed while writing them) are ignored.
+     * @param file The history file.  It is created when the history is first saved.
+     * @param size The number of runs (including the current run) to retain.
+     * @return The loaded history.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    static RunHistory load(File file, int size) throws IOException
+    {
+        RunHistory history = new RunHistory(file, size);
+        if (file.exists())
+        {
+            history.read();
+        }
+        return history;
+    }
+
+
+    private void read() throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try
+        {
+            int run = -1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                if (line.startsWith(RUN_HEADER))
+                {
+                    ++run;
+                }
+                else if (run >= 0)
+                {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 6)
+                    {
+                        try
+                        {
+                            long duration = Long.parseLong(fields[5]);
+                            String key = fields[0].equals(TEST_RECORD)
+                                         ? getKey(fields[1], fields[2])
+                                         : getKey(fields[1], fields[2], fields[3]);
+                            Series series = previousRuns.get(key);
+                            if (series == null)
+                            {
+                                series = new Series();
+                                previousRuns.put(key, series);
+                            }
+                            series.add(run, duration);
+                        }
+                        catch (NumberFormatException ex)
+                        {
+                            // Ignore the incomplete record.
+                        }
+                    }
+                }
+            }
+            runsOnFile = run + 1;
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        // Discard runs that are outside of the retention window.
+        int firstRetainedRun = getFirstRetainedRun();
+        Iterator<Series> iterator = previousRuns.values().iterator();
+        while (iterator.hasNext())
+        {
+            Series series = iterator.next();
+            series.discardBefore(firstRetainedRun);
+            if (series.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * @return The index of the oldest run on file that is retained once the current
+     * run has been added.
+     */
+    private int getFirstRetainedRun()
+    {
+        return Math.max(0, runsOnFile - (size - 1));
+    }
+
+
+    /**
+     * Records the durations and outcomes of the methods in a test for the current run.
+     * Each test is only recorded once, even if this method is called several times.
+     * @param context The test to record.
+     */
+    void record(ITestContext context)
+    {
+        String suiteName = clean(context.getSuite().getName());
+        String testName = clean(context.getName());
+        synchronized (recordedTests)
+        {
+            if (!recordedTests.add(getKey(suiteName, testName)))
+            {
+                return;
+            }
+        }
+
+        Map<String, Sample> samples = new LinkedHashMap<String, Sample>();
+        addSamples(context.getPassedConfigurations().getAllResults(), samples);
+        addSamples(context.getSkippedConfigurations().getAllResults(), samples);
+        addSamples(context.getFailedConfigurations().getAllResults(), samples);
+        addSamples(context.getPassedTests().getAllResults(), samples);
+        addSamples(context.getSkippedTests().getAllResults(), samples);
+        addSamples(context.getFailedTests().getAllResults(), samples);
+
+        List<String> records = new ArrayList<String>(samples.size() + 1);
+        Sample total = new Sample();
+        for (Map.Entry<String, Sample> entry : samples.entrySet())
+        {
+            Sample sample = entry.getValue();
+            records.add(METHOD_RECORD + '\t' + suiteName + '\t' + testName + '\t' + entry.getKey()
+                        + '\t' + sample.outcome + '\t' + sample.duration);
+            addTrend(getKey(suiteName, testName, entry.getKey()), sample.duration);
+            total.add(sample.duration, sample.outcome);
+        }
+        records.add(TEST_RECORD + '\t' + suiteName + '\t' + testName + "\t\t" + total.outcome + '\t' + total.duration);
+        addTrend(getKey(suiteName, testName), total.duration);
+        synchronized (currentRun)
+        {
+            currentRun.addAll(records);
+        }
+    }
+
+
+    /**
+     * Adds the durations of the specified results to the totals for their methods.
+     * Methods that are invoked several times (e.g. with a data provider) are recorded
+     * as the total of all invocations.
+     */
+    private void addSamples(Set<ITestResult> results, Map<String, Sample> samples)
+    {
+        for (ITestResult result : results)
+        {
+            String method = getMethodName(result);
+            Sample sample = samples.get(method);
+            if (sample == null)
+            {
+                sample = new Sample();
+                samples.put(method, sample);
+            }
+            sample.add(result.getEndMillis() - result.getStartMillis(), getOutcome(result.getStatus()));
+        }
+    }
+
+
+    private void addTrend(String key, long duration)
+    {
+        Series series = previousRuns.get(key);
+        if (series != null)
+        {
+            trends.put(key, new Trend(series.getDurations(), duration));
+        }
+    }
+
+
+    /**
+     * @param result A test result from the current run.
+     * @return True if there is history for the result's method.
+     */
+    public boolean hasTrend(ITestResult result)
+    {
+        return getTrend(result) != null;
+    }
+
+
+    /**
+     * @param result A test result from the current run.
+     * @return The trend for the result's method, or null if the method has no history.
+     */
+    public Trend getTrend(ITestResult result)
+    {
+        ITestContext context = result.getTestContext();
+        return trends.get(getKey(clean(context.getSuite().getName()),
+                                 clean(context.getName()),
+                                 getMethodName(result)));
+    }
+
+
+    /**
+     * @param context A test from the current run.
+     * @return True if there is history for the test.
+     */
+    public boolean hasTestTrend(ITestContext context)
+    {
+        return getTestTrend(context) != null;
+    }
+
+
+    /**
+     * @param context A test from the current run.
+     * @return The trend for the test's total duration, or null if the test has no history.
+     */
+    public Trend getTestTrend(ITestContext context)
+    {
+        return trends.get(getKey(clean(context.getSuite().getName()), clean(context.getName())));
+    }
+
+
+    /**
+     * Appends the current run to the history file, first evicting old runs if the file
+     * has grown to twice the retention size.
+     * @throws IOException If the history file cannot be written.
+     */
+    void save() throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+        {
+            parent.mkdirs();
+        }
+        synchronized (currentRun)
+        {
+            if (runsOnFile + 1 > size * 2)
+            {
+                compact();
+                runsOnFile -= getFirstRetainedRun();
+            }
+            else
+            {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), ENCODING));
+                try
+                {
+                    writeCurrentRun(writer);
+                }
+                finally
+                {
+                    writer.close();
+                }
+            }
+            ++runsOnFile;
+        }
+    }
+
+
+    /**
+     * Re-writes the history file, omitting runs that are outside of the retention
+     * window, and adds the current run.  The existing file is streamed rather than
+     * re-written from memory, so that incomplete records are dropped rather than
+     * reconstructed.
+     */
+    private void compact() throws IOException
+    {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        int firstRetainedRun = getFirstRetainedRun();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), ENCODING));
+        try
+        {
+            int run = -1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                if (line.startsWith(RUN_HEADER))
+                {
+                    ++run;
+                }
+                if (run >= firstRetainedRun)
+                {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+            writeCurrentRun(writer);
+        }
+        finally
+        {
+            reader.close();
+            writer.close();
+        }
+        if (!file.delete() || !temporaryFile.renameTo(file))
+        {
+            throw new IOException("Failed replacing history file " + file);
+        }
+    }
+
+
+    private void writeCurrentRun(Writer writer) throws IOException
+    {
+        writer.write(RUN_HEADER + System.currentTimeMillis() + '\n');
+        for (String record : currentRun)
+        {
+            writer.write(record);
+            writer.write('\n');
+        }
+    }
+
+
+    private static String getMethodName(ITestResult result)
+    {
+        return clean(result.getTestClass().getName() + '#' + result.getMethod().getMethodName());
+    }
+
+
+    private static String getKey(String suiteName, String testName)
+    {
+        return suiteName + '\t' + testName;
+    }
+
+
+    private static String getKey(String suiteName, String testName, String methodName)
+    {
+        return suiteName + '\t' + testName + '\t' + methodName;
+    }
+
+
+    /**
+     * Replaces any characters that would break the structure of the history file.
+     */
+    private static String clean(String name)
+    {
+        return name.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+
+    private static char getOutcome(int status)
+    {
+        switch (status)
+        {
+            case ITestResult.SUCCESS: return PASSED;
+            case ITestResult.SKIP: return SKIPPED;
+            default: return FAILED;
+        }
+    }
+
+
+    /**
+     * The combined duration and outcome of all invocations of a method (or of all
+     * methods in a test) in the current run.  Any failure outranks any skip, which
+     * outranks success.
+     */
+    private static final class Sample
+    {
+        private long duration = 0;
+        private char outcome = PASSED;
+
+
+        void add(long duration, char outcome)
+        {
+            this.duration += duration;
+            if (outcome == FAILED || (outcome == SKIPPED && this.outcome == PASSED))
+            {
+                this.outcome = outcome;
+            }
+        }
+    }
+
+
+    /**
+     * The durations of one method (or test) in previous runs, oldest first.
+     */
+    private static final class Series
+    {
+        private int[] runs = new int[4];
+        private long[] durations = new long[4];
+        private int count = 0;
+
+
+        void add(int run, long duration)
+        {
+            if (count > 0 && runs[count - 1] == run)
+            {
+                // The same method recorded twice in one run; treat it as one sample.
+                durations[count - 1] += duration;
+                return;
+            }
+            if (count == runs.length)
+            {
+                resize(0, count * 2);
+            }
+            runs[count] = run;
+            durations[count] = duration;
+            ++count;
+        }
+
+
+        void discardBefore(int firstRun)
+        {
+            int first = 0;
+            while (first < count && runs[first] < firstRun)
+            {
+                ++first;
+            }
+            if (first > 0)
+            {
+                count -= first;
+                resize(first, Math.max(count, 1));
+            }
+        }
+
+
+        private void resize(int offset, int capacity)
+        {
+            int[] newRuns = new int[capacity];
+            long[] newDurations = new long[capacity];
+            System.arraycopy(runs, offset, newRuns, 0, count);
+            System.arraycopy(durations, offset, newDurations, 0, count);
+            runs = newRuns;
+            durations = newDurations;
+        }
+
+
+        boolean isEmpty()
+        {
+            return count == 0;
+        }
+
+
+        long[] getDurations()
+        {
+            long[] copy = new long[count];
+            System.arraycopy(durations, 0, copy, 0, count);
+            return copy;
+        }
+    }
+
+
+    /**
+     * How the duration of a method (or test) in the current run compares with its
+     * durations in previous runs.
+     */
+    public static final class Trend
+    {
+        /**
+         * Differences of less than this proportion of the median, or of less than the
+         * minimum number of milliseconds, are not highlighted.
+         */
+        private static final double SIGNIFICANT_CHANGE = 0.2;
+        private static final long MINIMUM_SIGNIFICANT_CHANGE = 100;
+
+        /**
+         * Unicode block elements of increasing height, used to draw sparklines.
+         */
+        private static final int FIRST_BLOCK = 0x2581;
+        private static final int BLOCK_COUNT = 8;
+
+        private final long[] previousDurations;
+        private final long duration;
+        private final long median;
+
+
+        /**
+         * @param previousDurations Durations in previous runs, oldest first.
+         * @param duration The duration in the current run.
+         */
+        Trend(long[] previousDurations, long duration)
+        {
+            this.previousDurations = previousDurations;
+            this.duration = duration;
+            long[] sorted = previousDurations.clone();
+            Arrays.sort(sorted);
+            int middle = sorted.length / 2;
+            this.median = sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+        }
+
+
+        /**
+         * @return The number of previous runs that the trend is based on.
+         */
+        public int getRuns()
+        {
+            return previousDurations.length;
+        }
+
+
+        /**
+         * @return The median duration of the previous runs, in milliseconds.
+         */
+        public long getMedian()
+        {
+            return median;
+        }
+
+
+        /**
+         * @return The duration of the current run minus the median of the previous
+         * runs, in milliseconds.
+         */
+        public long getDelta()
+        {
+            return duration - median;
+        }
+
+
+        /**
+         * @return The CSS class used to highlight significant changes.
+         */
+        public String getStyleClass()
+        {
+            long delta = getDelta();
+            if (Math.abs(delta) <= Math.max(median * SIGNIFICANT_CHANGE, MINIMUM_SIGNIFICANT_CHANGE))
+            {
+                return "delta";
+            }
+            return delta > 0 ? "delta slower" : "delta faster";
+        }
+
+
+        /**
+         * @return The durations of the previous runs and the current run as a sparkline,
+         * using HTML character references so that it does not depend on the encoding of
+         * the report.
+         */
+        public String getSparkline()
+        {
+            long min = duration;
+            long max = duration;
+            for (long previous : previousDurations)
+            {
+                min = Math.min(min, previous);
+                max = Math.max(max, previous);
+            }
+            StringBuilder buffer = new StringBuilder((previousDurations.length + 1) * 7);
+            for (long previous : previousDurations)
+            {
+                appendBlock(previous, min, max, buffer);
+            }
+            appendBlock(duration, min, max, buffer);
+            return buffer.toString();
+        }
+
+
+        private static void appendBlock(long value, long min, long max, StringBuilder buffer)
+        {
+            int level = max == min ? 0 : (int) ((value - min) * (BLOCK_COUNT - 1) / (max - min));
+            buffer.append("&#").append(FIRST_BLOCK + level).append(';');
+        }
+    }
+}
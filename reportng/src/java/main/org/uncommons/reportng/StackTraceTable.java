@@ -0,0 +1,186 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the distinct stack traces that have been rendered in a single page
+ * or file so that identical traces (e.g. from many tests that fail because of the
+ * same broken fixture) are only rendered in full once.  Throwables are considered
+ * identical if they have the same type, message and stack frames, and the same
+ * chain of causes.  A table is used by a single page so it is not thread-safe.
+ * @author Daniel Dyer
+ */
+public final class StackTraceTable
+{
+    private final Map<Long, List<Reference>> traces = new HashMap<Long, List<Reference>>();
+    private final boolean deduplicate;
+
+
+    /**
+     * @param deduplicate If false, every trace is treated as a first occurrence so
+     * that all traces are rendered in full.
+     */
+    public StackTraceTable(boolean deduplicate)
+    {
+        this.deduplicate = deduplicate;
+    }
+
+
+    /**
+     * Look-up a stack trace, registering it if it has not been seen before.
+     * @param throwable The throwable to look-up.
+     * @param id The identifier to use for the trace if this is its first occurrence.
+     * @param name A description of where the trace first occurred (e.g. a test name).
+     * @return A reference to the first occurrence of the trace.  If this is the first
+     * occurrence, the reference will have the specified ID and name.
+     */
+    public Reference register(Throwable throwable, int id, String name)
+    {
+        if (!deduplicate)
+        {
+            return new Reference(throwable, id, name, true);
+        }
+        long hash = hash(throwable);
+        List<Reference> candidates = traces.get(hash);
+        if (candidates == null)
+        {
+            candidates = new ArrayList<Reference>(1);
+            traces.put(hash, candidates);
+        }
+        else
+        {
+            // Different traces can have the same hash so check that the traces really
+            // are identical.
+            for (Reference candidate : candidates)
+            {
+                if (isSameTrace(candidate.throwable, throwable))
+                {
+                    return new Reference(candidate.throwable, candidate.id, candidate.name, false);
+                }
+            }
+        }
+        Reference reference = new Reference(throwable, id, name, true);
+        candidates.add(reference);
+        return reference;
+    }
+
+
+    /**
+     * @return The number of distinct stack traces registered so far.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (List<Reference> candidates : traces.values())
+        {
+            size += candidates.size();
+        }
+        return size;
+    }
+
+
+    static long hash(Throwable throwable)
+    {
+        long hash = 17;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            hash = 31 * hash + ArchivedThrowable.getType(t).hashCode();
+            hash = 31 * hash + (t.getMessage() == null ? 0 : t.getMessage().hashCode());
+            for (StackTraceElement element : t.getStackTrace())
+            {
+                hash = 31 * hash + element.hashCode();
+            }
+        }
+        return hash;
+    }
+
+
+    static boolean isSameTrace(Throwable throwable1, Throwable throwable2)
+    {
+        Throwable t1 = throwable1;
+        Throwable t2 = throwable2;
+        while (t1 != null && t2 != null)
+        {
+            if (t1 != t2)
+            {
+                if (!ArchivedThrowable.getType(t1).equals(ArchivedThrowable.getType(t2))
+                    || !(t1.getMessage() == null ? t2.getMessage() == null : t1.getMessage().equals(t2.getMessage()))
+                    || !Arrays.equals(t1.getStackTrace(), t2.getStackTrace()))
+                {
+                    return false;
+                }
+            }
+            t1 = t1.getCause();
+            t2 = t2.getCause();
+        }
+        return t1 == null && t2 == null;
+    }
+
+
+    /**
+     * A reference to the first occurrence of a stack trace.
+     */
+    public static final class Reference
+    {
+        private final Throwable throwable;
+        private final int id;
+        private final String name;
+        private final boolean firstOccurrence;
+
+
+        private Reference(Throwable throwable, int id, String name, boolean firstOccurrence)
+        {
+            this.throwable = throwable;
+            this.id = id;
+            this.name = name;
+            this.firstOccurrence = firstOccurrence;
+        }
+
+
+        /**
+         * @return The identifier assigned to the trace when it first occurred.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+
+        /**
+         * @return A description of where the trace first occurred.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+
+        /**
+         * @return True if the trace had not been seen before, in which case it should
+         * be rendered in full.  False if the trace is a duplicate.
+         */
+        public boolean isFirstOccurrence()
+        {
+            return firstOccurrence;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+import org.testng.xml.XmlSuite;
+
+/**
+ * A variant of the {@link HTMLReporter} that writes the results page for each test
+ * as soon as that test finishes, rather than waiting until the end of the run.  This
+ * spreads the cost of rendering across the test run and means that, if the run is
+ * killed before it completes, the results of every finished test are still available.
+ * The overview and navigation pages are refreshed when each suite finishes and are
+ * written for the final time when TestNG invokes the reporter at the end of the run.
+ * This class must be registered as a TestNG listener (not just as a reporter) in
+ * order to receive the test and suite events.
+ * @author Daniel Dyer
+ */
+public class StreamingHTMLReporter extends HTMLReporter implements ISuiteListener, ITestListener
+{
+    private final List<ISuite> suites = new ArrayList<ISuite>();
+    private final Map<ISuite, Integer> testCounts = new HashMap<ISuite, Integer>();
+    private final Map<ITestContext, File> resultsFiles = new HashMap<ITestContext, File>();
+
+    private File outputDirectory = null;
+
+
+    public synchronized void onStart(ISuite suite)
+    {
+        if (outputDirectory == null)
+        {
+            // TestNG uses a sub-directory of the main output directory for each suite.
+            File rootDirectory = new File(suite.getOutputDirectory()).getParentFile();
+            removeEmptyDirectories(rootDirectory);
+            outputDirectory = new File(rootDirectory, REPORT_DIRECTORY);
+            outputDirectory.mkdirs();
+            startTimings();
+            try
+            {
+                // Write the static parts of the report straight away so that any
+                // partial report is viewable.
+                if (useFrames())
+                {
+                    inPhase("createFrameset", createFrameset(outputDirectory)).call();
+                }
+                long startTime = System.nanoTime();
+                copyResources(outputDirectory);
+                recordPhase("copyResources", startTime);
+                loadHistory();
+            }
+            catch (Exception ex)
+            {
+                throw new ReportNGException("Failed generating HTML report.", ex);
+            }
+        }
+        suites.add(suite);
+        testCounts.put(suite, 0);
+    }
+
+
+    /**
+     * Renders the results page for the test that has just finished.
+     */
+    public void onFinish(ITestContext context)
+    {
+        File file;
+        synchronized (this)
+        {
+            ISuite suite = context.getSuite();
+            if (!suites.contains(suite))
+            {
+                return;
+            }
+            // Tests are numbered in the order that they finish.  This is normally the same as
+            // the order in which TestNG records them in the suite's results.  If not (e.g. when
+            // tests run in parallel), the page is re-written when the suite finishes.
+            int testIndex = testCounts.get(suite) + 1;
+            testCounts.put(suite, testIndex);
+            file = new File(outputDirectory, getResultsFileName(suites.indexOf(suite) + 1, testIndex));
+            resultsFiles.put(context, file);
+        }
+        recordHistory(context);
+        TestStatistics testStatistics = TestStatistics.forTest(context);
+        if (!onlyShowFailures() || testStatistics.hasFailures())
+        {
+            createResultsFile(context, testStatistics, file);
+        }
+    }
+
+
+    /**
+     * Makes sure that the results pages for the suite that has just finished are correctly
+     * numbered, writes the suite's analysis pages (timeline, durations, critical path and
+     * configuration) and then refreshes the overview and navigation pages.
+     */
+    public synchronized void onFinish(ISuite suite)
+    {
+        int suiteIndex = suites.indexOf(suite) + 1;
+        SuiteStatistics statistics = SuiteStatistics.forSuite(suite);
+        // Work out where every page belongs before deleting or writing anything.  Tests
+        // may swap positions, in which case a page must not be deleted once another test
+        // has been written to the same file.
+        Map<ITestContext, File> movedFiles = new LinkedHashMap<ITestContext, File>();
+        List<File> previousFiles = new ArrayList<File>();
+        int testIndex = 1;
+        for (ISuiteResult result : suite.getResults().values())
+        {
+            ITestContext context = result.getTestContext();
+            File file = new File(outputDirectory, getResultsFileName(suiteIndex, testIndex));
+            File previousFile = resultsFiles.put(context, file);
+            if (!file.equals(previousFile))
+            {
+                movedFiles.put(context, file);
+                if (previousFile != null)
+                {
+                    previousFiles.add(previousFile);
+                }
+            }
+            ++testIndex;
+        }
+        // Remove the pages that no test now occupies, and whatever is currently in the
+        // files that are about to be re-written (including any per-class pages of the
+        // test that used to be there).
+        for (File previousFile : previousFiles)
+        {
+            if (!resultsFiles.containsValue(previousFile))
+            {
+                deleteResultsFiles(previousFile);
+            }
+        }
+        for (File file : movedFiles.values())
+        {
+            deleteResultsFiles(file);
+        }
+        for (Map.Entry<ITestContext, File> entry : movedFiles.entrySet())
+        {
+            TestStatistics testStatistics = statistics.getTest(entry.getKey());
+            if (!onlyShowFailures() || testStatistics.hasFailures())
+            {
+                createResultsFile(entry.getKey(), testStatistics, entry.getValue());
+            }
+        }
+        // The suite's analysis pages are complete now that all of its methods have run.
+        try
+        {
+            List<FileTask> tasks = new ArrayList<FileTask>();
+            if (!suite.getAllInvokedMethods().isEmpty())
+            {
+                tasks.add(inPhase("createChronologies", createChronology(suite, suiteIndex, outputDirectory)));
+            }
+            if (hasDurations(statistics))
+            {
+                tasks.add(inPhase("createDurations", createDurations(suite, suiteIndex, outputDirectory)));
+            }
+            if (UTILS.hasDependencies(suite))
+            {
+                tasks.add(inPhase("createCriticalPaths", createCriticalPath(suite, suiteIndex, outputDirectory)));
+            }
+            if (UTILS.hasConfigurations(suite))
+            {
+                tasks.add(inPhase("createConfigurations", createConfiguration(suite, suiteIndex, outputDirectory)));
+            }
+            generateFiles(tasks);
+        }
+        catch (Exception ex)
+        {
+            throw new ReportNGException("Failed generating HTML report.", ex);
+        }
+        generateIndexPages(suites);
+    }
+
+
+    /**
+     * Writes the final versions of the overview, navigation, groups and log pages.  The
+     * results pages have already been written as each test finished.
+     * @param suites Data about the test runs.
+     * @param outputDirectoryName The directory in which to create the report.
+     */
+    @Override
+    public synchronized void generateReport(List<XmlSuite> xmlSuites,
+                                            List<ISuite> suites,
+                                            String outputDirectoryName)
+    {
+        if (outputDirectory == null || !this.suites.containsAll(suites))
+        {
+            // We didn't receive the listener events so generate the whole report the
+            // conventional way.
+            super.generateReport(xmlSuites, suites, outputDirectoryName);
+        }
+        else
+        {
+            ReportModel model = generateIndexPages(this.suites);
+            try
+            {
+                generateFiles(inPhase("createLog", createLog(outputDirectory, onlyShowFailures())));
+                recordCounts(model.getStatistics());
+                saveHistory();
+                finishTimings(outputDirectory);
+            }
+            catch (Exception ex)
+            {
+                throw new ReportNGException("Failed generating HTML report.", ex);
+            }
+        }
+    }
+
+
+    private void createResultsFile(ITestContext context, TestStatistics testStatistics, File file)
+    {
+        try
+        {
+            ISuiteResult result = new TestContextResult(context);
+            TestResults testResults = TestResults.forTest(context, testStatistics, META.getThreadCount());
+            generateFiles(inPhase("createResults", createResultsFiles(result, testResults, file)));
+        }
+        catch (Exception ex)
+        {
+            throw new ReportNGException("Failed generating HTML report.", ex);
+        }
+    }
+
+
+    /**
+     * Deletes a results page that has been superseded, along with any files that
+     * belong to it (virtual results data files and per-class pages), all of which
+     * are named after the page.
+     */
+    private void deleteResultsFiles(File file)
+    {
+        String name = file.getName();
+        String baseName = name.substring(0, name.lastIndexOf('.'));
+        File[] files = file.getParentFile().listFiles();
+        if (files != null)
+        {
+            for (File candidate : files)
+            {
+                if (candidate.getName().startsWith(baseName + '.') || candidate.getName().startsWith(baseName + '-'))
+                {
+                    candidate.delete();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the overview and navigation pages and the groups pages for each suite.
+     * @param suites The suites in the order in which they were started.
+     * @return The model from which the pages were rendered.
+     */
+    private ReportModel generateIndexPages(List<ISuite> suites)
+    {
+        boolean onlyFailures = onlyShowFailures();
+        try
+        {
+            ReportModel model = ReportModel.forSuites(suites, META.getThreadCount());
+            List<FileTask> tasks = new ArrayList<FileTask>();
+            tasks.add(inPhase("createOverview",
+                              createOverview(suites, model.getStatistics(), outputDirectory, !useFrames(), onlyFailures)));
+            tasks.add(inPhase("createSuiteList", createSuiteList(model, outputDirectory, onlyFailures)));
+            tasks.addAll(inPhase("createGroups", createGroups(suites, outputDirectory)));
+            generateFiles(tasks);
+            return model;
+        }
+        catch (Exception ex)
+        {
+            throw new ReportNGException("Failed generating HTML report.", ex);
+        }
+    }
+
+
+    public void onStart(ITestContext context)
+    {
+        // Do nothing.
+    }
+
+
+    public void onTestStart(ITestResult result)
+    {
+        // Do nothing.
+    }
+
+
+    public void onTestSuccess(ITestResult result)
+    {
+        // Do nothing.
+    }
+
+
+    public void onTestFailure(ITestResult result)
+    {
+        // Do nothing.
+    }
+
+
+    public void onTestSkipped(ITestResult result)
+    {
+        // Do nothing.
+    }
+
+
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result)
+    {
+        // Do nothing.
+    }
+
+
+    /**
+     * TestNG only creates the {@link ISuiteResult} for a test after the test has
+     * finished and its listeners have been notified, so we use this adapter to
+     * render the results page from the test context alone.
+     */
+    private static final class TestContextResult implements ISuiteResult
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ITestContext testContext;
+
+
+        TestContextResult(ITestContext testContext)
+        {
+            this.testContext = testContext;
+        }
+
+
+        public String getPropertyFileName()
+        {
+            return testContext.getSuite().getXmlSuite().getFileName();
+        }
+
+
+        public ITestContext getTestContext()
+        {
+            return testContext;
+        }
+    }
+}
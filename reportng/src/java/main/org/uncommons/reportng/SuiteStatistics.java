@@ -0,0 +1,144 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+
+/**
+ * Immutable summary of the outcome of a TestNG suite, made up of the
+ * {@link TestStatistics} for each of its tests plus the suite totals.
+ * @author Daniel Dyer
+ */
+public final class SuiteStatistics
+{
+    private final Map<ITestContext, TestStatistics> tests;
+    private final int passed;
+    private final int skipped;
+    private final int failed;
+    private final long duration;
+
+
+    private SuiteStatistics(Map<ITestContext, TestStatistics> tests)
+    {
+        this.tests = Collections.unmodifiableMap(tests);
+        int passed = 0;
+        int skipped = 0;
+        int failed = 0;
+        long duration = 0;
+        for (TestStatistics test : tests.values())
+        {
+            passed += test.getPassed();
+            skipped += test.getSkipped();
+            failed += test.getFailed();
+            duration += test.getDuration();
+        }
+        this.passed = passed;
+        this.skipped = skipped;
+        this.failed = failed;
+        this.duration = duration;
+    }
+
+
+    /**
+     * Calculate the statistics for a single suite.
+     * @param suite The suite.
+     * @return The statistics for the suite and each of its tests.
+     */
+    public static SuiteStatistics forSuite(ISuite suite)
+    {
+        Map<ITestContext, TestStatistics> tests = new LinkedHashMap<ITestContext, TestStatistics>();
+        for (ISuiteResult result : suite.getResults().values())
+        {
+            tests.put(result.getTestContext(), TestStatistics.forTest(result.getTestContext()));
+        }
+        return new SuiteStatistics(tests);
+    }
+
+
+    /**
+     * Calculate the statistics for several suites.
+     * @param suites The suites.
+     * @return A map of statistics, keyed by suite.
+     */
+    public static Map<ISuite, SuiteStatistics> forSuites(List<ISuite> suites)
+    {
+        Map<ISuite, SuiteStatistics> statistics = new LinkedHashMap<ISuite, SuiteStatistics>();
+        for (ISuite suite : suites)
+        {
+            statistics.put(suite, forSuite(suite));
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+
+    /**
+     * @param context One of the tests in this suite.
+     * @return The statistics for the specified test.
+     */
+    public TestStatistics getTest(ITestContext context)
+    {
+        return tests.get(context);
+    }
+
+
+    /**
+     * @return The statistics for each test in the suite.
+     */
+    public Collection<TestStatistics> getTests()
+    {
+        return tests.values();
+    }
+
+
+    public int getPassed()
+    {
+        return passed;
+    }
+
+
+    public int getSkipped()
+    {
+        return skipped;
+    }
+
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+
+    public int getTotal()
+    {
+        return passed + skipped + failed;
+    }
+
+
+    /**
+     * @return The aggregate of the durations of all tests in the suite, in milliseconds.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+}
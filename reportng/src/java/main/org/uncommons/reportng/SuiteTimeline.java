@@ -0,0 +1,568 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * How the threads of a suite were used over time, built from the suite's invoked
+ * methods.  Each thread is shown as a lane of method invocations so that idle gaps
+ * and stragglers are visible, and each test is summarised by its wall-clock time,
+ * the summed duration of its methods, its effective parallelism and the proportion
+ * of thread time that was spent idle.  The invocations are sorted once and all of
+ * the lanes and metrics are then built in a single pass.
+ * @author Daniel Dyer
+ */
+public final class SuiteTimeline
+{
+    /**
+     * Invocations narrower than this fraction of the timeline are merged with any
+     * adjacent narrow invocations on the same lane, so that the size of the page
+     * depends on the width of the timeline rather than on the number of invocations.
+     */
+    private static final int RESOLUTION = 2000;
+
+    private final long startTime;
+    private final long endTime;
+    private final List<Lane> lanes;
+    private final List<TestUtilisation> tests;
+    private final long busyTime;
+
+
+    private SuiteTimeline(long startTime,
+                          long endTime,
+                          List<Lane> lanes,
+                          List<TestUtilisation> tests,
+                          long busyTime)
+    {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.lanes = Collections.unmodifiableList(lanes);
+        this.tests = Collections.unmodifiableList(tests);
+        this.busyTime = busyTime;
+    }
+
+
+    /**
+     * Builds the timeline for a suite.  Each invocation is placed in the lane of the
+     * thread that TestNG recorded for it.  If that is unknown, or if the invocation
+     * overlaps the previous one in that lane (TestNG only records the most recent
+     * thread for each method), it is placed in the first additional lane that is
+     * free at the time.
+     * @param suite The suite to analyse.
+     * @param utils Used to calculate the summed duration of each test.
+     * @return The timeline, which is empty if the suite has no invoked methods.
+     */
+    public static SuiteTimeline forSuite(ISuite suite, ReportNGUtils utils)
+    {
+        List<IInvokedMethod> methods = copyInvokedMethods(suite);
+        List<Invocation> invocations = new ArrayList<Invocation>(methods.size());
+        for (IInvokedMethod method : methods)
+        {
+            ITestResult result = method.getTestResult();
+            // TestNG may also list the invocations of other suites that ran in the same JVM.
+            if (result != null && (result.getTestContext() == null || result.getTestContext().getSuite() == suite))
+            {
+                invocations.add(new Invocation(method, result));
+            }
+        }
+        Invocation[] sorted = invocations.toArray(new Invocation[invocations.size()]);
+        Arrays.sort(sorted);
+
+        long startTime = sorted.length == 0 ? 0 : sorted[0].start;
+        long endTime = startTime;
+        for (Invocation invocation : sorted)
+        {
+            endTime = Math.max(endTime, invocation.end);
+        }
+        long resolution = Math.max(1, (endTime - startTime) / RESOLUTION);
+
+        List<Lane> lanes = new ArrayList<Lane>();
+        List<Lane> unknownLanes = new ArrayList<Lane>();
+        Map<String, Lane> threadLanes = new HashMap<String, Lane>();
+        Map<ITestContext, TestUtilisation> tests = new IdentityHashMap<ITestContext, TestUtilisation>();
+        long busyTime = 0;
+        for (Invocation invocation : sorted)
+        {
+            Lane lane = invocation.threadId == null ? null : threadLanes.get(invocation.threadId);
+            if (lane == null && invocation.threadId != null)
+            {
+                lane = new Lane(utils.stripThreadName(invocation.threadId));
+                threadLanes.put(invocation.threadId, lane);
+                lanes.add(lane);
+            }
+            if (lane == null || lane.lastEnd > invocation.start)
+            {
+                lane = getFreeLane(unknownLanes, invocation.start);
+                if (lane == null)
+                {
+                    lane = new Lane(null);
+                    unknownLanes.add(lane);
+                }
+            }
+            lane.add(invocation, startTime, endTime, resolution);
+            busyTime += invocation.end - invocation.start;
+
+            ITestContext context = invocation.result.getTestContext();
+            if (context != null)
+            {
+                TestUtilisation test = tests.get(context);
+                if (test == null)
+                {
+                    test = new TestUtilisation(context, utils.getDuration(context));
+                    tests.put(context, test);
+                }
+                test.addLane(lane);
+            }
+        }
+        lanes.addAll(unknownLanes);
+
+        // List the tests in the same order as the rest of the report.
+        List<TestUtilisation> testList = new ArrayList<TestUtilisation>(tests.size());
+        for (ISuiteResult result : suite.getResults().values())
+        {
+            TestUtilisation test = tests.remove(result.getTestContext());
+            if (test != null)
+            {
+                testList.add(test);
+            }
+        }
+        testList.addAll(tests.values());
+        return new SuiteTimeline(startTime, endTime, lanes, testList, busyTime);
+    }
+
+
+    /**
+     * TestNG adds to the (synchronized) list of invoked methods while the suite is
+     * running, so it is copied with the list's lock held in case the timeline is built
+     * before the suite has finished (see {@link LiveReportListener}).
+     */
+    static List<IInvokedMethod> copyInvokedMethods(ISuite suite)
+    {
+        List<IInvokedMethod> methods = suite.getAllInvokedMethods();
+        synchronized (methods)
+        {
+            return new ArrayList<IInvokedMethod>(methods);
+        }
+    }
+
+
+    private static Lane getFreeLane(List<Lane> lanes, long time)
+    {
+        for (Lane lane : lanes)
+        {
+            if (lane.lastEnd <= time)
+            {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return lanes.isEmpty();
+    }
+
+
+    /**
+     * @return The time at which the first invocation started.
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+
+    /**
+     * @return The time between the start of the first invocation and the end of
+     * the last one.
+     */
+    public long getWallTime()
+    {
+        return endTime - startTime;
+    }
+
+
+    /**
+     * @return The summed durations of all invocations in the suite.
+     */
+    public long getBusyTime()
+    {
+        return busyTime;
+    }
+
+
+    /**
+     * @return One lane per thread.
+     */
+    public List<Lane> getLanes()
+    {
+        return lanes;
+    }
+
+
+    /**
+     * @return Utilisation metrics for each test in the suite that has invocations.
+     */
+    public List<TestUtilisation> getTests()
+    {
+        return tests;
+    }
+
+
+    /**
+     * @return The average number of threads that were busy during the suite.
+     */
+    public String getParallelism()
+    {
+        return formatParallelism(busyTime, getWallTime());
+    }
+
+
+    /**
+     * @return The percentage of the available thread time (wall-clock time multiplied
+     * by the number of threads) during which threads were idle.
+     */
+    public String getIdlePercentage()
+    {
+        return formatIdlePercentage(busyTime, getWallTime(), lanes.size());
+    }
+
+
+    private static String formatParallelism(long busyTime, long wallTime)
+    {
+        return wallTime <= 0 ? "-" : String.format(Locale.ENGLISH, "%.2f", (double) busyTime / wallTime);
+    }
+
+
+    private static String formatIdlePercentage(long busyTime, long wallTime, int threads)
+    {
+        if (wallTime <= 0 || threads == 0)
+        {
+            return "-";
+        }
+        double idle = 1 - (double) busyTime / ((double) wallTime * threads);
+        return String.format(Locale.ENGLISH, "%.1f%%", Math.max(0, idle) * 100);
+    }
+
+
+    /**
+     * Formats a time as a percentage of the timeline's width, for positioning blocks.
+     */
+    private static String toPercentage(long time, long startTime, long endTime)
+    {
+        double fraction = endTime > startTime ? (double) time / (endTime - startTime) : 0;
+        return String.format(Locale.ENGLISH, "%.3f%%", fraction * 100);
+    }
+
+
+    /**
+     * A single method invocation, ordered by start time.
+     */
+    private static final class Invocation implements Comparable<Invocation>
+    {
+        private final IInvokedMethod method;
+        private final ITestResult result;
+        private final String threadId;
+        private final long start;
+        private final long end;
+
+
+        Invocation(IInvokedMethod method, ITestResult result)
+        {
+            this.method = method;
+            this.result = result;
+            this.threadId = method.getTestMethod() == null ? null : method.getTestMethod().getId();
+            this.start = result.getStartMillis() > 0 ? result.getStartMillis() : method.getDate();
+            this.end = Math.max(start, result.getEndMillis());
+        }
+
+
+        public int compareTo(Invocation other)
+        {
+            if (start != other.start)
+            {
+                return start < other.start ? -1 : 1;
+            }
+            return end < other.end ? -1 : (end == other.end ? 0 : 1);
+        }
+    }
+
+
+    /**
+     * The invocations that ran on one thread.
+     */
+    public static final class Lane
+    {
+        private final String threadName;
+        private final List<Block> blocks = new ArrayList<Block>();
+        private long lastEnd = Long.MIN_VALUE;
+        private long busyTime = 0;
+
+
+        Lane(String threadName)
+        {
+            this.threadName = threadName;
+        }
+
+
+        void add(Invocation invocation, long startTime, long endTime, long resolution)
+        {
+            Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            long duration = invocation.end - invocation.start;
+            if (last != null
+                && duration < resolution
+                && last.getDuration() < resolution
+                && invocation.start - last.end < resolution)
+            {
+                last.merge(invocation);
+            }
+            else
+            {
+                blocks.add(new Block(invocation, startTime, endTime));
+            }
+            lastEnd = Math.max(lastEnd, invocation.end);
+            busyTime += duration;
+        }
+
+
+        /**
+         * @return The name of the thread, or null if the thread is unknown.
+         */
+        public String getThreadName()
+        {
+            return threadName;
+        }
+
+
+        public List<Block> getBlocks()
+        {
+            return blocks;
+        }
+
+
+        public long getBusyTime()
+        {
+            return busyTime;
+        }
+    }
+
+
+    /**
+     * One invocation, or several consecutive short invocations on the same thread.
+     */
+    public static final class Block
+    {
+        private final long timelineStart;
+        private final long timelineEnd;
+        private final long start;
+        private long end;
+        private int count = 1;
+        private String label;
+        private int status;
+        private boolean configuration;
+
+
+        Block(Invocation invocation, long timelineStart, long timelineEnd)
+        {
+            this.timelineStart = timelineStart;
+            this.timelineEnd = timelineEnd;
+            this.start = invocation.start;
+            this.end = invocation.end;
+            this.label = invocation.result.getTestClass() == null
+                         ? invocation.result.getName()
+                         : invocation.result.getTestClass().getName() + '.' + invocation.result.getName();
+            this.status = invocation.result.getStatus();
+            this.configuration = invocation.method.isConfigurationMethod();
+        }
+
+
+        void merge(Invocation invocation)
+        {
+            end = Math.max(end, invocation.end);
+            ++count;
+            label = null;
+            // Failures take precedence over skips, which take precedence over passes.
+            if (getSeverity(invocation.result.getStatus()) > getSeverity(status))
+            {
+                status = invocation.result.getStatus();
+            }
+            configuration &= invocation.method.isConfigurationMethod();
+        }
+
+
+        private static int getSeverity(int status)
+        {
+            switch (status)
+            {
+                case ITestResult.SUCCESS: return 0;
+                case ITestResult.SKIP: return 1;
+                default: return 2;
+            }
+        }
+
+
+        /**
+         * @return The number of invocations represented by this block.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+
+        /**
+         * @return The fully-qualified name of the method, or null if this block
+         * represents more than one invocation.
+         */
+        public String getLabel()
+        {
+            return label;
+        }
+
+
+        public long getDuration()
+        {
+            return end - start;
+        }
+
+
+        /**
+         * @return The position of the start of the block, as a percentage of the
+         * width of the timeline.
+         */
+        public String getLeft()
+        {
+            return toPercentage(start - timelineStart, timelineStart, timelineEnd);
+        }
+
+
+        /**
+         * @return The width of the block, as a percentage of the width of the timeline.
+         */
+        public String getWidth()
+        {
+            return toPercentage(end - start, timelineStart, timelineEnd);
+        }
+
+
+        /**
+         * @return The CSS class(es) for the block, reflecting the outcome of the
+         * invocation(s) and whether they were configuration methods.
+         */
+        public String getStyleClass()
+        {
+            String outcome;
+            switch (status)
+            {
+                case ITestResult.SUCCESS: outcome = "passed"; break;
+                case ITestResult.SKIP: outcome = "skipped"; break;
+                default: outcome = "failed";
+            }
+            return configuration ? outcome + " configuration" : outcome;
+        }
+    }
+
+
+    /**
+     * How well one test made use of its threads.
+     */
+    public static final class TestUtilisation
+    {
+        private final ITestContext context;
+        private final long summedTime;
+        private final Map<Lane, Boolean> lanes = new IdentityHashMap<Lane, Boolean>();
+
+
+        TestUtilisation(ITestContext context, long summedTime)
+        {
+            this.context = context;
+            this.summedTime = summedTime;
+        }
+
+
+        void addLane(Lane lane)
+        {
+            lanes.put(lane, Boolean.TRUE);
+        }
+
+
+        public String getName()
+        {
+            return context.getName();
+        }
+
+
+        /**
+         * @return The time between the start and end of the test.
+         */
+        public long getWallTime()
+        {
+            return ReportNGUtils.getWallTime(context);
+        }
+
+
+        /**
+         * @return The summed durations of all of the test's results.
+         */
+        public long getSummedTime()
+        {
+            return summedTime;
+        }
+
+
+        /**
+         * @return The number of threads on which the test's methods ran.
+         */
+        public int getThreadCount()
+        {
+            return lanes.size();
+        }
+
+
+        /**
+         * @return The summed time divided by the wall-clock time.
+         */
+        public String getParallelism()
+        {
+            return formatParallelism(summedTime, getWallTime());
+        }
+
+
+        /**
+         * @return The percentage of the test's thread time during which threads
+         * were idle.
+         */
+        public String getIdlePercentage()
+        {
+            return formatIdlePercentage(summedTime, getWallTime(), lanes.size());
+        }
+    }
+}
@@ -28,7 +28,7 @@ class TestMethodComparator implements Comparator<ITestNGMethod>
     public int compare(ITestNGMethod method1,
                        ITestNGMethod method2)
     {
-        int compare = method1.getRealClass().getName().compareTo(method2.getRealClass().getName());
+        int compare = method1.getTestClass().getName().compareTo(method2.getTestClass().getName());
         if (compare == 0)
         {
             compare = method1.getMethodName().compareTo(method2.getMethodName());
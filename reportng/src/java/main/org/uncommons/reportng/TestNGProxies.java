@@ -0,0 +1,115 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IResultMap;
+import org.testng.ITestResult;
+
+/**
+ * Creates stand-ins for TestNG's result objects ({@link org.testng.ISuite},
+ * {@link org.testng.ITestResult} etc.) from plain maps of values, for when the
+ * results did not come from a TestNG run in this JVM (e.g. when merging archived
+ * results).  Dynamic proxies are used rather than implementations of the interfaces
+ * because the interfaces have many methods that ReportNG never uses, and because they
+ * change between the TestNG versions that ReportNG supports.
+ * @author Daniel Dyer
+ */
+final class TestNGProxies
+{
+    private TestNGProxies()
+    {
+        // Prevents instantiation.
+    }
+
+
+    /**
+     * Creates a proxy that answers no-argument methods from the specified map of
+     * method names to values.  Any other method throws an
+     * {@link UnsupportedOperationException}, so that a report never silently renders
+     * a default value in place of data that the proxy does not have.  Proxies are
+     * only equal to themselves.  The map may be modified after the proxy has been
+     * created, but not once the proxy is in use by other threads.
+     * @param type The main interface implemented by the proxy.
+     * @param values The values returned by the proxy's methods, keyed by method name.
+     * @param otherTypes Any additional interfaces that the proxy implements.
+     * @param <T> The type of the proxy.
+     * @return A new proxy.
+     */
+    static <T> T create(Class<T> type, Map<String, Object> values, Class<?>... otherTypes)
+    {
+        Class<?>[] types = new Class<?>[otherTypes.length + 1];
+        types[0] = type;
+        System.arraycopy(otherTypes, 0, types, 1, otherTypes.length);
+        return type.cast(Proxy.newProxyInstance(TestNGProxies.class.getClassLoader(),
+                                                types,
+                                                new ValuesHandler(values)));
+    }
+
+
+    /**
+     * Creates a result map containing the specified results.
+     */
+    static IResultMap createResultMap(Set<ITestResult> results)
+    {
+        Map<String, Object> resultMap = new HashMap<String, Object>();
+        resultMap.put("getAllResults", results);
+        resultMap.put("size", results.size());
+        return create(IResultMap.class, resultMap);
+    }
+
+
+    private static final class ValuesHandler implements InvocationHandler
+    {
+        private final Map<String, Object> values;
+
+
+        ValuesHandler(Map<String, Object> values)
+        {
+            this.values = values;
+        }
+
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            boolean noArgs = args == null || args.length == 0;
+            if (name.equals("equals") && !noArgs)
+            {
+                return proxy == args[0];
+            }
+            else if (name.equals("hashCode") && noArgs)
+            {
+                return System.identityHashCode(proxy);
+            }
+            else if (name.equals("toString") && noArgs)
+            {
+                return String.valueOf(values.get("getName"));
+            }
+            else if (noArgs && values.containsKey(name))
+            {
+                return values.get(name);
+            }
+            throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + '.' + name
+                                                    + " is not available.");
+        }
+    }
+}
@@ -0,0 +1,517 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.IClass;
+import org.testng.IResultMap;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * Immutable view of the results of a single TestNG test, grouped by test class (in
+ * order of class name) and sorted by method name within each class, along with the
+ * test's {@link TestStatistics}.  This is the form in which the reporters render
+ * results.  The same grouping is also available unsorted, in the order in which
+ * TestNG recorded the results, for reporters that don't sort.  Each outcome is only
+ * sorted the first time that its sorted results are needed.
+ * @author Daniel Dyer
+ */
+public final class TestResults
+{
+    /**
+     * Classes with at least this many results are sorted using several threads, if
+     * several rendering threads have been configured.
+     */
+    static final int PARALLEL_SORT_THRESHOLD = 50000;
+
+    private static final Comparator<IClass> CLASS_COMPARATOR = new TestClassComparator();
+
+    private final TestStatistics statistics;
+    private final ClassGroups failedConfigurations;
+    private final ClassGroups skippedConfigurations;
+    private final ClassGroups failedTests;
+    private final ClassGroups skippedTests;
+    private final ClassGroups passedTests;
+
+
+    private TestResults(TestStatistics statistics,
+                        ClassGroups failedConfigurations,
+                        ClassGroups skippedConfigurations,
+                        ClassGroups failedTests,
+                        ClassGroups skippedTests,
+                        ClassGroups passedTests)
+    {
+        this.statistics = statistics;
+        this.failedConfigurations = failedConfigurations;
+        this.skippedConfigurations = skippedConfigurations;
+        this.failedTests = failedTests;
+        this.skippedTests = skippedTests;
+        this.passedTests = passedTests;
+    }
+
+
+    /**
+     * Groups the results of a single test by class.
+     * @param context The test.
+     * @param statistics Summary statistics for the test.
+     * @param threads The maximum number of threads to use to sort very large classes.
+     * @return The grouped results.
+     */
+    public static TestResults forTest(ITestContext context, TestStatistics statistics, int threads)
+    {
+        return new TestResults(statistics,
+                               new ClassGroups(context.getFailedConfigurations(), threads),
+                               new ClassGroups(context.getSkippedConfigurations(), threads),
+                               new ClassGroups(context.getFailedTests(), threads),
+                               new ClassGroups(context.getSkippedTests(), threads),
+                               new ClassGroups(context.getPassedTests(), threads));
+    }
+
+
+    /**
+     * Group test methods by class and sort alphabetically.  Results are first grouped
+     * by class name in a hash table, then each class's results are sorted once on
+     * their (pre-computed) names.  Results with the same name are arranged exactly as
+     * they would be by inserting each result in turn at the position found by
+     * {@link Collections#binarySearch(List, Object, Comparator)}, which is how they
+     * were ordered before.
+     * @param results The results to sort.
+     * @param threads The maximum number of threads to use to sort very large classes.
+     * @return The results of each class, in order of class name.
+     */
+    static SortedMap<IClass, List<ITestResult>> sortByTestClass(IResultMap results, int threads)
+    {
+        return new ClassGroups(results, threads).getSorted();
+    }
+
+
+    public TestStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
+    public SortedMap<IClass, List<ITestResult>> getFailedConfigurations()
+    {
+        return failedConfigurations.getSorted();
+    }
+
+
+    public SortedMap<IClass, List<ITestResult>> getSkippedConfigurations()
+    {
+        return skippedConfigurations.getSorted();
+    }
+
+
+    public SortedMap<IClass, List<ITestResult>> getFailedTests()
+    {
+        return failedTests.getSorted();
+    }
+
+
+    public SortedMap<IClass, List<ITestResult>> getSkippedTests()
+    {
+        return skippedTests.getSorted();
+    }
+
+
+    public SortedMap<IClass, List<ITestResult>> getPassedTests()
+    {
+        return passedTests.getSorted();
+    }
+
+
+    /**
+     * @return The failed configuration results of each class, with the classes and
+     * the results of each class in the order in which TestNG recorded them.
+     */
+    public Map<IClass, List<ITestResult>> getUnsortedFailedConfigurations()
+    {
+        return failedConfigurations.getUnsorted();
+    }
+
+
+    /**
+     * @return The skipped configuration results of each class, unsorted.
+     * @see #getUnsortedFailedConfigurations()
+     */
+    public Map<IClass, List<ITestResult>> getUnsortedSkippedConfigurations()
+    {
+        return skippedConfigurations.getUnsorted();
+    }
+
+
+    /**
+     * @return The failed test results of each class, unsorted.
+     * @see #getUnsortedFailedConfigurations()
+     */
+    public Map<IClass, List<ITestResult>> getUnsortedFailedTests()
+    {
+        return failedTests.getUnsorted();
+    }
+
+
+    /**
+     * @return The skipped test results of each class, unsorted.
+     * @see #getUnsortedFailedConfigurations()
+     */
+    public Map<IClass, List<ITestResult>> getUnsortedSkippedTests()
+    {
+        return skippedTests.getUnsorted();
+    }
+
+
+    /**
+     * @return The passed test results of each class, unsorted.
+     * @see #getUnsortedFailedConfigurations()
+     */
+    public Map<IClass, List<ITestResult>> getUnsortedPassedTests()
+    {
+        return passedTests.getUnsorted();
+    }
+
+
+    /**
+     * The results of one outcome (e.g. failed tests), grouped by class in a single
+     * pass.  The classes and the results within each class are kept in the order in
+     * which TestNG recorded them, and are sorted on demand.
+     */
+    private static final class ClassGroups
+    {
+        private final Map<IClass, List<ITestResult>> unsorted;
+        private final List<ClassResults> classes;
+        private final int threads;
+        private volatile SortedMap<IClass, List<ITestResult>> sorted = null;
+
+
+        ClassGroups(IResultMap results, int threads)
+        {
+            Map<String, ClassResults> classesByName = new LinkedHashMap<String, ClassResults>();
+            for (ITestResult result : results.getAllResults())
+            {
+                IClass testClass = result.getTestClass();
+                ClassResults classResults = classesByName.get(testClass.getName());
+                if (classResults == null)
+                {
+                    classResults = new ClassResults(testClass);
+                    classesByName.put(testClass.getName(), classResults);
+                }
+                classResults.add(result);
+            }
+            Map<IClass, List<ITestResult>> unsorted = new LinkedHashMap<IClass, List<ITestResult>>();
+            for (ClassResults classResults : classesByName.values())
+            {
+                unsorted.put(classResults.testClass, Collections.unmodifiableList(classResults.results));
+            }
+            this.unsorted = Collections.unmodifiableMap(unsorted);
+            this.classes = new ArrayList<ClassResults>(classesByName.values());
+            this.threads = threads;
+        }
+
+
+        Map<IClass, List<ITestResult>> getUnsorted()
+        {
+            return unsorted;
+        }
+
+
+        SortedMap<IClass, List<ITestResult>> getSorted()
+        {
+            SortedMap<IClass, List<ITestResult>> sortedResults = sorted;
+            if (sortedResults == null)
+            {
+                // Concurrent callers may both sort the results, but they produce
+                // identical results so it doesn't matter which one is kept.  There are
+                // usually far fewer classes than results, so the cost of sorting the
+                // classes themselves is insignificant.
+                sortedResults = new TreeMap<IClass, List<ITestResult>>(CLASS_COMPARATOR);
+                for (ClassResults classResults : classes)
+                {
+                    sortedResults.put(classResults.testClass, classResults.sort(threads));
+                }
+                sortedResults = Collections.unmodifiableSortedMap(sortedResults);
+                sorted = sortedResults;
+            }
+            return sortedResults;
+        }
+    }
+
+
+    /**
+     * The results of a single class, in the order in which they were recorded.  When
+     * they are sorted, they are paired with their names so that the names are only
+     * retrieved once per result rather than once per comparison.
+     */
+    private static final class ClassResults
+    {
+        private final IClass testClass;
+        private final List<ITestResult> results = new ArrayList<ITestResult>();
+
+
+        ClassResults(IClass testClass)
+        {
+            this.testClass = testClass;
+        }
+
+
+        void add(ITestResult result)
+        {
+            results.add(result);
+        }
+
+
+        List<ITestResult> sort(int threads)
+        {
+            SortKey[] sortedKeys = new SortKey[results.size()];
+            for (int i = 0; i < sortedKeys.length; i++)
+            {
+                ITestResult result = results.get(i);
+                sortedKeys[i] = new SortKey(result.getName(), i, result);
+            }
+            if (threads > 1 && sortedKeys.length >= PARALLEL_SORT_THRESHOLD)
+            {
+                parallelSort(sortedKeys, threads);
+            }
+            else
+            {
+                Arrays.sort(sortedKeys);
+            }
+            arrangeTies(sortedKeys);
+            List<ITestResult> sortedResults = new ArrayList<ITestResult>(sortedKeys.length);
+            for (SortKey key : sortedKeys)
+            {
+                sortedResults.add(key.result);
+            }
+            return Collections.unmodifiableList(sortedResults);
+        }
+
+
+        /**
+         * Sorts equal-sized chunks of the array concurrently and then sorts the whole
+         * array, which for a merge sort amounts to merging the sorted chunks.
+         */
+        private static void parallelSort(final SortKey[] keys, int threads)
+        {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try
+            {
+                int chunkSize = (keys.length + threads - 1) / threads;
+                List<Future<?>> chunks = new ArrayList<Future<?>>(threads);
+                for (int start = 0; start < keys.length; start += chunkSize)
+                {
+                    final int from = start;
+                    final int to = Math.min(keys.length, start + chunkSize);
+                    chunks.add(executor.submit(new Runnable()
+                    {
+                        public void run()
+                        {
+                            Arrays.sort(keys, from, to);
+                        }
+                    }));
+                }
+                for (Future<?> chunk : chunks)
+                {
+                    chunk.get();
+                }
+            }
+            catch (Exception ex)
+            {
+                throw new ReportNGException("Failed sorting test results.", ex);
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+            Arrays.sort(keys);
+        }
+    }
+
+
+    /**
+     * Re-orders each run of results with the same name (which the stable sort leaves in
+     * the order in which they were added) into the order that binary insertion would
+     * have produced.  When a name is already present, the binary search stops at
+     * whichever of the equal results it reaches first, and that depends only on how
+     * many results had been inserted, how many of those have earlier names and how many
+     * have the same name.  So the offset at which each result was inserted into its run
+     * can be calculated without building the list, and the insertions then replayed.
+     */
+    private static void arrangeTies(SortKey[] keys)
+    {
+        // The results with names before the current run, by the order in which they were added.
+        Counts earlier = new Counts(keys.length);
+        int start = 0;
+        while (start < keys.length)
+        {
+            int end = start + 1;
+            while (end < keys.length && keys[end].name.equals(keys[start].name))
+            {
+                ++end;
+            }
+            if (end - start > 1)
+            {
+                SortKey[] run = new SortKey[end - start];
+                int[] offsets = new int[run.length];
+                for (int i = 0; i < run.length; i++)
+                {
+                    run[i] = keys[start + i];
+                    offsets[i] = getInsertionOffset(run[i].index, earlier.countBefore(run[i].index), i);
+                }
+                // Working backwards, each result ends up in the free position at its
+                // offset, since only the results inserted after it could have moved it.
+                Counts free = new Counts(run.length);
+                for (int i = 0; i < run.length; i++)
+                {
+                    free.add(i, 1);
+                }
+                for (int i = run.length - 1; i >= 0; i--)
+                {
+                    int position = free.find(offsets[i]);
+                    free.add(position, -1);
+                    keys[start + position] = run[i];
+                }
+            }
+            for (int i = start; i < end; i++)
+            {
+                earlier.add(keys[i].index, 1);
+            }
+            start = end;
+        }
+    }
+
+
+    /**
+     * Repeats the search performed by {@link Collections#binarySearch(List, Object, Comparator)}
+     * for a result with a name that is already in the list.
+     * @param size The number of results already in the list.
+     * @param before The number of results in the list with earlier names.
+     * @param same The number of results in the list with the same name.
+     * @return The offset, within the results with the same name, at which the search stops.
+     */
+    private static int getInsertionOffset(int size, int before, int same)
+    {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (mid < before)
+            {
+                low = mid + 1;
+            }
+            else if (mid >= before + same)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid - before;
+            }
+        }
+        // The name is not in the list yet.
+        return 0;
+    }
+
+
+    /**
+     * Counts of the positions that have been marked, from which the number of marks
+     * before a position, and the position of the nth mark, can be found in logarithmic
+     * time (a Fenwick tree).
+     */
+    private static final class Counts
+    {
+        private final int[] tree;
+
+
+        Counts(int size)
+        {
+            this.tree = new int[size + 1];
+        }
+
+
+        void add(int position, int delta)
+        {
+            for (int i = position + 1; i < tree.length; i += i & -i)
+            {
+                tree[i] += delta;
+            }
+        }
+
+
+        int countBefore(int position)
+        {
+            int count = 0;
+            for (int i = position; i > 0; i -= i & -i)
+            {
+                count += tree[i];
+            }
+            return count;
+        }
+
+
+        /**
+         * @param n The number of marks to skip.
+         * @return The position of the mark after the first n.
+         */
+        int find(int n)
+        {
+            int position = 0;
+            for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1)
+            {
+                if (position + step < tree.length && tree[position + step] <= n)
+                {
+                    position += step;
+                    n -= tree[position];
+                }
+            }
+            return position;
+        }
+    }
+
+
+    private static final class SortKey implements Comparable<SortKey>
+    {
+        private final String name;
+        private final int index;
+        private final ITestResult result;
+
+
+        SortKey(String name, int index, ITestResult result)
+        {
+            this.name = name;
+            this.index = index;
+            this.result = result;
+        }
+
+
+        public int compareTo(SortKey other)
+        {
+            return name.compareTo(other.name);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.Set;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+/**
+ * Immutable summary of the outcome of a single TestNG test (i.e. a single
+ * {@literal <test>} element in a suite).  All of the figures are calculated in a
+ * single pass over the test's results so that templates can refer to them as
+ * often as they like without re-scanning the result maps.
+ * @author Daniel Dyer
+ */
+public final class TestStatistics
+{
+    private final String name;
+    private final int passed;
+    private final int skipped;
+    private final int failed;
+    private final int passedConfigurations;
+    private final int skippedConfigurations;
+    private final int failedConfigurations;
+    private final long duration;
+
+
+    private TestStatistics(String name,
+                           int passed,
+                           int skipped,
+                           int failed,
+                           int passedConfigurations,
+                           int skippedConfigurations,
+                           int failedConfigurations,
+                           long duration)
+    {
+        this.name = name;
+        this.passed = passed;
+        this.skipped = skipped;
+        this.failed = failed;
+        this.passedConfigurations = passedConfigurations;
+        this.skippedConfigurations = skippedConfigurations;
+        this.failedConfigurations = failedConfigurations;
+        this.duration = duration;
+    }
+
+
+    /**
+     * Calculate the statistics for a single test.
+     * @param context The results of the test.
+     * @return The statistics for the test.
+     */
+    public static TestStatistics forTest(ITestContext context)
+    {
+        Set<ITestResult> passed = context.getPassedTests().getAllResults();
+        Set<ITestResult> skipped = context.getSkippedTests().getAllResults();
+        Set<ITestResult> failed = context.getFailedTests().getAllResults();
+        Set<ITestResult> passedConfigurations = context.getPassedConfigurations().getAllResults();
+        Set<ITestResult> skippedConfigurations = context.getSkippedConfigurations().getAllResults();
+        Set<ITestResult> failedConfigurations = context.getFailedConfigurations().getAllResults();
+        // You would expect skipped tests to have durations of zero, but apparently not.
+        long duration = getDuration(passed)
+                        + getDuration(skipped)
+                        + getDuration(failed)
+                        + getDuration(passedConfigurations)
+                        + getDuration(skippedConfigurations)
+                        + getDuration(failedConfigurations);
+        return new TestStatistics(context.getName(),
+                                  passed.size(),
+                                  skipped.size(),
+                                  failed.size(),
+                                  passedConfigurations.size(),
+                                  skippedConfigurations.size(),
+                                  failedConfigurations.size(),
+                                  duration);
+    }
+
+
+    private static long getDuration(Set<ITestResult> results)
+    {
+        long duration = 0;
+        for (ITestResult result : results)
+        {
+            duration += (result.getEndMillis() - result.getStartMillis());
+        }
+        return duration;
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    public int getPassed()
+    {
+        return passed;
+    }
+
+
+    public int getSkipped()
+    {
+        return skipped;
+    }
+
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+
+    /**
+     * @return The total number of test method invocations (excluding configuration
+     * methods).
+     */
+    public int getTotal()
+    {
+        return passed + skipped + failed;
+    }
+
+
+    public int getPassedConfigurations()
+    {
+        return passedConfigurations;
+    }
+
+
+    public int getSkippedConfigurations()
+    {
+        return skippedConfigurations;
+    }
+
+
+    public int getFailedConfigurations()
+    {
+        return failedConfigurations;
+    }
+
+
+    /**
+     * @return The aggregate of the elapsed times of all test and configuration
+     * methods, in milliseconds.
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+
+    /**
+     * @return The proportion of tests that passed (between zero and one), or zero
+     * if there were no tests.
+     */
+    public double getPassRate()
+    {
+        return getTotal() > 0 ? passed / (double) getTotal() : 0;
+    }
+
+
+    /**
+     * @return True if any tests or configuration methods failed, false otherwise.
+     */
+    public boolean hasFailures()
+    {
+        return failed > 0 || failedConfigurations > 0;
+    }
+}
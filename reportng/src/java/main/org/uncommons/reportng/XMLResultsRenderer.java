@@ -0,0 +1,188 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.Writer;
+import java.util.ResourceBundle;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.testng.ITestResult;
+
+/**
+ * Renders the JUnit XML results file for a single test class directly from Java
+ * code.  This produces the same elements and attributes as the {@literal results.xml.vm}
+ * template but streams them through an {@link XMLStreamWriter}, so escaping is done
+ * by the XML writer as the content is written rather than by building intermediate
+ * strings, and there is none of the overhead of Velocity's reflective evaluation of
+ * template references.
+ * @author Daniel Dyer
+ */
+final class XMLResultsRenderer
+{
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * A CDATA section cannot contain this sequence, so any occurrences have to be
+     * split across two sections.
+     */
+    private static final String CDATA_END = "]]>";
+
+    private final ReportNGUtils utils;
+    private final ResourceBundle messages;
+
+
+    /**
+     * @param utils Helper methods for formatting report content.
+     * @param messages Localised report text.
+     */
+    XMLResultsRenderer(ReportNGUtils utils, ResourceBundle messages)
+    {
+        this.utils = utils;
+        this.messages = messages;
+    }
+
+
+    public void render(JUnitXMLReporter.TestClassResults results, Writer writer) throws XMLStreamException
+    {
+        String className = results.getTestClass().getName();
+        int totalTests = results.getPassedTests().size()
+                         + results.getSkippedTests().size()
+                         + results.getFailedTests().size();
+        XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(writer);
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeCharacters("\n");
+        xml.writeStartElement("testsuite");
+        xml.writeAttribute("name", results.getTestClass().getXmlTest().getName());
+        xml.writeAttribute("tests", String.valueOf(totalTests));
+        xml.writeAttribute("failures", String.valueOf(results.getFailedTests().size()));
+        xml.writeAttribute("errors", "0");
+        xml.writeAttribute("skipped", String.valueOf(results.getSkippedTests().size()));
+        xml.writeAttribute("time", utils.formatDuration(results.getDuration()));
+        xml.writeCharacters("\n  ");
+        xml.writeEmptyElement("properties");
+
+        for (ITestResult testResult : results.getFailedTests())
+        {
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("testcase");
+            writeTestCaseAttributes(xml, className, testResult, true);
+            xml.writeCharacters("\n    ");
+            Throwable throwable = testResult.getThrowable();
+            if (throwable != null)
+            {
+                xml.writeStartElement("failure");
+                xml.writeAttribute("type", utils.getThrowableType(throwable));
+                xml.writeAttribute("message", throwable.getMessage() != null ? throwable.getMessage() : "(null)");
+                xml.writeCharacters("\n");
+                StringBuilder trace = new StringBuilder(throwable.toString()).append('\n');
+                // CI servers read each test case on its own, so every failure gets its
+                // full stack trace (stack traces are only de-duplicated in the HTML report).
+                appendStackTrace(throwable, trace);
+                for (Throwable cause : utils.getCauses(throwable))
+                {
+                    trace.append(messages.getString("causedBy")).append(": ").append(cause.toString()).append('\n');
+                    appendStackTrace(cause, trace);
+                }
+                writeCData(xml, trace.toString());
+                xml.writeCharacters("\n    ");
+                xml.writeEndElement();
+            }
+            else
+            {
+                xml.writeEmptyElement("failure");
+                xml.writeAttribute("type", "Unknown");
+                xml.writeAttribute("message", testResult.getStatus() == ITestResult.SKIP ? "Skipped" : "Unknown");
+            }
+            xml.writeCharacters("\n  ");
+            xml.writeEndElement();
+        }
+
+        for (ITestResult testResult : results.getSkippedTests())
+        {
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("testcase");
+            writeTestCaseAttributes(xml, className, testResult, false);
+            xml.writeCharacters("\n    ");
+            xml.writeEmptyElement("skipped");
+            xml.writeCharacters("\n  ");
+            xml.writeEndElement();
+        }
+
+        for (ITestResult testResult : results.getPassedTests())
+        {
+            xml.writeCharacters("\n  ");
+            xml.writeEmptyElement("testcase");
+            writeTestCaseAttributes(xml, className, testResult, true);
+        }
+
+        xml.writeCharacters("\n");
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+        xml.writeEndDocument();
+        xml.flush();
+        xml.close();
+    }
+
+
+    /**
+     * Test instances with names are identified by appending the instance name
+     * to the class name.
+     * @param timed False if the time attribute should always be zero (as for
+     * skipped tests).
+     */
+    private void writeTestCaseAttributes(XMLStreamWriter xml,
+                                         String className,
+                                         ITestResult testResult,
+                                         boolean timed) throws XMLStreamException
+    {
+        xml.writeAttribute("name", testResult.getName());
+        xml.writeAttribute("time", timed
+                                   ? utils.formatDuration(testResult.getStartMillis(), testResult.getEndMillis())
+                                   : "0.0");
+        xml.writeAttribute("classname", testResult.getTestName() == null
+                                        ? className
+                                        : className + " (" + testResult.getTestName() + ")");
+    }
+
+
+    /**
+     * Writes text as one or more CDATA sections.  The text is split wherever it
+     * contains the sequence that would otherwise terminate the section early.
+     */
+    static void writeCData(XMLStreamWriter xml, String text) throws XMLStreamException
+    {
+        int start = 0;
+        int end = text.indexOf(CDATA_END);
+        while (end >= 0)
+        {
+            // Finish this section after the "]]" and start the next one with the ">".
+            xml.writeCData(text.substring(start, end + 2));
+            start = end + 2;
+            end = text.indexOf(CDATA_END, start);
+        }
+        xml.writeCData(text.substring(start));
+    }
+
+
+    private void appendStackTrace(Throwable throwable, StringBuilder buffer)
+    {
+        for (StackTraceElement element : throwable.getStackTrace())
+        {
+            buffer.append("  ").append(element.toString()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,246 @@
+// Renders a virtual results page from the data files written by the HTMLReporter.
+// Only the rows that are currently visible are added to the document, and the
+// details of each result are loaded (a chunk at a time) when a row is selected.
+
+var reportng = reportng || {};
+
+reportng.virtual = (function()
+{
+    var ROW_HEIGHT = 22;
+    var OVERSCAN = 20;
+
+    var data = null;
+    var rows = [];
+    var results = [];
+    var chunks = {};
+    var selected = -1;
+    var viewport = null;
+    var canvas = null;
+    var firstRow = -1;
+    var lastRow = -1;
+
+
+    function loadResults(resultsData)
+    {
+        data = resultsData;
+        for (var s = 0; s < data.sections.length; s++)
+        {
+            var section = data.sections[s];
+            rows.push({style: 'header ' + section.style, html: section.title});
+            for (var c = 0; c < section.classes.length; c++)
+            {
+                var testClass = section.classes[c];
+                rows.push({style: 'group', text: testClass.name});
+                for (var r = 0; r < testClass.results.length; r++)
+                {
+                    var row = {style: 'result', result: testClass.results[r], index: results.length};
+                    results.push(row);
+                    rows.push(row);
+                }
+            }
+        }
+        viewport = document.getElementById('virtualResults');
+        canvas = document.createElement('div');
+        canvas.className = 'virtualCanvas';
+        canvas.style.height = (rows.length * ROW_HEIGHT) + 'px';
+        viewport.appendChild(canvas);
+        viewport.onscroll = function() { render(false); };
+        window.onresize = function() { render(false); };
+        render(true);
+    }
+
+
+    function render(force)
+    {
+        var start = Math.max(0, Math.floor(viewport.scrollTop / ROW_HEIGHT) - OVERSCAN);
+        var end = Math.min(rows.length,
+                           Math.ceil((viewport.scrollTop + viewport.clientHeight) / ROW_HEIGHT) + OVERSCAN);
+        if (force || start != firstRow || end != lastRow)
+        {
+            firstRow = start;
+            lastRow = end;
+            while (canvas.firstChild)
+            {
+                canvas.removeChild(canvas.firstChild);
+            }
+            for (var i = start; i < end; i++)
+            {
+                canvas.appendChild(createRow(rows[i], i));
+            }
+        }
+    }
+
+
+    function createRow(row, position)
+    {
+        var element = document.createElement('div');
+        element.className = 'virtualRow ' + row.style;
+        element.style.top = (position * ROW_HEIGHT) + 'px';
+        element.style.height = ROW_HEIGHT + 'px';
+        if (row.result)
+        {
+            // Each result is an array of [name, duration, description, hasDetails].
+            var result = row.result;
+            var duration = document.createElement('span');
+            duration.className = 'duration';
+            duration.appendChild(document.createTextNode(result[1] + 's'));
+            element.appendChild(duration);
+            var name = document.createElement('span');
+            name.className = 'method';
+            if (result[2])
+            {
+                name.className += ' description';
+                name.title = result[2];
+            }
+            name.appendChild(document.createTextNode(result[0]));
+            element.appendChild(name);
+            if (result[3])
+            {
+                element.className += ' expandable';
+                element.onclick = function() { select(row.index); };
+            }
+            if (row.index == selected)
+            {
+                element.className += ' selected';
+            }
+        }
+        else if (row.html)
+        {
+            // Section titles are localised messages, which may contain character entities.
+            element.innerHTML = row.html;
+        }
+        else
+        {
+            element.appendChild(document.createTextNode(row.text));
+        }
+        return element;
+    }
+
+
+    function select(index)
+    {
+        selected = index;
+        render(true);
+        var chunk = Math.floor(index / data.chunkSize);
+        if (chunks[chunk])
+        {
+            showDetails();
+        }
+        else if (!(chunk in chunks))
+        {
+            chunks[chunk] = null;
+            var script = document.createElement('script');
+            script.type = 'text/javascript';
+            script.src = data.details + (chunk + 1) + '.js';
+            document.getElementsByTagName('head')[0].appendChild(script);
+        }
+    }
+
+
+    function loadDetails(chunk, details)
+    {
+        chunks[chunk] = details;
+        if (selected >= 0 && Math.floor(selected / data.chunkSize) == chunk)
+        {
+            showDetails();
+        }
+    }
+
+
+    function showDetails()
+    {
+        var pane = document.getElementById('virtualDetails');
+        while (pane.firstChild)
+        {
+            pane.removeChild(pane.firstChild);
+        }
+        var details = chunks[Math.floor(selected / data.chunkSize)][selected % data.chunkSize];
+        var messages = data.messages;
+
+        var heading = document.createElement('h2');
+        heading.appendChild(document.createTextNode(results[selected].result[0]));
+        pane.appendChild(heading);
+
+        appendLabelled(pane, messages.dependsOnGroups, details.dependsOnGroups, 'dependency');
+        appendLabelled(pane, messages.dependsOnMethods, details.dependsOnMethods, 'dependency');
+        appendLabelled(pane, messages.skipReason, details.skipReason, 'dependency');
+        appendLabelled(pane, messages.methodArguments, details.arguments, 'arguments');
+        if (details.output)
+        {
+            var output = document.createElement('div');
+            output.className = 'testOutput';
+            for (var i = 0; i < details.output.length; i++)
+            {
+                if (data.escapeOutput)
+                {
+                    output.appendChild(document.createTextNode(details.output[i]));
+                    output.appendChild(document.createElement('br'));
+                }
+                else
+                {
+                    output.innerHTML += details.output[i];
+                }
+            }
+            pane.appendChild(output);
+        }
+        if (details.exception)
+        {
+            for (var j = 0; j < details.exception.length; j++)
+            {
+                var throwable = details.exception[j];
+                if (j > 0)
+                {
+                    appendText(pane, 'b', messages.causedBy + ': ', true);
+                }
+                appendText(pane, 'b', throwable.summary, false);
+                pane.appendChild(document.createElement('br'));
+                var trace = document.createElement('div');
+                trace.className = 'stackTrace';
+                trace.style.display = 'block';
+                for (var k = 0; k < throwable.frames.length; k++)
+                {
+                    trace.appendChild(document.createTextNode(throwable.frames[k]));
+                    trace.appendChild(document.createElement('br'));
+                }
+                pane.appendChild(trace);
+            }
+        }
+        else if (details.sameStackTraceAs)
+        {
+            appendText(pane, 'b', details.summary, false);
+            pane.appendChild(document.createElement('br'));
+            appendLabelled(pane, messages.sameStackTraceAs, details.sameStackTraceAs, 'dependency');
+        }
+    }
+
+
+    function appendLabelled(parent, label, value, style)
+    {
+        if (value)
+        {
+            appendText(parent, 'i', label + ': ', true);
+            var span = appendText(parent, 'span', value, false);
+            span.className = style;
+            parent.appendChild(document.createElement('br'));
+        }
+    }
+
+
+    function appendText(parent, tagName, text, isHTML)
+    {
+        var element = document.createElement(tagName);
+        if (isHTML)
+        {
+            element.innerHTML = text;
+        }
+        else
+        {
+            element.appendChild(document.createTextNode(text));
+        }
+        parent.appendChild(element);
+        return element;
+    }
+
+
+    return {results: loadResults, details: loadDetails};
+})();
@@ -7,8 +7,13 @@ function toggleElement(elementId, displayStyle)
     element.style.display = (current == 'none' ? displayStyle : 'none');
 }
 
+function showElement(elementId, displayStyle)
+{
+    document.getElementById(elementId).style.display = displayStyle;
+}
+
 function toggle(toggleId)
 {
     var toggle = document.getElementById ? document.getElementById(toggleId) : document.all[toggleId];
     toggle.textContent = toggle.innerHTML == '\u25b6' ? '\u25bc' : '\u25b6';
-}
\ No newline at end of file
+}
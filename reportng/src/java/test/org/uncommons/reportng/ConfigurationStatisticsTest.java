@@ -0,0 +1,234 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ConfigurationStatistics}.
+ * @author Daniel Dyer
+ */
+public class ConfigurationStatisticsTest
+{
+    private static final String[] FLAGS = {"isBeforeSuiteConfiguration", "isAfterSuiteConfiguration",
+                                           "isBeforeTestConfiguration", "isAfterTestConfiguration",
+                                           "isBeforeGroupsConfiguration", "isAfterGroupsConfiguration",
+                                           "isBeforeClassConfiguration", "isAfterClassConfiguration",
+                                           "isBeforeMethodConfiguration", "isAfterMethodConfiguration"};
+
+
+    @Test
+    public void testConfigurationVersusTestTime()
+    {
+        Results first = new Results();
+        first.passedConfigurations.add(createResult("A", "setUp", 40, "isBeforeClassConfiguration"));
+        first.passedConfigurations.add(createResult("A", "prepare", 5, "isBeforeMethodConfiguration"));
+        first.failedConfigurations.add(createResult("A", "prepare", 5, "isBeforeMethodConfiguration"));
+        first.passedTests.add(createResult("A", "test1", 20, null));
+        first.failedTests.add(createResult("A", "test2", 30, null));
+        first.skippedTests.add(createResult("B", "test3", 50, null));
+
+        Results second = new Results();
+        second.skippedConfigurations.add(createResult("A", "prepare", 5, "isBeforeMethodConfiguration"));
+        second.passedConfigurations.add(createResult("C", "tearDown", 100, "isAfterSuiteConfiguration"));
+        second.passedTests.add(createResult("A", "test4", 10, null));
+
+        Map<String, ITestContext> tests = new LinkedHashMap<String, ITestContext>();
+        tests.put("First", createContext("First", first));
+        tests.put("Second", createContext("Second", second));
+        ISuite suite = createSuite(tests);
+        assert ConfigurationStatistics.hasConfigurations(suite) : "Suite has configurations.";
+
+        ConfigurationStatistics statistics = ConfigurationStatistics.forSuite(suite);
+        checkBreakdown(statistics.getTotal(), "Suite", 155, 5, 110, 4, 58, "58.5%");
+
+        // Tests are in suite order.
+        List<ConfigurationStatistics.Breakdown> testBreakdowns = statistics.getTests();
+        assert testBreakdowns.size() == 2 : "Wrong number of tests: " + testBreakdowns.size();
+        checkBreakdown(testBreakdowns.get(0), "First", 50, 3, 100, 3, 33, "33.3%");
+        checkBreakdown(testBreakdowns.get(1), "Second", 105, 2, 10, 1, 91, "91.3%");
+
+        // Classes are in decreasing order of configuration time, and include the
+        // results from every test.
+        List<ConfigurationStatistics.Breakdown> classes = statistics.getClasses();
+        assert classes.size() == 3 : "Wrong number of classes: " + classes.size();
+        checkBreakdown(classes.get(0), "C", 100, 1, 0, 0, 100, "100.0%");
+        checkBreakdown(classes.get(1), "A", 55, 4, 60, 3, 48, "47.8%");
+        checkBreakdown(classes.get(2), "B", 0, 0, 50, 1, 0, "0.0%");
+
+        List<ConfigurationStatistics.Fixture> fixtures = statistics.getFixtures();
+        assert fixtures.size() == 3 : "Wrong number of fixtures: " + fixtures.size();
+        checkFixture(fixtures.get(0), "C.tearDown", "@AfterSuite", 100, 1);
+        checkFixture(fixtures.get(1), "A.setUp", "@BeforeClass", 40, 1);
+        checkFixture(fixtures.get(2), "A.prepare", "@BeforeMethod", 15, 3);
+        assert fixtures.get(2).getMeanTime() == 5 : "Wrong mean time: " + fixtures.get(2).getMeanTime();
+    }
+
+
+    @Test
+    public void testNoConfigurations()
+    {
+        Results results = new Results();
+        results.passedTests.add(createResult("A", "test1", 20, null));
+        ISuite suite = createSuite(Collections.singletonMap("Test", createContext("Test", results)));
+        assert !ConfigurationStatistics.hasConfigurations(suite) : "Suite has no configurations.";
+
+        ConfigurationStatistics statistics = ConfigurationStatistics.forSuite(suite);
+        checkBreakdown(statistics.getTotal(), "Suite", 0, 0, 20, 1, 0, "0.0%");
+        assert statistics.getFixtures().isEmpty() : "There should be no fixtures.";
+
+        ConfigurationStatistics.Breakdown empty = new ConfigurationStatistics.Breakdown("Empty");
+        assert empty.getConfigurationShare() == 0 : "Wrong share: " + empty.getConfigurationShare();
+        assert empty.getConfigurationPercentage().equals("-") : "Wrong percentage: " + empty.getConfigurationPercentage();
+    }
+
+
+    @Test
+    public void testAnnotations()
+    {
+        assert ConfigurationStatistics.getAnnotation(null).equals("") : "Unknown method should have no annotation.";
+        assert ConfigurationStatistics.getAnnotation(createMethod(null)).equals("")
+            : "Test method should have no annotation.";
+        for (String flag : FLAGS)
+        {
+            String annotation = ConfigurationStatistics.getAnnotation(createMethod(flag));
+            String expected = '@' + flag.substring(2, flag.length() - "Configuration".length());
+            assert annotation.equals(expected) : "Wrong annotation for " + flag + ": " + annotation;
+        }
+    }
+
+
+    private void checkBreakdown(ConfigurationStatistics.Breakdown breakdown,
+                                String name,
+                                long configurationTime,
+                                int configurationCount,
+                                long testTime,
+                                int testCount,
+                                int share,
+                                String percentage)
+    {
+        assert breakdown.getName().equals(name) : "Wrong name: " + breakdown.getName();
+        assert breakdown.getConfigurationTime() == configurationTime
+            : "Wrong configuration time for " + name + ": " + breakdown.getConfigurationTime();
+        assert breakdown.getConfigurationCount() == configurationCount
+            : "Wrong configuration count for " + name + ": " + breakdown.getConfigurationCount();
+        assert breakdown.getTestTime() == testTime : "Wrong test time for " + name + ": " + breakdown.getTestTime();
+        assert breakdown.getTestCount() == testCount : "Wrong test count for " + name + ": " + breakdown.getTestCount();
+        assert breakdown.getConfigurationShare() == share
+            : "Wrong share for " + name + ": " + breakdown.getConfigurationShare();
+        assert breakdown.getConfigurationPercentage().equals(percentage)
+            : "Wrong percentage for " + name + ": " + breakdown.getConfigurationPercentage();
+    }
+
+
+    private void checkFixture(ConfigurationStatistics.Fixture fixture,
+                              String name,
+                              String annotation,
+                              long totalTime,
+                              int count)
+    {
+        assert fixture.getName().equals(name) : "Wrong fixture: " + fixture.getName();
+        assert fixture.getAnnotation().equals(annotation) : "Wrong annotation for " + name + ": "
+                                                            + fixture.getAnnotation();
+        assert fixture.getTotalTime() == totalTime : "Wrong total time for " + name + ": " + fixture.getTotalTime();
+        assert fixture.getCount() == count : "Wrong count for " + name + ": " + fixture.getCount();
+    }
+
+
+    /**
+     * @param flag The configuration flag that is set, or null for a test method.
+     */
+    private ITestNGMethod createMethod(String flag)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (String name : FLAGS)
+        {
+            values.put(name, name.equals(flag));
+        }
+        return TestNGProxies.create(ITestNGMethod.class, values);
+    }
+
+
+    private ITestResult createResult(String className, String name, long duration, String flag)
+    {
+        Map<String, Object> classValues = new HashMap<String, Object>();
+        classValues.put("getName", className);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getTestClass", TestNGProxies.create(ITestClass.class, classValues));
+        values.put("getMethod", createMethod(flag));
+        values.put("getStartMillis", 1000L);
+        values.put("getEndMillis", 1000 + duration);
+        return TestNGProxies.create(ITestResult.class, values);
+    }
+
+
+    private ITestContext createContext(String name, Results results)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getPassedConfigurations", TestNGProxies.createResultMap(results.passedConfigurations));
+        values.put("getFailedConfigurations", TestNGProxies.createResultMap(results.failedConfigurations));
+        values.put("getSkippedConfigurations", TestNGProxies.createResultMap(results.skippedConfigurations));
+        values.put("getPassedTests", TestNGProxies.createResultMap(results.passedTests));
+        values.put("getFailedTests", TestNGProxies.createResultMap(results.failedTests));
+        values.put("getSkippedTests", TestNGProxies.createResultMap(results.skippedTests));
+        return TestNGProxies.create(ITestContext.class, values);
+    }
+
+
+    private ISuite createSuite(Map<String, ITestContext> tests)
+    {
+        Map<String, ISuiteResult> results = new LinkedHashMap<String, ISuiteResult>();
+        for (Map.Entry<String, ITestContext> entry : tests.entrySet())
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getTestContext", entry.getValue());
+            results.put(entry.getKey(), TestNGProxies.create(ISuiteResult.class, values));
+        }
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Suite");
+        values.put("getResults", results);
+        return TestNGProxies.create(ISuite.class, values);
+    }
+
+
+    /**
+     * The results of a single test, by outcome.
+     */
+    private static final class Results
+    {
+        private final Set<ITestResult> passedConfigurations = new LinkedHashSet<ITestResult>();
+        private final Set<ITestResult> failedConfigurations = new LinkedHashSet<ITestResult>();
+        private final Set<ITestResult> skippedConfigurations = new LinkedHashSet<ITestResult>();
+        private final Set<ITestResult> passedTests = new LinkedHashSet<ITestResult>();
+        private final Set<ITestResult> failedTests = new LinkedHashSet<ITestResult>();
+        private final Set<ITestResult> skippedTests = new LinkedHashSet<ITestResult>();
+    }
+}
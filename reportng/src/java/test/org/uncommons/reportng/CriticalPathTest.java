@@ -0,0 +1,172 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link CriticalPath}.
+ * @author Daniel Dyer
+ */
+public class CriticalPathTest
+{
+    private static final String[] NONE = new String[0];
+
+    private final ITestClass testClass = createClass();
+    private final Set<ITestResult> results = new LinkedHashSet<ITestResult>();
+    private long time;
+
+
+    @BeforeMethod
+    public void reset()
+    {
+        results.clear();
+        time = 0;
+    }
+
+
+    /**
+     * b and c depend on a, d depends on b and c, and f depends on b via the "slow"
+     * group.  e has no dependencies.  The critical path is a (10), b (30), f (7).
+     */
+    @Test
+    public void testCriticalPath()
+    {
+        // Methods invoked several times are weighted with their total duration.
+        addResult("a", 4, NONE, NONE, NONE);
+        addResult("a", 6, NONE, NONE, NONE);
+        addResult("b", 30, new String[]{"slow"}, new String[]{"Example.a"}, NONE);
+        addResult("c", 10, NONE, new String[]{"Example.a"}, NONE);
+        addResult("d", 5, NONE, new String[]{"Example.b", "Example.c"}, NONE);
+        // Group dependencies may be regular expressions.
+        addResult("f", 7, NONE, NONE, new String[]{"sl.*"});
+        addResult("e", 20, NONE, NONE, NONE);
+
+        CriticalPath path = CriticalPath.forTest(createContext());
+        assert path.getLength() == 47 : "Wrong length: " + path.getLength();
+        assert path.getSummedTime() == 82 : "Wrong summed time: " + path.getSummedTime();
+        assert path.getMaximumParallelism().equals("1.74") : "Wrong parallelism: " + path.getMaximumParallelism();
+        assert getNames(path.getPath()).equals(Arrays.asList("Example.a", "Example.b", "Example.f"))
+            : "Wrong path: " + getNames(path.getPath());
+
+        // Ordered by slack, then by name.  The independent method is not included.
+        List<CriticalPath.Node> methods = path.getDependentMethods();
+        assert getNames(methods).equals(Arrays.asList("Example.a", "Example.b", "Example.f", "Example.d", "Example.c"))
+            : "Wrong dependent methods: " + getNames(methods);
+        checkNode(methods.get(0), 10, 0, 0, true);
+        checkNode(methods.get(1), 30, 10, 0, true);
+        checkNode(methods.get(2), 7, 40, 0, true);
+        checkNode(methods.get(3), 5, 40, 2, false);
+        checkNode(methods.get(4), 10, 10, 22, false);
+        assert methods.get(1).getDependencyCount() == 1 : "Wrong dependency count.";
+        assert methods.get(1).getDependentCount() == 2 : "Wrong dependent count.";
+    }
+
+
+    /**
+     * TestNG doesn't allow cyclic dependencies, but the analysis must not fail (or
+     * loop forever) if there is one.  The methods in the cycle are left out.
+     */
+    @Test
+    public void testCycle()
+    {
+        addResult("x", 10, NONE, new String[]{"Example.y"}, NONE);
+        addResult("y", 10, NONE, new String[]{"Example.x"}, NONE);
+        addResult("z", 15, NONE, NONE, NONE);
+        addResult("w", 5, NONE, new String[]{"Example.z"}, NONE);
+
+        CriticalPath path = CriticalPath.forTest(createContext());
+        assert path.getLength() == 20 : "Wrong length: " + path.getLength();
+        assert getNames(path.getPath()).equals(Arrays.asList("Example.z", "Example.w"))
+            : "Wrong path: " + getNames(path.getPath());
+        assert getNames(path.getDependentMethods()).equals(Arrays.asList("Example.w", "Example.z"))
+            : "Wrong dependent methods: " + getNames(path.getDependentMethods());
+    }
+
+
+    private void checkNode(CriticalPath.Node node, long duration, long earliestStart, long slack, boolean critical)
+    {
+        assert node.getDuration() == duration : "Wrong duration for " + node.getName() + ": " + node.getDuration();
+        assert node.getEarliestStart() == earliestStart
+            : "Wrong earliest start for " + node.getName() + ": " + node.getEarliestStart();
+        assert node.getSlack() == slack : "Wrong slack for " + node.getName() + ": " + node.getSlack();
+        assert node.isCritical() == critical : node.getName() + " should " + (critical ? "" : "not ") + "be critical.";
+    }
+
+
+    private List<String> getNames(List<CriticalPath.Node> nodes)
+    {
+        List<String> names = new ArrayList<String>(nodes.size());
+        for (CriticalPath.Node node : nodes)
+        {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+
+    private void addResult(String name,
+                           long duration,
+                           String[] groups,
+                           String[] methodsDependedUpon,
+                           String[] groupsDependedUpon)
+    {
+        Map<String, Object> methodValues = new HashMap<String, Object>();
+        methodValues.put("getMethodName", name);
+        methodValues.put("getGroups", groups);
+        methodValues.put("getMethodsDependedUpon", methodsDependedUpon);
+        methodValues.put("getGroupsDependedUpon", groupsDependedUpon);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getMethod", TestNGProxies.create(ITestNGMethod.class, methodValues));
+        values.put("getTestClass", testClass);
+        values.put("getStartMillis", time);
+        values.put("getEndMillis", time + duration);
+        results.add(TestNGProxies.create(ITestResult.class, values));
+        time += duration;
+    }
+
+
+    private ITestContext createContext()
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Dependencies");
+        values.put("getPassedTests", TestNGProxies.createResultMap(results));
+        values.put("getFailedTests", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        values.put("getSkippedTests", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        return TestNGProxies.create(ITestContext.class, values);
+    }
+
+
+    private static ITestClass createClass()
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Example");
+        return TestNGProxies.create(ITestClass.class, values);
+    }
+}
@@ -0,0 +1,107 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.List;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link DurationHistogram}.
+ * @author Daniel Dyer
+ */
+public class DurationHistogramTest
+{
+    @Test
+    public void testBucketBoundaries()
+    {
+        // Each value must fall in the bucket whose range contains it.
+        for (long value = 0; value < 100000; value++)
+        {
+            int bucket = DurationHistogram.getBucket(value);
+            assert DurationHistogram.getLowerBound(bucket) <= value : "Lower bound too high for " + value;
+            assert DurationHistogram.getLowerBound(bucket + 1) > value : "Upper bound too low for " + value;
+        }
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        DurationHistogram histogram = new DurationHistogram();
+        for (int i = 1; i <= 1000; i++)
+        {
+            histogram.add(i);
+        }
+        assert histogram.getCount() == 1000 : "Wrong count: " + histogram.getCount();
+        assert histogram.getMax() == 1000 : "Wrong maximum: " + histogram.getMax();
+        assertWithin(histogram.getPercentile(50), 500);
+        assertWithin(histogram.getPercentile(90), 900);
+        assertWithin(histogram.getPercentile(99), 990);
+        assert histogram.getPercentile(100) == 1000 : "Percentile should not exceed maximum.";
+    }
+
+
+    @Test
+    public void testSmallDurationsAreExact()
+    {
+        DurationHistogram histogram = new DurationHistogram();
+        histogram.add(0);
+        histogram.add(1);
+        histogram.add(2);
+        histogram.add(3);
+        assert histogram.getPercentile(25) == 0 : "Wrong p25: " + histogram.getPercentile(25);
+        assert histogram.getPercentile(50) == 1 : "Wrong p50: " + histogram.getPercentile(50);
+        assert histogram.getPercentile(75) == 2 : "Wrong p75: " + histogram.getPercentile(75);
+    }
+
+
+    @Test
+    public void testBins()
+    {
+        DurationHistogram histogram = new DurationHistogram();
+        histogram.add(5);
+        histogram.add(6);
+        histogram.add(40);
+        List<DurationHistogram.Bin> bins = histogram.getBins();
+        // 4-8ms, 8-16ms (empty), 16-32ms (empty) and 32-64ms.
+        assert bins.size() == 4 : "Wrong number of bins: " + bins.size();
+        assert bins.get(0).getLowerBound() == 4 : "Wrong lower bound: " + bins.get(0).getLowerBound();
+        assert bins.get(0).getCount() == 2 : "Wrong count: " + bins.get(0).getCount();
+        assert bins.get(0).getPercentage() == 100 : "Wrong percentage: " + bins.get(0).getPercentage();
+        assert bins.get(1).getCount() == 0 : "Wrong count: " + bins.get(1).getCount();
+        assert bins.get(3).getUpperBound() == 64 : "Wrong upper bound: " + bins.get(3).getUpperBound();
+        assert bins.get(3).getPercentage() == 50 : "Wrong percentage: " + bins.get(3).getPercentage();
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        DurationHistogram histogram = new DurationHistogram();
+        assert histogram.getPercentile(50) == 0 : "Empty histogram should have zero percentiles.";
+        assert histogram.getBins().isEmpty() : "Empty histogram should have no bins.";
+    }
+
+
+    /**
+     * Percentile estimates should never be below the true value, and should be no
+     * more than 25% above it.
+     */
+    private void assertWithin(long estimate, long actual)
+    {
+        assert estimate >= actual && estimate <= actual * 1.25 : "Estimate " + estimate + " too far from " + actual;
+    }
+}
@@ -0,0 +1,226 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Unit test for {@link LiveReportListener}.  Pages are rendered repeatedly while
+ * another thread is still adding results, as happens when the live report is viewed
+ * during a run.
+ * @author Daniel Dyer
+ */
+public class LiveReportListenerTest
+{
+    private static final int RESULT_COUNT = 2000;
+    private static final int BATCH_SIZE = 200;
+    private static final String[] PAGES = {"overview.html", "summary.json",
+                                           "suite1_test1_results.html", "suite1_test1_results.json",
+                                           "suite1_chronology.html", "suite1_durations.html",
+                                           "suite1_critical-path.html", "suite1_configuration.html"};
+    private static final Pattern PASSED_PATTERN = Pattern.compile("\"passed\":(\\d+)");
+    private static final Pattern RUNNING_PATTERN = Pattern.compile("\"running\":(\\d+)");
+
+
+    @Test
+    public void testRenderingWhileResultsAreAdded() throws Exception
+    {
+        final LiveReportListener listener = new LiveReportListener();
+        final List<IInvokedMethod> invokedMethods = Collections.synchronizedList(new ArrayList<IInvokedMethod>());
+        final ISuite suite = createSuite(invokedMethods);
+        final Set<ITestResult> passed = Collections.newSetFromMap(new ConcurrentHashMap<ITestResult, Boolean>());
+        final ITestContext context = createContext(suite, passed);
+        listener.onStart(suite);
+        listener.onStart(context);
+        final Throwable[] failure = new Throwable[1];
+        final AtomicInteger renders = new AtomicInteger();
+        Thread runner = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    ITestClass testClass = createClass();
+                    for (int i = 0; i < RESULT_COUNT; i++)
+                    {
+                        ITestResult result = createResult(testClass, context, "method" + (i % 10), i);
+                        listener.onTestStart(result);
+                        invokedMethods.add(createInvocation(result));
+                        passed.add(result);
+                        listener.onTestSuccess(result);
+                        if (i % BATCH_SIZE == BATCH_SIZE - 1)
+                        {
+                            // Let the pages be rendered at least once more, while the
+                            // next batch is being added, before carrying on.
+                            int rendered = renders.get();
+                            while (renders.get() == rendered)
+                            {
+                                Thread.sleep(1);
+                            }
+                        }
+                    }
+                }
+                catch (Throwable ex)
+                {
+                    failure[0] = ex;
+                }
+            }
+        });
+        try
+        {
+            // Don't keep the JVM alive if rendering fails while the runner is waiting.
+            runner.setDaemon(true);
+            runner.start();
+            int lastPassed = 0;
+            boolean sawPartialResults = false;
+            while (runner.isAlive())
+            {
+                for (String page : PAGES)
+                {
+                    assert listener.getPage(page) != null : "No content for " + page;
+                }
+                String summary = new String(listener.getPage("summary.json"), "UTF-8");
+                int passedCount = getCount(PASSED_PATTERN, summary);
+                assert passedCount >= lastPassed : "Passed count went backwards: " + passedCount + " < " + lastPassed;
+                assert passedCount <= RESULT_COUNT : "Too many passes: " + passedCount;
+                assert getCount(RUNNING_PATTERN, summary) <= 1 : "Too many running: " + summary;
+                sawPartialResults |= passedCount > 0 && passedCount < RESULT_COUNT;
+                lastPassed = passedCount;
+                renders.incrementAndGet();
+            }
+            runner.join();
+            assert failure[0] == null : "Adding results failed: " + failure[0];
+            assert sawPartialResults : "Pages were not rendered while results were being added.";
+            String summary = new String(listener.getPage("summary.json"), "UTF-8");
+            assert getCount(PASSED_PATTERN, summary) == RESULT_COUNT : "Wrong final count: " + summary;
+            assert getCount(RUNNING_PATTERN, summary) == 0 : "Nothing should be running: " + summary;
+        }
+        finally
+        {
+            listener.generateReport(Collections.<XmlSuite>emptyList(), Collections.<ISuite>emptyList(), null);
+        }
+    }
+
+
+    private int getCount(Pattern pattern, String json)
+    {
+        Matcher matcher = pattern.matcher(json);
+        boolean found = matcher.find();
+        assert found : "No count in " + json;
+        return Integer.parseInt(matcher.group(1));
+    }
+
+
+    private ISuite createSuite(List<IInvokedMethod> invokedMethods)
+    {
+        XmlSuite xmlSuite = new XmlSuite();
+        xmlSuite.setName("Live Suite");
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", xmlSuite.getName());
+        values.put("getXmlSuite", xmlSuite);
+        values.put("getOutputDirectory", "live");
+        values.put("getMethodsByGroups", Collections.emptyMap());
+        values.put("getAllInvokedMethods", invokedMethods);
+        // TestNG only adds tests to the suite's results once they have finished.
+        values.put("getResults", Collections.<String, ISuiteResult>emptyMap());
+        return TestNGProxies.create(ISuite.class, values);
+    }
+
+
+    private ITestContext createContext(ISuite suite, Set<ITestResult> passed)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Live Test");
+        values.put("getSuite", suite);
+        values.put("getStartDate", new Date(0));
+        // The test has not finished.
+        values.put("getEndDate", null);
+        values.put("getPassedTests", TestNGProxies.createResultMap(passed));
+        values.put("getFailedTests", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        values.put("getSkippedTests", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        values.put("getPassedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        values.put("getFailedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        values.put("getSkippedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        return TestNGProxies.create(ITestContext.class, values);
+    }
+
+
+    private ITestClass createClass()
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "com.example.LiveTest");
+        return TestNGProxies.create(ITestClass.class, values);
+    }
+
+
+    private ITestResult createResult(ITestClass testClass, ITestContext context, String name, long time)
+    {
+        Map<String, Object> methodValues = new HashMap<String, Object>();
+        methodValues.put("getMethodName", name);
+        methodValues.put("getTestClass", testClass);
+        methodValues.put("getDescription", null);
+        methodValues.put("getGroups", new String[0]);
+        methodValues.put("getGroupsDependedUpon", new String[0]);
+        methodValues.put("getMethodsDependedUpon", new String[0]);
+        methodValues.put("getThreadId", 1L);
+        methodValues.put("getId", null);
+        methodValues.put("isTest", true);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getTestName", null);
+        values.put("getMethod", TestNGProxies.create(ITestNGMethod.class, methodValues));
+        values.put("getTestClass", testClass);
+        values.put("getTestContext", context);
+        values.put("getStatus", ITestResult.SUCCESS);
+        values.put("isSuccess", true);
+        values.put("getStartMillis", time);
+        values.put("getEndMillis", time + 1);
+        values.put("getParameters", new Object[0]);
+        values.put("getThrowable", null);
+        return TestNGProxies.create(ITestResult.class, values);
+    }
+
+
+    private IInvokedMethod createInvocation(ITestResult result)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getTestMethod", result.getMethod());
+        values.put("getTestResult", result);
+        values.put("getDate", result.getStartMillis());
+        values.put("isTestMethod", true);
+        values.put("isConfigurationMethod", false);
+        return TestNGProxies.create(IInvokedMethod.class, values);
+    }
+}
@@ -0,0 +1,188 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import org.testng.ISuite;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Unit test for {@link ReportManifest} and incremental report generation.
+ * @author Daniel Dyer
+ */
+public class ReportManifestTest
+{
+    @AfterMethod
+    public void resetIncremental()
+    {
+        System.getProperties().remove(ReportMetadata.INCREMENTAL_KEY);
+    }
+
+
+    /**
+     * A non-incremental run replaces files without updating the manifest, so the next
+     * incremental run must not trust the manifest's record of what the files contain.
+     */
+    @Test
+    public void testNonIncrementalRunInBetween() throws Exception
+    {
+        File directory = createTemporaryDirectory();
+        File file = new File(directory, "page.html");
+        File manifest = new File(directory, ReportManifest.FILE_NAME);
+
+        generate(file, "AAAA", true);
+        assert read(file).equals("AAAA") : "Wrong content: " + read(file);
+        assert manifest.isFile() : "Manifest was not written.";
+
+        // Same length as the original content.
+        generate(file, "BBBB", false);
+        assert read(file).equals("BBBB") : "Wrong content: " + read(file);
+        assert !manifest.exists() : "Manifest should have been deleted.";
+
+        generate(file, "AAAA", true);
+        assert read(file).equals("AAAA") : "File was not re-written: " + read(file);
+        assert manifest.isFile() : "Manifest was not written.";
+    }
+
+
+    @Test
+    public void testEditedFileIsRewritten() throws Exception
+    {
+        File directory = createTemporaryDirectory();
+        File file = new File(directory, "page.html");
+        generate(file, "AAAA", true);
+
+        // Edit the file by hand, some time after it was generated.
+        long modified = file.lastModified();
+        write(file, "BBBB");
+        assert file.setLastModified(modified + 60000) : "Could not set modification time.";
+
+        generate(file, "AAAA", true);
+        assert read(file).equals("AAAA") : "File was not re-written: " + read(file);
+    }
+
+
+    @Test
+    public void testUnchangedFileIsNotRewritten() throws Exception
+    {
+        File directory = createTemporaryDirectory();
+        File file = new File(directory, "page.html");
+        generate(file, "AAAA", true);
+        ReportManifest manifest = ReportManifest.load(directory);
+        byte[] content = "AAAA".getBytes("UTF-8");
+        assert manifest.isUnchanged(file, content.length, ContentDigest.digest(content)) : "File should be unchanged.";
+        byte[] other = "BBBB".getBytes("UTF-8");
+        assert !manifest.isUnchanged(file, other.length, ContentDigest.digest(other)) : "File should be changed.";
+    }
+
+
+    /**
+     * Generates a single file with a new reporter, as a separate TestNG run would.
+     */
+    private void generate(File file, String content, boolean incremental) throws Exception
+    {
+        System.setProperty(ReportMetadata.INCREMENTAL_KEY, String.valueOf(incremental));
+        new FixedContentReporter().generate(file, content);
+    }
+
+
+    private String read(File file) throws IOException
+    {
+        InputStream stream = new FileInputStream(file);
+        try
+        {
+            byte[] content = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < content.length)
+            {
+                offset += stream.read(content, offset, content.length - offset);
+            }
+            return new String(content, "UTF-8");
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+
+    private void write(File file, String content) throws IOException
+    {
+        OutputStream stream = new FileOutputStream(file);
+        try
+        {
+            stream.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+
+    private File createTemporaryDirectory() throws IOException
+    {
+        File directory = File.createTempFile("reportng", "manifest");
+        if (!directory.delete() || !directory.mkdir())
+        {
+            throw new IOException("Failed creating temporary directory " + directory);
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+
+
+    /**
+     * Writes files with fixed content rather than from templates.
+     */
+    private static final class FixedContentReporter extends AbstractReporter
+    {
+        FixedContentReporter()
+        {
+            super("org/uncommons/reportng/templates/html/");
+        }
+
+
+        public void generateReport(List<XmlSuite> xmlSuites, List<ISuite> suites, String outputDirectoryName)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        void generate(File file, final String content) throws Exception
+        {
+            FileTask task = new FileTask(file)
+            {
+                @Override
+                protected void render(Writer writer) throws IOException
+                {
+                    writer.write(content);
+                }
+            };
+            generateFiles(Collections.singletonList(task));
+        }
+    }
+}
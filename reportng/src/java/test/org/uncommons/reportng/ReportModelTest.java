@@ -0,0 +1,169 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IClass;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ReportModel}.
+ * @author Daniel Dyer
+ */
+public class ReportModelTest
+{
+    private final ITestClass testClass = createClass();
+
+
+    /**
+     * TestNG passes the same list of suites to each of its reporters.
+     */
+    @Test
+    public void testReportersInSameRunShareModel()
+    {
+        List<ISuite> suites = new ArrayList<ISuite>(Collections.singletonList(createSuite("a")));
+        ReportModel model = new HTMLReporter().getReportModel(suites);
+        assert new JUnitXMLReporter().getReportModel(suites) == model : "Reporters should share the model.";
+        assert model.getSuites().equals(suites) : "Wrong suites: " + model.getSuites();
+    }
+
+
+    /**
+     * A later run gets a new list of suites, and must not be reported from an earlier
+     * run's model even if the lists are equal.
+     */
+    @Test
+    public void testNewRunGetsNewModel()
+    {
+        ISuite suite = createSuite("a");
+        List<ISuite> firstRun = new ArrayList<ISuite>(Collections.singletonList(suite));
+        List<ISuite> secondRun = new ArrayList<ISuite>(Collections.singletonList(suite));
+        ReportModel firstModel = new HTMLReporter().getReportModel(firstRun);
+        ReportModel secondModel = new HTMLReporter().getReportModel(secondRun);
+        assert secondModel != firstModel : "Second run should have a new model.";
+        assert new JUnitXMLReporter().getReportModel(firstRun) == firstModel : "First run's model was lost.";
+    }
+
+
+    @Test
+    public void testChangedSuitesGetNewModel()
+    {
+        List<ISuite> suites = new ArrayList<ISuite>(Collections.singletonList(createSuite("a")));
+        ReportModel model = ReportModel.forRun(suites, 1);
+        suites.add(createSuite("b"));
+        ReportModel newModel = ReportModel.forRun(suites, 1);
+        assert newModel != model : "Changed suites should have a new model.";
+        assert newModel.getSuites().size() == 2 : "Wrong number of suites: " + newModel.getSuites().size();
+        assert ReportModel.forRun(suites, 1) == newModel : "Model should be shared once rebuilt.";
+    }
+
+
+    /**
+     * The HTML report sorts each class's results by name, but the JUnit XML report
+     * lists them in the order in which TestNG recorded them, from the same model.
+     */
+    @Test
+    public void testSortedAndUnsortedViews()
+    {
+        ISuite suite = createSuite("b", "a", "c");
+        ReportModel model = ReportModel.forRun(Collections.singletonList(suite), 1);
+        ITestContext context = suite.getResults().values().iterator().next().getTestContext();
+
+        Map<IClass, List<ITestResult>> sorted = model.getTestResults(context).getPassedTests();
+        assert getNames(sorted.get(testClass)).equals(Arrays.asList("a", "b", "c"))
+            : "Wrong sorted order: " + getNames(sorted.get(testClass));
+
+        Collection<JUnitXMLReporter.TestClassResults> flattened = JUnitXMLReporter.flattenResults(model);
+        assert flattened.size() == 1 : "Wrong number of classes: " + flattened.size();
+        JUnitXMLReporter.TestClassResults classResults = flattened.iterator().next();
+        assert classResults.getTestClass() == testClass : "Wrong class: " + classResults.getTestClass();
+        assert getNames(classResults.getPassedTests()).equals(Arrays.asList("b", "a", "c"))
+            : "Wrong JUnit XML order: " + getNames(classResults.getPassedTests());
+        assert classResults.getDuration() == 30 : "Wrong duration: " + classResults.getDuration();
+    }
+
+
+    private List<String> getNames(Collection<ITestResult> results)
+    {
+        List<String> names = new ArrayList<String>(results.size());
+        for (ITestResult result : results)
+        {
+            names.add(result.getName());
+        }
+        return names;
+    }
+
+
+    /**
+     * Creates a suite with a single test, in which each of the named methods passed.
+     */
+    private ISuite createSuite(String... passedMethods)
+    {
+        Map<String, Object> suiteValues = new HashMap<String, Object>();
+        Map<String, ISuiteResult> suiteResults = new LinkedHashMap<String, ISuiteResult>();
+        suiteValues.put("getName", "Suite");
+        suiteValues.put("getResults", suiteResults);
+        ISuite suite = TestNGProxies.create(ISuite.class, suiteValues);
+
+        Set<ITestResult> passed = new LinkedHashSet<ITestResult>();
+        for (String name : passedMethods)
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getName", name);
+            values.put("getTestClass", testClass);
+            values.put("getStatus", ITestResult.SUCCESS);
+            values.put("getStartMillis", 1000L);
+            values.put("getEndMillis", 1010L);
+            passed.add(TestNGProxies.create(ITestResult.class, values));
+        }
+        Set<ITestResult> none = Collections.emptySet();
+        Map<String, Object> contextValues = new HashMap<String, Object>();
+        contextValues.put("getName", "Test");
+        contextValues.put("getSuite", suite);
+        contextValues.put("getPassedTests", TestNGProxies.createResultMap(passed));
+        contextValues.put("getFailedTests", TestNGProxies.createResultMap(none));
+        contextValues.put("getSkippedTests", TestNGProxies.createResultMap(none));
+        contextValues.put("getPassedConfigurations", TestNGProxies.createResultMap(none));
+        contextValues.put("getFailedConfigurations", TestNGProxies.createResultMap(none));
+        contextValues.put("getSkippedConfigurations", TestNGProxies.createResultMap(none));
+        Map<String, Object> resultValues = new HashMap<String, Object>();
+        resultValues.put("getTestContext", TestNGProxies.create(ITestContext.class, contextValues));
+        suiteResults.put("Test", TestNGProxies.create(ISuiteResult.class, resultValues));
+        return suite;
+    }
+
+
+    private static ITestClass createClass()
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Example");
+        return TestNGProxies.create(ITestClass.class, values);
+    }
+}
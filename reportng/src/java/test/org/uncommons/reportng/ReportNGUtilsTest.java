@@ -15,6 +15,22 @@
 //=============================================================================
 package org.uncommons.reportng;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
 import org.testng.annotations.Test;
 
 /**
@@ -66,6 +82,38 @@ public class ReportNGUtilsTest
 	}
 
 
+    @Test
+    public void testEscapeToWriter() throws IOException
+    {
+        final String originalString = "if (a < b && c > d) return \"x\";";
+        StringWriter writer = new StringWriter();
+        utils.escapeString(originalString, writer);
+        assert writer.toString().equals(utils.escapeString(originalString)) : "Wrong escaping: " + writer;
+        assert writer.toString().equals("if (a &lt; b &amp;&amp; c &gt; d) return &quot;x&quot;;")
+            : "Wrong escaping: " + writer;
+    }
+
+
+    @Test
+    public void testEscapeHTMLToWriter() throws IOException
+    {
+        final String originalString = "<a>  b\nc ";
+        StringWriter writer = new StringWriter();
+        utils.escapeHTMLString(originalString, writer);
+        assert writer.toString().equals("&lt;a&gt;&nbsp; b<br/>\nc ") : "Wrong escaping: " + writer;
+    }
+
+
+    @Test
+    public void testNoEscapingRequired()
+    {
+        final String originalString = "Nothing to escape here.";
+        // If there is nothing to escape, the original String should be returned rather than a copy.
+        assert utils.escapeString(originalString) == originalString : "String should not have been copied.";
+        assert utils.escapeHTMLString(originalString) == originalString : "String should not have been copied.";
+    }
+
+
     @Test
     public void testFormatIntegerPercentage()
     {
@@ -80,4 +128,106 @@ public class ReportNGUtilsTest
         String percentage = utils.formatPercentage(2, 3);
         assert "66.67%".equals(percentage) : "Wrongly formatted percentage: " + percentage;
     }
-}
\ No newline at end of file
+
+
+    @Test
+    public void testEndTimeIsStartOfNextInvocationOnSameThread()
+    {
+        ITestNGMethod method1 = createMethod("thread1");
+        ITestNGMethod method2 = createMethod("thread2");
+        ITestNGMethod method3 = createMethod("thread1");
+        IInvokedMethod first = createInvocation(method1, 100);
+        IInvokedMethod other = createInvocation(method2, 150);
+        IInvokedMethod second = createInvocation(method3, 200);
+        List<IInvokedMethod> invocations = Arrays.asList(first, other, second);
+        ISuite suite = createSuite(1000, null, method1, method2, method3);
+
+        InvokedMethodIndex index = utils.indexInvokedMethods(suite, invocations);
+        assert index.getStartTime() == 100 : "Wrong start time: " + index.getStartTime();
+        long endTime = index.getEndTime(first);
+        assert endTime == 200 : "Should end when the next invocation on the thread starts: " + endTime;
+        // There are no later invocations on the same threads, so the test's end time is used.
+        endTime = index.getEndTime(other);
+        assert endTime == 1000 : "Should end when the test ends: " + endTime;
+        endTime = index.getEndTime(second);
+        assert endTime == 1000 : "Should end when the test ends: " + endTime;
+    }
+
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testEndTimeWithoutIndex()
+    {
+        ITestNGMethod method1 = createMethod("thread1");
+        ITestNGMethod method2 = createMethod("thread1");
+        IInvokedMethod first = createInvocation(method1, 100);
+        IInvokedMethod second = createInvocation(method2, 200);
+        List<IInvokedMethod> invocations = Arrays.asList(first, second);
+        ISuite suite = createSuite(1000, null, method1, method2);
+        long endTime = utils.getEndTime(suite, first, invocations);
+        assert endTime == 200 : "Should end when the next invocation on the thread starts: " + endTime;
+    }
+
+
+    /**
+     * Configuration methods are not test methods, and invocations may not have a
+     * thread ID, but the end time of the test can still be found.
+     */
+    @Test
+    public void testConfigurationEndTime()
+    {
+        ITestNGMethod test = createMethod("thread1");
+        ITestNGMethod configuration = createMethod(null);
+        IInvokedMethod setUp = createInvocation(configuration, 50);
+        IInvokedMethod invocation = createInvocation(test, 100);
+        ISuite suite = createSuite(1000, configuration, test);
+
+        InvokedMethodIndex index = utils.indexInvokedMethods(suite, Arrays.asList(setUp, invocation));
+        assert index.getEndTime(setUp) == 1000 : "Should end when the test ends: " + index.getEndTime(setUp);
+        assert index.getEndTime(invocation) == 1000 : "Should end when the test ends: " + index.getEndTime(invocation);
+    }
+
+
+    private ITestNGMethod createMethod(String threadId)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getId", threadId);
+        return TestNGProxies.create(ITestNGMethod.class, values);
+    }
+
+
+    private IInvokedMethod createInvocation(ITestNGMethod method, long date)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getTestMethod", method);
+        values.put("getDate", date);
+        return TestNGProxies.create(IInvokedMethod.class, values);
+    }
+
+
+    /**
+     * @param configuration A passed configuration method of the suite's only test, or null.
+     */
+    private ISuite createSuite(long endTime, ITestNGMethod configuration, ITestNGMethod... methods)
+    {
+        Set<ITestResult> configurations = new HashSet<ITestResult>();
+        if (configuration != null)
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getMethod", configuration);
+            configurations.add(TestNGProxies.create(ITestResult.class, values));
+        }
+        Map<String, Object> contextValues = new HashMap<String, Object>();
+        contextValues.put("getAllTestMethods", methods);
+        contextValues.put("getEndDate", new Date(endTime));
+        contextValues.put("getPassedConfigurations", TestNGProxies.createResultMap(configurations));
+        contextValues.put("getFailedConfigurations", TestNGProxies.createResultMap(Collections.<ITestResult>emptySet()));
+        Map<String, Object> resultValues = new HashMap<String, Object>();
+        resultValues.put("getTestContext", TestNGProxies.create(ITestContext.class, contextValues));
+        Map<String, ISuiteResult> results = new HashMap<String, ISuiteResult>();
+        results.put("test", TestNGProxies.create(ISuiteResult.class, resultValues));
+        Map<String, Object> suiteValues = new HashMap<String, Object>();
+        suiteValues.put("getResults", results);
+        return TestNGProxies.create(ISuite.class, suiteValues);
+    }
+}
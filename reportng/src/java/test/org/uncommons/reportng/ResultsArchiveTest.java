@@ -0,0 +1,293 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.Reporter;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ResultsArchive} and {@link ReportMerger}.  Results are written
+ * to an archive and read back, and must have the same values as the originals.
+ * @author Daniel Dyer
+ */
+public class ResultsArchiveTest
+{
+    private static final String CLASS_NAME = "com.example.ArchivedTest";
+    private static final String[] CONFIGURATION_METHODS = {"isBeforeSuiteConfiguration", "isAfterSuiteConfiguration",
+                                                           "isBeforeTestConfiguration", "isAfterTestConfiguration",
+                                                           "isBeforeGroupsConfiguration", "isAfterGroupsConfiguration",
+                                                           "isBeforeClassConfiguration", "isAfterClassConfiguration",
+                                                           "isBeforeMethodConfiguration", "isAfterMethodConfiguration"};
+
+    private final ReportNGUtils utils = new ReportNGUtils();
+
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Exception cause = new IOException("Disk full.");
+        Exception failure = new IllegalStateException("Could not save.", cause);
+        ITestResult failed = createResult(createMethod("save", null),
+                                          ITestResult.FAILURE, 1000, 1250, failure, "row 1");
+        ITestResult skipped = createResult(createMethod("load", null),
+                                           ITestResult.SKIP, 1250, 1260, new SkipException("Not ready."));
+        ITestResult passed = createResult(createMethod("open", null), ITestResult.SUCCESS, 1260, 1300, null);
+        ITestResult setUp = createResult(createMethod("setUp", "isBeforeMethodConfiguration"),
+                                         ITestResult.FAILURE, 990, 1000, new RuntimeException("No database."));
+        Reporter.setCurrentTestResult(failed);
+        Reporter.log("Saving...");
+        Reporter.log("Still saving...");
+        Reporter.setCurrentTestResult(null);
+
+        Map<String, Set<ITestResult>> results = new HashMap<String, Set<ITestResult>>();
+        results.put("getFailedTests", createSet(failed));
+        results.put("getSkippedTests", createSet(skipped));
+        results.put("getPassedTests", createSet(passed));
+        results.put("getFailedConfigurations", createSet(setUp));
+        ISuite suite = createSuite("Archived Suite", createContext("Archived Test", 990, 1300, results));
+
+        ReportMerger merger = new ReportMerger();
+        ResultsArchive archive = writeAndRead(suite, merger);
+        try
+        {
+            List<ISuite> suites = merger.getSuites();
+            assert suites.size() == 1 : "Wrong number of suites: " + suites.size();
+            assert suites.get(0).getName().equals("Archived Suite") : "Wrong suite name: " + suites.get(0).getName();
+            Collection<ITestNGMethod> groupMethods = suites.get(0).getMethodsByGroups().get("fast");
+            assert groupMethods.size() == 1 : "Wrong number of group methods: " + groupMethods.size();
+            assert groupMethods.iterator().next().getMethodName().equals("open") : "Wrong group method.";
+
+            ITestContext context = suites.get(0).getResults().get("Archived Test").getTestContext();
+            assert context.getStartDate().getTime() == 990 : "Wrong start time: " + context.getStartDate();
+            assert context.getEndDate().getTime() == 1300 : "Wrong end time: " + context.getEndDate();
+            assert context.getPassedTests().size() == 1 : "Wrong number of passed tests.";
+            assert context.getPassedConfigurations().size() == 0 : "Wrong number of passed configurations.";
+            ITestResult archivedPass = context.getPassedTests().getAllResults().iterator().next();
+            assert archivedPass.getThrowable() == null : "Passed test should not have a throwable.";
+            assert archivedPass.getParameters().length == 0 : "Wrong number of parameters.";
+            // Groups are archived for the suite as a whole, rather than for each result.
+            assert Arrays.equals(archivedPass.getMethod().getGroups(), new String[]{"fast"}) : "Wrong groups.";
+
+            ITestResult archivedFailure = context.getFailedTests().getAllResults().iterator().next();
+            assert archivedFailure.getName().equals("save") : "Wrong name: " + archivedFailure.getName();
+            assert archivedFailure.getStatus() == ITestResult.FAILURE : "Wrong status: " + archivedFailure.getStatus();
+            assert archivedFailure.getStartMillis() == 1000 : "Wrong start: " + archivedFailure.getStartMillis();
+            assert archivedFailure.getEndMillis() == 1250 : "Wrong end: " + archivedFailure.getEndMillis();
+            assert archivedFailure.getTestClass().getName().equals(CLASS_NAME) : "Wrong class.";
+            assert archivedFailure.getMethod().getDescription().equals("Checks save.") : "Wrong description.";
+            assert Arrays.equals(archivedFailure.getMethod().getGroups(), new String[0]) : "Wrong groups.";
+            assert archivedFailure.getParameters().length == 1 : "Wrong number of parameters.";
+            assert archivedFailure.getParameters()[0].toString().equals("\"row 1\"")
+                : "Wrong parameter: " + archivedFailure.getParameters()[0];
+            assert utils.getTestOutput(archivedFailure).equals(Arrays.asList("Saving...", "Still saving..."))
+                : "Wrong output: " + utils.getTestOutput(archivedFailure);
+            checkThrowable(archivedFailure.getThrowable(), failure);
+            checkThrowable(archivedFailure.getThrowable().getCause(), cause);
+            assert archivedFailure.getThrowable().getCause().getCause() == null : "Cause should not have a cause.";
+
+            ITestResult archivedSkip = context.getSkippedTests().getAllResults().iterator().next();
+            assert utils.hasSkipException(archivedSkip) : "Skip exception not recognised.";
+            assert !utils.hasSkipException(archivedFailure) : "Failure mistaken for skip exception.";
+
+            ITestResult archivedSetUp = context.getFailedConfigurations().getAllResults().iterator().next();
+            assert ConfigurationStatistics.getAnnotation(archivedSetUp.getMethod()).equals("@BeforeMethod")
+                : "Wrong annotation: " + ConfigurationStatistics.getAnnotation(archivedSetUp.getMethod());
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+
+    /**
+     * Suites and tests with the same names in different archives are combined.
+     */
+    @Test
+    public void testMerge() throws IOException
+    {
+        Map<String, Set<ITestResult>> results1 = new HashMap<String, Set<ITestResult>>();
+        results1.put("getPassedTests", createSet(createResult(createMethod("open", null),
+                                                              ITestResult.SUCCESS, 100, 200, null)));
+        ISuite suite1 = createSuite("Split Suite", createContext("Split Test", 100, 200, results1));
+        Map<String, Set<ITestResult>> results2 = new HashMap<String, Set<ITestResult>>();
+        results2.put("getPassedTests", createSet(createResult(createMethod("open", null),
+                                                              ITestResult.SUCCESS, 50, 150, null)));
+        results2.put("getFailedTests", createSet(createResult(createMethod("save", null),
+                                                              ITestResult.FAILURE, 150, 300, new Exception())));
+        ISuite suite2 = createSuite("Split Suite", createContext("Split Test", 50, 300, results2));
+
+        ReportMerger merger = new ReportMerger();
+        ResultsArchive archive1 = writeAndRead(suite1, merger);
+        ResultsArchive archive2 = writeAndRead(suite2, merger);
+        try
+        {
+            List<ISuite> suites = merger.getSuites();
+            assert suites.size() == 1 : "Suites should be merged: " + suites.size();
+            assert suites.get(0).getMethodsByGroups().get("fast").size() == 1 : "Group methods should not be repeated.";
+            Map<String, ISuiteResult> suiteResults = suites.get(0).getResults();
+            assert suiteResults.size() == 1 : "Tests should be merged: " + suiteResults.size();
+            ITestContext context = suiteResults.get("Split Test").getTestContext();
+            assert context.getStartDate().getTime() == 50 : "Wrong start time: " + context.getStartDate();
+            assert context.getEndDate().getTime() == 300 : "Wrong end time: " + context.getEndDate();
+            assert context.getPassedTests().size() == 2 : "Wrong number of passed tests.";
+            assert context.getFailedTests().size() == 1 : "Wrong number of failed tests.";
+            Iterator<ITestResult> passed = context.getPassedTests().getAllResults().iterator();
+            assert passed.next().getMethod() == passed.next().getMethod() : "Invocations should share a method.";
+        }
+        finally
+        {
+            archive1.close();
+            archive2.close();
+        }
+    }
+
+
+    private ResultsArchive writeAndRead(ISuite suite, ReportMerger merger) throws IOException
+    {
+        File file = File.createTempFile("reportng", ".bin");
+        file.deleteOnExit();
+        ResultsArchive.write(Collections.singletonList(suite), Collections.<String>emptyList(), utils, file);
+        ResultsArchive archive = new ResultsArchive(file);
+        archive.read(merger);
+        return archive;
+    }
+
+
+    private void checkThrowable(Throwable archived, Throwable original)
+    {
+        assert archived instanceof ArchivedThrowable : "Wrong throwable class: " + archived.getClass();
+        assert ArchivedThrowable.getType(archived).equals(original.getClass().getName())
+            : "Wrong type: " + ArchivedThrowable.getType(archived);
+        assert archived.getMessage().equals(original.getMessage()) : "Wrong message: " + archived.getMessage();
+        assert archived.toString().equals(original.toString()) : "Wrong string: " + archived;
+        StackTraceElement[] archivedTrace = archived.getStackTrace();
+        StackTraceElement[] originalTrace = original.getStackTrace();
+        assert archivedTrace.length == originalTrace.length : "Wrong stack depth: " + archivedTrace.length;
+        for (int i = 0; i < archivedTrace.length; i++)
+        {
+            // Compared field by field because newer JVMs also record the module, which is not archived.
+            assert archivedTrace[i].getClassName().equals(originalTrace[i].getClassName())
+                   && archivedTrace[i].getMethodName().equals(originalTrace[i].getMethodName())
+                   && String.valueOf(archivedTrace[i].getFileName()).equals(String.valueOf(originalTrace[i].getFileName()))
+                   && archivedTrace[i].getLineNumber() == originalTrace[i].getLineNumber()
+                : "Wrong stack trace element: " + archivedTrace[i];
+        }
+    }
+
+
+    private ISuite createSuite(String name, ITestContext context)
+    {
+        Map<String, ISuiteResult> suiteResults = new HashMap<String, ISuiteResult>();
+        Map<String, Object> suiteResultValues = new HashMap<String, Object>();
+        suiteResultValues.put("getTestContext", context);
+        suiteResults.put(context.getName(), TestNGProxies.create(ISuiteResult.class, suiteResultValues));
+        Map<String, Collection<ITestNGMethod>> methodsByGroups = new HashMap<String, Collection<ITestNGMethod>>();
+        methodsByGroups.put("fast", Collections.singletonList(createMethod("open", null)));
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getMethodsByGroups", methodsByGroups);
+        values.put("getResults", suiteResults);
+        return TestNGProxies.create(ISuite.class, values);
+    }
+
+
+    private ITestContext createContext(String name, long start, long end, Map<String, Set<ITestResult>> results)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getStartDate", new Date(start));
+        values.put("getEndDate", new Date(end));
+        for (String resultMap : Arrays.asList("getPassedConfigurations", "getSkippedConfigurations",
+                                              "getFailedConfigurations", "getPassedTests",
+                                              "getSkippedTests", "getFailedTests"))
+        {
+            Set<ITestResult> resultSet = results.get(resultMap);
+            values.put(resultMap, TestNGProxies.createResultMap(resultSet != null
+                                                                ? resultSet
+                                                                : Collections.<ITestResult>emptySet()));
+        }
+        return TestNGProxies.create(ITestContext.class, values);
+    }
+
+
+    private ITestResult createResult(ITestNGMethod method,
+                                     int status,
+                                     long start,
+                                     long end,
+                                     Throwable throwable,
+                                     Object... parameters)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", method.getMethodName());
+        values.put("getTestName", null);
+        values.put("getMethod", method);
+        values.put("getTestClass", method.getTestClass());
+        values.put("getStatus", status);
+        values.put("getStartMillis", start);
+        values.put("getEndMillis", end);
+        values.put("getParameters", parameters);
+        values.put("getThrowable", throwable);
+        return TestNGProxies.create(ITestResult.class, values);
+    }
+
+
+    /**
+     * @param configurationMethod The method that identifies the kind of configuration
+     * method, or null for a test method.
+     */
+    private ITestNGMethod createMethod(String name, String configurationMethod)
+    {
+        Map<String, Object> classValues = new HashMap<String, Object>();
+        classValues.put("getName", CLASS_NAME);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getMethodName", name);
+        values.put("getTestClass", TestNGProxies.create(ITestClass.class, classValues));
+        values.put("getDescription", "Checks " + name + ".");
+        values.put("getGroupsDependedUpon", new String[0]);
+        values.put("getMethodsDependedUpon", new String[0]);
+        for (String method : CONFIGURATION_METHODS)
+        {
+            values.put(method, method.equals(configurationMethod));
+        }
+        return TestNGProxies.create(ITestNGMethod.class, values);
+    }
+
+
+    private Set<ITestResult> createSet(ITestResult result)
+    {
+        return new LinkedHashSet<ITestResult>(Collections.singleton(result));
+    }
+}
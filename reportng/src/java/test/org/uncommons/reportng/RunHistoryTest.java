@@ -0,0 +1,207 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.testng.ISuite;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link RunHistory}.
+ * @author Daniel Dyer
+ */
+public class RunHistoryTest
+{
+    @Test
+    public void testMissingFile() throws IOException
+    {
+        File file = new File(createTemporaryDirectory(), "history/runs.txt");
+        assert !file.exists() : "File should not exist yet.";
+        RunHistory history = RunHistory.load(file, 5);
+        ITestResult result = createResult(200);
+        history.record(result.getTestContext());
+        assert !history.hasTrend(result) : "There should be no trend without history.";
+        assert !history.hasTestTrend(result.getTestContext()) : "There should be no test trend without history.";
+
+        // Saving creates the file, and its directory.
+        history.save();
+        assert file.exists() : "History file was not created.";
+        RunHistory.Trend trend = recordRun(file, 5, 300);
+        assert trend.getRuns() == 1 : "Wrong number of runs: " + trend.getRuns();
+        assert trend.getMedian() == 200 : "Wrong median: " + trend.getMedian();
+        assert trend.getDelta() == 100 : "Wrong delta: " + trend.getDelta();
+    }
+
+
+    /**
+     * Lines that can't be parsed, such as those left by a run that was killed while
+     * writing its history, are ignored.
+     */
+    @Test
+    public void testBadLines() throws IOException
+    {
+        File file = new File(createTemporaryDirectory(), "runs.txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            // Records before the first run header don't belong to any run.
+            writer.write("M\tSuite\tTest\tExample#check\tP\t9000\n");
+            writer.write("#run\t1\n");
+            writer.write("M\tSuite\tTest\tExample#check\tP\t100\n");
+            writer.write("M\tSuite\tTest\tExample#check\tP\tnot a number\n");
+            writer.write("garbage\n");
+            writer.write("#run\t2\n");
+            writer.write("M\tSuite\tTest\tExample#check\tP\t300\n");
+            // Truncated.
+            writer.write("M\tSuite\tTest\tExample#check\tP");
+        }
+        finally
+        {
+            writer.close();
+        }
+        RunHistory.Trend trend = recordRun(file, 5, 250);
+        assert trend.getRuns() == 2 : "Wrong number of runs: " + trend.getRuns();
+        assert trend.getMedian() == 200 : "Wrong median: " + trend.getMedian();
+    }
+
+
+    /**
+     * The file is only re-written once it holds twice as many runs as are retained.
+     */
+    @Test
+    public void testCompaction() throws IOException
+    {
+        File file = new File(createTemporaryDirectory(), "runs.txt");
+        int size = 3;
+        for (int run = 1; run <= size * 2; run++)
+        {
+            recordRun(file, size, run * 100);
+            assert countRuns(file) == run : "Wrong number of runs on file: " + countRuns(file);
+        }
+        // Only the retained runs are used, even though there are more on file.
+        RunHistory.Trend trend = recordRun(file, size, 700);
+        assert trend.getRuns() == size - 1 : "Wrong number of runs: " + trend.getRuns();
+        assert trend.getMedian() == 550 : "Wrong median: " + trend.getMedian();
+        assert countRuns(file) == size : "File not compacted: " + countRuns(file);
+
+        // After compaction, the file grows again from the retained runs.
+        trend = recordRun(file, size, 800);
+        assert trend.getMedian() == 650 : "Wrong median: " + trend.getMedian();
+        assert countRuns(file) == size + 1 : "Wrong number of runs on file: " + countRuns(file);
+    }
+
+
+    /**
+     * Loads the history, records a single run and saves it.
+     * @return The trend for the run's only method.
+     */
+    private RunHistory.Trend recordRun(File file, int size, long duration) throws IOException
+    {
+        RunHistory history = RunHistory.load(file, size);
+        ITestResult result = createResult(duration);
+        history.record(result.getTestContext());
+        history.save();
+        return history.getTrend(result);
+    }
+
+
+    private int countRuns(File file) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            int runs = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                if (line.startsWith("#run\t"))
+                {
+                    ++runs;
+                }
+            }
+            return runs;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    private File createTemporaryDirectory() throws IOException
+    {
+        File directory = File.createTempFile("reportng", "history");
+        if (!directory.delete() || !directory.mkdir())
+        {
+            throw new IOException("Failed creating temporary directory " + directory);
+        }
+        directory.deleteOnExit();
+        return directory;
+    }
+
+
+    /**
+     * Creates a single passed result for the method Example#check, in a test with no
+     * other results.
+     */
+    private ITestResult createResult(long duration)
+    {
+        Map<String, Object> suiteValues = new HashMap<String, Object>();
+        suiteValues.put("getName", "Suite");
+        Map<String, Object> classValues = new HashMap<String, Object>();
+        classValues.put("getName", "Example");
+        Map<String, Object> methodValues = new HashMap<String, Object>();
+        methodValues.put("getMethodName", "check");
+
+        Map<String, Object> contextValues = new HashMap<String, Object>();
+        ITestContext context = TestNGProxies.create(ITestContext.class, contextValues);
+        Map<String, Object> resultValues = new HashMap<String, Object>();
+        resultValues.put("getTestContext", context);
+        resultValues.put("getTestClass", TestNGProxies.create(ITestClass.class, classValues));
+        resultValues.put("getMethod", TestNGProxies.create(ITestNGMethod.class, methodValues));
+        resultValues.put("getStatus", ITestResult.SUCCESS);
+        resultValues.put("getStartMillis", 1000L);
+        resultValues.put("getEndMillis", 1000 + duration);
+        ITestResult result = TestNGProxies.create(ITestResult.class, resultValues);
+
+        Set<ITestResult> none = Collections.emptySet();
+        contextValues.put("getName", "Test");
+        contextValues.put("getSuite", TestNGProxies.create(ISuite.class, suiteValues));
+        contextValues.put("getPassedConfigurations", TestNGProxies.createResultMap(none));
+        contextValues.put("getSkippedConfigurations", TestNGProxies.createResultMap(none));
+        contextValues.put("getFailedConfigurations", TestNGProxies.createResultMap(none));
+        contextValues.put("getPassedTests",
+                          TestNGProxies.createResultMap(new LinkedHashSet<ITestResult>(Collections.singleton(result))));
+        contextValues.put("getSkippedTests", TestNGProxies.createResultMap(none));
+        contextValues.put("getFailedTests", TestNGProxies.createResultMap(none));
+        return result;
+    }
+}
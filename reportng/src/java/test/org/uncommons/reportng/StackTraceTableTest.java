@@ -0,0 +1,71 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link StackTraceTable}.
+ * @author Daniel Dyer
+ */
+public class StackTraceTableTest
+{
+    @Test
+    public void testIdenticalTraces()
+    {
+        StackTraceTable table = new StackTraceTable(true);
+        Throwable[] throwables = new Throwable[2];
+        for (int i = 0; i < throwables.length; i++)
+        {
+            throwables[i] = new IllegalStateException("Failed.", new RuntimeException("Cause."));
+        }
+        StackTraceTable.Reference first = table.register(throwables[0], 1, "first");
+        StackTraceTable.Reference second = table.register(throwables[1], 2, "second");
+        assert first.isFirstOccurrence() : "First trace should not be a duplicate.";
+        assert !second.isFirstOccurrence() : "Identical trace should be a duplicate.";
+        assert second.getId() == 1 : "Duplicate should refer to first trace, was " + second.getId();
+        assert second.getName().equals("first") : "Wrong name: " + second.getName();
+        assert table.size() == 1 : "Wrong number of distinct traces: " + table.size();
+    }
+
+
+    @Test
+    public void testDifferentCauses()
+    {
+        StackTraceTable table = new StackTraceTable(true);
+        Throwable[] throwables = new Throwable[2];
+        for (int i = 0; i < throwables.length; i++)
+        {
+            throwables[i] = new IllegalStateException("Failed.", new RuntimeException("Cause " + i));
+        }
+        table.register(throwables[0], 1, "first");
+        StackTraceTable.Reference second = table.register(throwables[1], 2, "second");
+        assert second.isFirstOccurrence() : "Traces with different causes should be distinct.";
+        assert table.size() == 2 : "Wrong number of distinct traces: " + table.size();
+    }
+
+
+    @Test
+    public void testDeduplicationDisabled()
+    {
+        StackTraceTable table = new StackTraceTable(false);
+        Throwable throwable = new IllegalStateException("Failed.");
+        table.register(throwable, 1, "first");
+        StackTraceTable.Reference second = table.register(throwable, 2, "second");
+        assert second.isFirstOccurrence() : "Traces should not be de-duplicated.";
+        assert second.getId() == 2 : "Wrong ID: " + second.getId();
+    }
+}
@@ -0,0 +1,261 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.testng.IInvokedMethod;
+import org.testng.ISuite;
+import org.testng.ISuiteResult;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link SuiteTimeline}.
+ * @author Daniel Dyer
+ */
+public class SuiteTimelineTest
+{
+    private final ReportNGUtils utils = new ReportNGUtils();
+    private final ITestClass testClass = createClass();
+    private final List<IInvokedMethod> invokedMethods = new ArrayList<IInvokedMethod>();
+    private final Map<String, ISuiteResult> suiteResults = new LinkedHashMap<String, ISuiteResult>();
+    private ISuite suite;
+
+
+    @BeforeMethod
+    public void reset()
+    {
+        invokedMethods.clear();
+        suiteResults.clear();
+        suite = createSuite(invokedMethods, suiteResults);
+    }
+
+
+    /**
+     * Two threads, plus two invocations that can't go in the lane of their thread:
+     * one that overlaps the previous invocation on its thread and one whose thread
+     * is unknown.
+     */
+    @Test
+    public void testLanesAndUtilisation()
+    {
+        Set<ITestResult> fast = new LinkedHashSet<ITestResult>();
+        Set<ITestResult> slow = new LinkedHashSet<ITestResult>();
+        ITestContext fastTest = createContext(suite, "Fast", 1000, 1200, fast);
+        ITestContext slowTest = createContext(suite, "Slow", 1050, 1200, slow);
+        // The tests are listed in suite order, not in the order that they started.
+        addSuiteResult(slowTest);
+        addSuiteResult(fastTest);
+
+        addInvocation(fastTest, fast, "one", "pool-1@11", 1000, 1100, ITestResult.SUCCESS);
+        addInvocation(fastTest, fast, "two", "pool-2@22", 1000, 1050, ITestResult.SUCCESS);
+        addInvocation(fastTest, fast, "three", "pool-2@22", 1020, 1080, ITestResult.FAILURE);
+        addInvocation(slowTest, slow, "four", null, 1050, 1180, ITestResult.SUCCESS);
+        addInvocation(fastTest, fast, "five", "pool-1@11", 1100, 1200, ITestResult.SKIP);
+
+        // Invocations from another suite in the same JVM are ignored.
+        ISuite otherSuite = createSuite(Collections.<IInvokedMethod>emptyList(),
+                                        Collections.<String, ISuiteResult>emptyMap());
+        Set<ITestResult> other = new LinkedHashSet<ITestResult>();
+        ITestContext otherTest = createContext(otherSuite, "Other", 0, 5000, other);
+        addInvocation(otherTest, other, "six", "pool-1@11", 0, 5000, ITestResult.SUCCESS);
+
+        SuiteTimeline timeline = SuiteTimeline.forSuite(suite, utils);
+        assert !timeline.isEmpty() : "Timeline should not be empty.";
+        assert timeline.getStartTime() == 1000 : "Wrong start time: " + timeline.getStartTime();
+        assert timeline.getWallTime() == 200 : "Wrong wall time: " + timeline.getWallTime();
+        assert timeline.getBusyTime() == 440 : "Wrong busy time: " + timeline.getBusyTime();
+        assert timeline.getParallelism().equals("2.20") : "Wrong parallelism: " + timeline.getParallelism();
+        // 440ms busy out of 4 lanes * 200ms.
+        assert timeline.getIdlePercentage().equals("45.0%") : "Wrong idle percentage: " + timeline.getIdlePercentage();
+
+        List<SuiteTimeline.Lane> lanes = timeline.getLanes();
+        assert lanes.size() == 4 : "Wrong number of lanes: " + lanes.size();
+        checkLane(lanes.get(0), "pool-2", 50, 1);
+        checkLane(lanes.get(1), "pool-1", 200, 2);
+        checkLane(lanes.get(2), null, 60, 1);
+        checkLane(lanes.get(3), null, 130, 1);
+
+        SuiteTimeline.Block block = lanes.get(1).getBlocks().get(1);
+        assert block.getLabel().equals("Example.five") : "Wrong label: " + block.getLabel();
+        assert block.getLeft().equals("50.000%") : "Wrong position: " + block.getLeft();
+        assert block.getWidth().equals("50.000%") : "Wrong width: " + block.getWidth();
+        assert block.getStyleClass().equals("skipped") : "Wrong style: " + block.getStyleClass();
+        assert lanes.get(2).getBlocks().get(0).getStyleClass().equals("failed") : "Block should be failed.";
+
+        List<SuiteTimeline.TestUtilisation> tests = timeline.getTests();
+        assert tests.size() == 2 : "Wrong number of tests: " + tests.size();
+        checkTest(tests.get(0), "Slow", 130, 1, "0.87", "13.3%");
+        checkTest(tests.get(1), "Fast", 310, 3, "1.55", "48.3%");
+    }
+
+
+    /**
+     * Consecutive invocations that are too narrow to see are shown as one block,
+     * coloured by the worst outcome.
+     */
+    @Test
+    public void testNarrowInvocationsAreMerged()
+    {
+        Set<ITestResult> results = new LinkedHashSet<ITestResult>();
+        ITestContext context = createContext(suite, "Test", 0, 20000, results);
+        addSuiteResult(context);
+        addInvocation(context, results, "long", "main@1", 0, 20000, ITestResult.SUCCESS);
+        // The resolution is 10ms for a 20 second timeline.
+        addInvocation(context, results, "short1", "worker@2", 100, 102, ITestResult.SUCCESS);
+        addInvocation(context, results, "short2", "worker@2", 105, 108, ITestResult.FAILURE);
+        addInvocation(context, results, "short3", "worker@2", 110, 111, ITestResult.SKIP);
+        addInvocation(context, results, "short4", "worker@2", 5000, 5001, ITestResult.SUCCESS);
+
+        SuiteTimeline timeline = SuiteTimeline.forSuite(suite, utils);
+        SuiteTimeline.Lane lane = timeline.getLanes().get(1);
+        checkLane(lane, "worker", 7, 2);
+        SuiteTimeline.Block merged = lane.getBlocks().get(0);
+        assert merged.getCount() == 3 : "Wrong count: " + merged.getCount();
+        assert merged.getLabel() == null : "Merged blocks should not have a label.";
+        assert merged.getDuration() == 11 : "Wrong duration: " + merged.getDuration();
+        assert merged.getStyleClass().equals("failed") : "Wrong style: " + merged.getStyleClass();
+        assert lane.getBlocks().get(1).getCount() == 1 : "Distant invocation should not be merged.";
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        SuiteTimeline timeline = SuiteTimeline.forSuite(suite, utils);
+        assert timeline.isEmpty() : "Timeline should be empty.";
+        assert timeline.getWallTime() == 0 : "Wrong wall time: " + timeline.getWallTime();
+        assert timeline.getParallelism().equals("-") : "Wrong parallelism: " + timeline.getParallelism();
+        assert timeline.getIdlePercentage().equals("-") : "Wrong idle percentage: " + timeline.getIdlePercentage();
+        assert timeline.getTests().isEmpty() : "There should be no tests.";
+    }
+
+
+    private void checkLane(SuiteTimeline.Lane lane, String threadName, long busyTime, int blocks)
+    {
+        assert threadName == null ? lane.getThreadName() == null : threadName.equals(lane.getThreadName())
+            : "Wrong thread: " + lane.getThreadName();
+        assert lane.getBusyTime() == busyTime : "Wrong busy time for " + threadName + ": " + lane.getBusyTime();
+        assert lane.getBlocks().size() == blocks : "Wrong number of blocks for " + threadName + ": "
+                                                   + lane.getBlocks().size();
+    }
+
+
+    private void checkTest(SuiteTimeline.TestUtilisation test,
+                           String name,
+                           long summedTime,
+                           int threads,
+                           String parallelism,
+                           String idlePercentage)
+    {
+        assert test.getName().equals(name) : "Wrong test: " + test.getName();
+        assert test.getSummedTime() == summedTime : "Wrong summed time for " + name + ": " + test.getSummedTime();
+        assert test.getThreadCount() == threads : "Wrong thread count for " + name + ": " + test.getThreadCount();
+        assert test.getParallelism().equals(parallelism) : "Wrong parallelism for " + name + ": "
+                                                           + test.getParallelism();
+        assert test.getIdlePercentage().equals(idlePercentage) : "Wrong idle percentage for " + name + ": "
+                                                                 + test.getIdlePercentage();
+    }
+
+
+    private void addSuiteResult(ITestContext context)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getTestContext", context);
+        suiteResults.put(context.getName(), TestNGProxies.create(ISuiteResult.class, values));
+    }
+
+
+    private void addInvocation(ITestContext context,
+                               Set<ITestResult> results,
+                               String name,
+                               String threadId,
+                               long start,
+                               long end,
+                               int status)
+    {
+        Map<String, Object> methodValues = new HashMap<String, Object>();
+        methodValues.put("getId", threadId);
+        ITestNGMethod method = TestNGProxies.create(ITestNGMethod.class, methodValues);
+        Map<String, Object> resultValues = new HashMap<String, Object>();
+        resultValues.put("getName", name);
+        resultValues.put("getTestClass", testClass);
+        resultValues.put("getTestContext", context);
+        resultValues.put("getStatus", status);
+        resultValues.put("getStartMillis", start);
+        resultValues.put("getEndMillis", end);
+        ITestResult result = TestNGProxies.create(ITestResult.class, resultValues);
+        results.add(result);
+
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getTestMethod", method);
+        values.put("getTestResult", result);
+        values.put("getDate", start);
+        values.put("isConfigurationMethod", false);
+        invokedMethods.add(TestNGProxies.create(IInvokedMethod.class, values));
+    }
+
+
+    private ISuite createSuite(List<IInvokedMethod> invokedMethods, Map<String, ISuiteResult> results)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Suite");
+        values.put("getAllInvokedMethods", invokedMethods);
+        values.put("getResults", results);
+        return TestNGProxies.create(ISuite.class, values);
+    }
+
+
+    /**
+     * Creates a test whose passed tests are the specified (initially empty) results.
+     */
+    private ITestContext createContext(ISuite suite, String name, long start, long end, Set<ITestResult> results)
+    {
+        Set<ITestResult> none = Collections.emptySet();
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", name);
+        values.put("getSuite", suite);
+        values.put("getStartDate", new Date(start));
+        values.put("getEndDate", new Date(end));
+        values.put("getPassedTests", TestNGProxies.createResultMap(results));
+        values.put("getFailedTests", TestNGProxies.createResultMap(none));
+        values.put("getSkippedTests", TestNGProxies.createResultMap(none));
+        values.put("getPassedConfigurations", TestNGProxies.createResultMap(none));
+        values.put("getFailedConfigurations", TestNGProxies.createResultMap(none));
+        values.put("getSkippedConfigurations", TestNGProxies.createResultMap(none));
+        return TestNGProxies.create(ITestContext.class, values);
+    }
+
+
+    private static ITestClass createClass()
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getName", "Example");
+        return TestNGProxies.create(ITestClass.class, values);
+    }
+}
@@ -0,0 +1,136 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.testng.IClass;
+import org.testng.ITestResult;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link TestResults}.  The results must be in exactly the order that
+ * they were in when each result was inserted in turn into a sorted list of the
+ * results for its class.
+ * @author Daniel Dyer
+ */
+public class TestResultsTest
+{
+    /**
+     * The order in which results were sorted before {@link TestResults} was introduced.
+     */
+    private static final Comparator<ITestResult> OLD_COMPARATOR = new Comparator<ITestResult>()
+    {
+        public int compare(ITestResult result1, ITestResult result2)
+        {
+            return result1.getName().compareTo(result2.getName());
+        }
+    };
+
+
+    @Test
+    public void testOrderMatchesBinaryInsertion()
+    {
+        // Few names and many results, so that most results share their name with others.
+        Set<ITestResult> results = createResults(new Random(42), 3, 12, 2000);
+        checkOrder(results, TestResults.sortByTestClass(TestNGProxies.createResultMap(results), 1));
+    }
+
+
+    @Test
+    public void testDataProviderOrderMatchesBinaryInsertion()
+    {
+        // A single method invoked many times with different parameters.
+        Set<ITestResult> results = createResults(new Random(7), 1, 1, 500);
+        checkOrder(results, TestResults.sortByTestClass(TestNGProxies.createResultMap(results), 1));
+    }
+
+
+    @Test
+    public void testParallelOrderMatchesBinaryInsertion()
+    {
+        Set<ITestResult> results = createResults(new Random(99), 1, 20, TestResults.PARALLEL_SORT_THRESHOLD + 100);
+        checkOrder(results, TestResults.sortByTestClass(TestNGProxies.createResultMap(results), 4));
+    }
+
+
+    private void checkOrder(Set<ITestResult> results, SortedMap<IClass, List<ITestResult>> sortedResults)
+    {
+        SortedMap<String, List<ITestResult>> expected = sortByBinaryInsertion(results);
+        assert sortedResults.size() == expected.size() : "Wrong number of classes: " + sortedResults.size();
+        for (Map.Entry<IClass, List<ITestResult>> entry : sortedResults.entrySet())
+        {
+            String className = entry.getKey().getName();
+            assert entry.getValue().equals(expected.get(className)) : "Wrong order for " + className;
+        }
+    }
+
+
+    /**
+     * The grouping and sorting that {@link HTMLReporter} performed before the results
+     * were sorted by {@link TestResults}.
+     */
+    private SortedMap<String, List<ITestResult>> sortByBinaryInsertion(Set<ITestResult> results)
+    {
+        SortedMap<String, List<ITestResult>> sortedResults = new TreeMap<String, List<ITestResult>>();
+        for (ITestResult result : results)
+        {
+            List<ITestResult> resultsForClass = sortedResults.get(result.getTestClass().getName());
+            if (resultsForClass == null)
+            {
+                resultsForClass = new ArrayList<ITestResult>();
+                sortedResults.put(result.getTestClass().getName(), resultsForClass);
+            }
+            int index = Collections.binarySearch(resultsForClass, result, OLD_COMPARATOR);
+            if (index < 0)
+            {
+                index = Math.abs(index + 1);
+            }
+            resultsForClass.add(index, result);
+        }
+        return sortedResults;
+    }
+
+
+    private Set<ITestResult> createResults(Random rng, int classCount, int methodCount, int resultCount)
+    {
+        List<IClass> classes = new ArrayList<IClass>(classCount);
+        for (int i = 0; i < classCount; i++)
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getName", "com.example.Test" + i);
+            classes.add(TestNGProxies.create(IClass.class, values));
+        }
+        Set<ITestResult> results = new LinkedHashSet<ITestResult>();
+        for (int i = 0; i < resultCount; i++)
+        {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getName", "method" + rng.nextInt(methodCount));
+            values.put("getTestClass", classes.get(rng.nextInt(classCount)));
+            results.add(TestNGProxies.create(ITestResult.class, values));
+        }
+        return results;
+    }
+}
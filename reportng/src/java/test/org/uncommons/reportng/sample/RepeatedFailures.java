@@ -0,0 +1,34 @@
+//=============================================================================
+// Copyright 2006-2013 Daniel W. Dyer
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//=============================================================================
+package org.uncommons.reportng.sample;
+
+import org.testng.annotations.Test;
+
+/**
+ * A test that fails repeatedly with an identical stack trace, so that the sample
+ * report shows the trace in full once and links later failures back to it.  It is
+ * run as a separate test so that it does not change the results of the other tests.
+ * @author Daniel Dyer
+ */
+@Test(groups = {"should-fail", "repeated-failure"})
+public class RepeatedFailures
+{
+    @Test(invocationCount = 3)
+    public void repeatedFailure()
+    {
+        throw new IllegalStateException("Shared fixture is broken.");
+    }
+}